@@ -0,0 +1,138 @@
+package org.agaveapi.ops.speedtest.cli.commands;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.agaveapi.ops.speedtest.cli.stats.TransferStatistics;
+import org.apache.commons.io.FileUtils;
+import org.iplantc.service.transfer.exceptions.AuthenticationException;
+import org.iplantc.service.transfer.exceptions.RemoteDataException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of the {@link SpeedtestCommand} helpers that run on every 
+ * benchmark: generating test data, parsing sizes and formatting results.
+ * 
+ * @author dooley
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class SpeedtestCommandBenchmark {
+
+	@State(Scope.Benchmark)
+	public static class Formatting {
+		
+		LocalSpeedtestCommand command = new LocalSpeedtestCommand();
+		TransferStatistics statistics = new TransferStatistics();
+		String[] row = new String[] {"2MB", "12.345", "6789.01", "23.456", "4321.09"};
+		
+		@Setup
+		public void setUp() {
+			for (int i=0; i<100; i++) {
+				statistics.recordUpload(10000000L + i * 1000, 2 * 1024 * 1024);
+				statistics.recordDownload(20000000L + i * 1000, 2 * 1024 * 1024);
+			}
+		}
+	}
+	
+	@State(Scope.Benchmark)
+	public static class Generation {
+		
+		@Param({"4MB", "64MB", "512MB"})
+		public String size;
+		
+		LocalSpeedtestCommand command = new LocalSpeedtestCommand();
+		File directory;
+		File target;
+		
+		@Setup
+		public void setUp() {
+			directory = new File(System.getProperty("java.io.tmpdir"), "speedtest-jmh-" + System.nanoTime());
+			directory.mkdirs();
+			target = new File(directory, "generated.bin");
+			System.setProperty("speedtest.cache.dir", directory.getAbsolutePath());
+		}
+		
+		/**
+		 * maybeGenerateTestData reuses an existing file, so remove it 
+		 * before every call to measure generation rather than lookup.
+		 */
+		@Setup(Level.Invocation)
+		public void deleteTarget() {
+			FileUtils.deleteQuietly(target);
+		}
+		
+		@TearDown
+		public void tearDown() {
+			FileUtils.deleteQuietly(directory);
+		}
+	}
+	
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.NANOSECONDS)
+	public long parseHumanReadableNumber(Formatting state) {
+		return state.command.parseHumanReadableNumber("512MB");
+	}
+	
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.NANOSECONDS)
+	public String formatOutput(Formatting state) {
+		return state.command.formatOutput(state.row);
+	}
+	
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.NANOSECONDS)
+	public String calculateTime(Formatting state) {
+		return state.command.calculateTime(state.statistics, 2 * 1024 * 1024);
+	}
+	
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public File maybeGenerateTestData(Generation state) throws IOException {
+		return state.command.maybeGenerateTestData(state.target.getAbsolutePath(), state.size);
+	}
+	
+	/**
+	 * Minimal command giving access to the shared helpers without a 
+	 * remote system.
+	 */
+	static class LocalSpeedtestCommand extends SpeedtestCommand<Object> {
+
+		@Override
+		public boolean isSimpleAvailable() {
+			return true;
+		}
+
+		@Override
+		public String benchmark(String systemId, String testFilename, boolean includeUploadTest, 
+				boolean includeDownloadTest, String fileSize, int iterations, boolean streaming, 
+				int bufferSize, boolean verboseOutput, boolean debugOutput, boolean inMemory) 
+		throws Exception {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		protected void authenticate() throws AuthenticationException {}
+
+		@Override
+		protected Object getClient() throws RemoteDataException {
+			return null;
+		}
+	}
+}
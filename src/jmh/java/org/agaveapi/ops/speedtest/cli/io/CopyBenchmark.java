@@ -0,0 +1,152 @@
+package org.agaveapi.ops.speedtest.cli.io;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of the streaming copy loops against local files only. The 
+ * remote side of every transfer is replaced by a stream that discards or
+ * produces bytes without touching them, so the score is the most the 
+ * harness could ever report for a given buffer size. Each operation 
+ * moves {@link #LENGTH} bytes.
+ * 
+ * @author dooley
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class CopyBenchmark {
+
+	public static final long LENGTH = 64L * 1024 * 1024;
+	
+	@Param({"4096", "32768", "262144", "1048576", "4194304"})
+	public int bufferSize;
+	
+	private File directory;
+	private File source;
+	private File target;
+	private final BufferPool bufferPool = new BufferPool();
+	
+	@Setup
+	public void setUp() throws IOException {
+		directory = new File(System.getProperty("java.io.tmpdir"), "speedtest-jmh-" + System.nanoTime());
+		directory.mkdirs();
+		source = new File(directory, "source.bin");
+		target = new File(directory, "target.bin");
+		new TestDataGenerator(directory, Runtime.getRuntime().availableProcessors())
+			.generate(source, LENGTH, TestDataGenerator.DEFAULT_SEED);
+	}
+	
+	@TearDown
+	public void tearDown() {
+		FileUtils.deleteQuietly(directory);
+	}
+	
+	@Benchmark
+	public long streamUpload() throws IOException {
+		byte[] buf = bufferPool.acquireArray(bufferSize);
+		InputStream in = new FileInputStream(source);
+		try {
+			return Copier.copy(in, DISCARD, buf, LENGTH, null);
+		}
+		finally {
+			in.close();
+			bufferPool.release(buf);
+		}
+	}
+	
+	@Benchmark
+	public void channelUpload() throws IOException {
+		byte[] buf = bufferPool.acquireArray(bufferSize);
+		ByteBuffer buffer = bufferPool.acquireDirect(bufferSize);
+		FileChannel in = new FileInputStream(source).getChannel();
+		try {
+			Copier.copyFromChannel(in, DISCARD, buffer, buf, LENGTH, null);
+		}
+		finally {
+			in.close();
+			bufferPool.release(buffer);
+			bufferPool.release(buf);
+		}
+	}
+	
+	@Benchmark
+	public long streamDownload() throws IOException {
+		byte[] buf = bufferPool.acquireArray(bufferSize);
+		OutputStream out = new FileOutputStream(target);
+		try {
+			return Copier.copy(new ZeroInputStream(), out, buf, LENGTH, null);
+		}
+		finally {
+			out.close();
+			bufferPool.release(buf);
+		}
+	}
+	
+	@Benchmark
+	public long channelDownload() throws IOException {
+		byte[] buf = bufferPool.acquireArray(bufferSize);
+		ByteBuffer buffer = bufferPool.acquireDirect(bufferSize);
+		FileChannel out = new FileOutputStream(target).getChannel();
+		try {
+			return Copier.copyToChannel(new ZeroInputStream(), out, buffer, buf, LENGTH, null);
+		}
+		finally {
+			out.close();
+			bufferPool.release(buffer);
+			bufferPool.release(buf);
+		}
+	}
+	
+	/**
+	 * Stands in for an adaptor output stream with infinite bandwidth.
+	 */
+	private static final OutputStream DISCARD = new OutputStream() {
+		@Override
+		public void write(int b) {}
+		
+		@Override
+		public void write(byte[] b, int off, int len) {}
+	};
+	
+	/**
+	 * Stands in for an adaptor input stream with infinite bandwidth. Reads
+	 * fill the whole request without touching the buffer.
+	 */
+	private static class ZeroInputStream extends InputStream {
+		@Override
+		public int read() {
+			return 0;
+		}
+		
+		@Override
+		public int read(byte[] b, int off, int len) {
+			return len;
+		}
+	}
+}
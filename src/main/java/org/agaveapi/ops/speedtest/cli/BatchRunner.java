@@ -0,0 +1,203 @@
+package org.agaveapi.ops.speedtest.cli;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.agaveapi.ops.speedtest.cli.stats.StartupTiming;
+import org.apache.commons.io.FileUtils;
+import org.springframework.context.support.ClassPathXmlApplicationContext;
+import org.springframework.shell.converters.BooleanConverter;
+import org.springframework.shell.converters.DoubleConverter;
+import org.springframework.shell.converters.EnumConverter;
+import org.springframework.shell.converters.FloatConverter;
+import org.springframework.shell.converters.IntegerConverter;
+import org.springframework.shell.converters.LongConverter;
+import org.springframework.shell.converters.StringConverter;
+import org.springframework.shell.core.CommandMarker;
+import org.springframework.shell.core.SimpleParser;
+import org.springframework.shell.event.ParseResult;
+
+/**
+ * Runs commands without the interactive shell, for cron jobs and other
+ * probes that run many times a day. Only the command beans are loaded;
+ * the banner, prompt, command history and JLine console are never set
+ * up. Commands are given either on the command line or in a script file
+ * with one command per line, where blank lines and lines starting with
+ * # or // are skipped.
+ *
+ * <pre>
+ * java -jar speedtest.jar --batch "agave --system sftp.example.com --iter 5"
+ * java -jar speedtest.jar --script probes.txt
+ * </pre>
+ *
+ * Every command runs even if an earlier one fails. Results go to stdout,
+ * while failures and the startup timing go to stderr. The exit code is
+ * {@link #EXIT_OK} if every command succeeded, {@link #EXIT_USAGE} if a
+ * command could not be parsed and {@link #EXIT_FAILED} otherwise.
+ *
+ * @author dooley
+ *
+ */
+public class BatchRunner {
+	
+	public static final String BATCH_OPTION = "--batch";
+	public static final String SCRIPT_OPTION = "--script";
+	
+	public static final int EXIT_OK = 0;
+	public static final int EXIT_FAILED = 1;
+	public static final int EXIT_USAGE = 2;
+	
+	public static final String COMMAND_CONTEXT = "classpath*:/META-INF/spring/spring-shell-plugin.xml";
+	
+	private final PrintStream out;
+	private final PrintStream err;
+	
+	/**
+	 * @param out receives the output of every command
+	 * @param err receives failures and the startup timing
+	 */
+	public BatchRunner(PrintStream out, PrintStream err) {
+		this.out = out;
+		this.err = err;
+	}
+	
+	/**
+	 * @param args the program arguments
+	 * @return true if the arguments ask for batch mode
+	 */
+	public static boolean isBatch(String[] args) {
+		return args.length > 0 && (BATCH_OPTION.equals(args[0]) || SCRIPT_OPTION.equals(args[0]));
+	}
+	
+	/**
+	 * Runs the commands given by {@code args} and reports the startup
+	 * timing.
+	 *
+	 * @param args {@link #BATCH_OPTION} followed by one or more commands, or
+	 * {@link #SCRIPT_OPTION} followed by the script file
+	 * @param mainStart when {@code main} was entered, in milliseconds since the epoch
+	 * @return the exit code
+	 */
+	public int run(String[] args, long mainStart) {
+		List<String> commands;
+		try {
+			commands = parseArguments(args);
+		}
+		catch (IllegalArgumentException e) {
+			err.println(e.getMessage());
+			return EXIT_USAGE;
+		}
+		catch (IOException e) {
+			err.println("Unable to read script: " + e.getMessage());
+			return EXIT_USAGE;
+		}
+		
+		ClassPathXmlApplicationContext context = new ClassPathXmlApplicationContext(COMMAND_CONTEXT);
+		try {
+			SimpleParser parser = new SimpleParser();
+			for (CommandMarker command: context.getBeansOfType(CommandMarker.class).values()) {
+				parser.add(command);
+			}
+			parser.add(new StringConverter());
+			parser.add(new BooleanConverter());
+			parser.add(new IntegerConverter());
+			parser.add(new LongConverter());
+			parser.add(new FloatConverter());
+			parser.add(new DoubleConverter());
+			parser.add(new EnumConverter());
+			long ready = System.currentTimeMillis();
+			
+			int exitCode = EXIT_OK;
+			for (String command: commands) {
+				exitCode = Math.max(exitCode, execute(parser, command));
+			}
+			
+			reportTiming(mainStart, ready, System.currentTimeMillis());
+			return exitCode;
+		}
+		finally {
+			context.close();
+		}
+	}
+	
+	/**
+	 * @param args the program arguments
+	 * @return the commands to run, in order
+	 * @throws IllegalArgumentException if no commands are given
+	 * @throws IOException if the script cannot be read
+	 */
+	protected List<String> parseArguments(String[] args) throws IOException {
+		List<String> commands = new ArrayList<String>();
+		if (args.length < 2) {
+			throw new IllegalArgumentException("Usage: " + BATCH_OPTION + " <command> [<command> ...] | " + SCRIPT_OPTION + " <file>");
+		}
+		else if (BATCH_OPTION.equals(args[0])) {
+			commands.addAll(Arrays.asList(args).subList(1, args.length));
+		}
+		else {
+			for (String line: FileUtils.readLines(new File(args[1]))) {
+				line = line.trim();
+				if (line.isEmpty() || line.startsWith("#") || line.startsWith("//")) continue;
+				commands.add(line);
+			}
+		}
+		
+		if (commands.isEmpty()) {
+			throw new IllegalArgumentException("No commands to run.");
+		}
+		return commands;
+	}
+	
+	/**
+	 * Parses and runs a single command, printing its result.
+	 *
+	 * @return the exit code of the command
+	 */
+	private int execute(SimpleParser parser, String command) {
+		ParseResult parseResult = parser.parse(command);
+		if (parseResult == null) {
+			err.println("Unable to parse command: " + command);
+			return EXIT_USAGE;
+		}
+		
+		try {
+			Object result = parseResult.getMethod().invoke(parseResult.getInstance(), parseResult.getArguments());
+			if (result != null) {
+				out.println(result);
+			}
+			out.flush();
+			return EXIT_OK;
+		}
+		catch (InvocationTargetException e) {
+			Throwable cause = e.getCause() == null ? e : e.getCause();
+			err.println("Command failed: " + command);
+			cause.printStackTrace(err);
+			return EXIT_FAILED;
+		}
+		catch (IllegalAccessException e) {
+			err.println("Unable to run command: " + command + ": " + e.getMessage());
+			return EXIT_FAILED;
+		}
+	}
+	
+	/**
+	 * Prints how long the JVM took to reach {@code main}, to load the
+	 * commands and to start the first transfer.
+	 */
+	private void reportTiming(long mainStart, long ready, long end) {
+		long jvmStart = StartupTiming.getJvmStartTime();
+		long firstTransfer = StartupTiming.getFirstTransferTime();
+		
+		err.println(String.format("Startup: JVM to main %dms, main to commands loaded %dms, commands loaded to first transfer %s, JVM to first transfer %s, total %dms",
+				mainStart - jvmStart,
+				ready - mainStart,
+				firstTransfer == 0 ? "n/a" : (firstTransfer - ready) + "ms",
+				firstTransfer == 0 ? "n/a" : (firstTransfer - jvmStart) + "ms",
+				end - jvmStart));
+	}
+}
@@ -14,12 +14,19 @@ import org.springframework.shell.Bootstrap;
 public class Main {
 
 	/**
-	 * Main class that delegates to Spring Shell's Bootstrap class in order to simplify debugging inside an IDE
+	 * Main class that delegates to Spring Shell's Bootstrap class in order to simplify debugging inside an IDE.
+	 * When the first argument is --batch or --script, the commands are run headless by the 
+	 * {@link BatchRunner} instead and the JVM exits with its exit code.
 	 * @param args
 	 * @throws IOException 
 	 */
 	public static void main(String[] args) throws IOException {
 		
+		if (BatchRunner.isBatch(args)) {
+			long mainStart = System.currentTimeMillis();
+			System.exit(new BatchRunner(System.out, System.err).run(args, mainStart));
+		}
+		
 //		try {
 //			JndiSetup.init();
 //			
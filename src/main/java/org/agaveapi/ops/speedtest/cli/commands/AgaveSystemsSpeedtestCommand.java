@@ -1,6 +1,5 @@
 package org.agaveapi.ops.speedtest.cli.commands;
 
-import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -8,8 +7,63 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+import java.util.zip.Checksum;
 
+import org.agaveapi.ops.speedtest.cli.io.BufferPool;
+import org.agaveapi.ops.speedtest.cli.io.ByteCounter;
+import org.agaveapi.ops.speedtest.cli.io.ByteRange;
+import org.agaveapi.ops.speedtest.cli.io.Copier;
+import org.agaveapi.ops.speedtest.cli.io.CountingInputStream;
+import org.agaveapi.ops.speedtest.cli.io.CountingOutputStream;
+import org.agaveapi.ops.speedtest.cli.io.HistoryRecord;
+import org.agaveapi.ops.speedtest.cli.io.SampleWriter;
+import org.agaveapi.ops.speedtest.cli.io.SftpSession;
+import org.agaveapi.ops.speedtest.cli.io.TestDataGenerator;
+import org.agaveapi.ops.speedtest.cli.io.ThroughputMonitor;
+import org.agaveapi.ops.speedtest.cli.io.TimedChecksum;
+import org.agaveapi.ops.speedtest.cli.plan.BenchmarkPlan;
+import org.agaveapi.ops.speedtest.cli.plan.PlanCase;
+import org.agaveapi.ops.speedtest.cli.plan.PlanProgress;
+import org.agaveapi.ops.speedtest.cli.plan.PlanScheduler;
+import org.agaveapi.ops.speedtest.cli.stats.AllocationStatistics;
+import org.agaveapi.ops.speedtest.cli.stats.ChecksumStatistics;
+import org.agaveapi.ops.speedtest.cli.stats.CpuStatistics;
+import org.agaveapi.ops.speedtest.cli.stats.FleetResult;
+import org.agaveapi.ops.speedtest.cli.stats.Histogram;
+import org.agaveapi.ops.speedtest.cli.stats.LocalIoStatistics;
+import org.agaveapi.ops.speedtest.cli.stats.MannWhitney;
+import org.agaveapi.ops.speedtest.cli.stats.PairedOverhead;
+import org.agaveapi.ops.speedtest.cli.stats.Phase;
+import org.agaveapi.ops.speedtest.cli.stats.PhaseStatistics;
+import org.agaveapi.ops.speedtest.cli.stats.SampleListener;
+import org.agaveapi.ops.speedtest.cli.stats.ThroughputSeries;
+import org.agaveapi.ops.speedtest.cli.stats.TransferStatistics;
 import org.apache.commons.io.FileUtils;
 import org.iplantc.service.common.dao.TenantDao;
 import org.iplantc.service.common.exceptions.TenantException;
@@ -25,6 +79,7 @@ import org.iplantc.service.transfer.RemoteDataClient;
 import org.iplantc.service.transfer.exceptions.AuthenticationException;
 import org.iplantc.service.transfer.exceptions.RemoteDataException;
 import org.iplantc.service.transfer.model.TransferTask;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.shell.core.CommandMarker;
 import org.springframework.shell.core.annotation.CliAvailabilityIndicator;
 import org.springframework.shell.core.annotation.CliCommand;
@@ -41,18 +96,83 @@ public class AgaveSystemsSpeedtestCommand<T extends RemoteDataClient> extends Sp
 	
 	public final static String[] RESULT_TABLE_HEADER = new String[]{"File Size", "Upload time(ms)", "Upload Rate","Download time(ms)","Download Rate"};
 	
+	/**
+	 * Bytes of the test file mapped at a time by the --mmap transfers. A
+	 * mapping is only unmapped when its buffer is garbage collected, so 
+	 * each window is dropped before the next is mapped, and a run can hold
+	 * up to this much address space per window until the collector runs.
+	 */
+	public final static long MAP_WINDOW_SIZE = 256L * 1024 * 1024;
+	
+	/**
+	 * Seconds to wait for timed out fleet probes to stop after their 
+	 * connections are closed.
+	 */
+	public final static long FLEET_SHUTDOWN_GRACE = 30;
+	public final static String[] BUFFER_RESULT_TABLE_HEADER = new String[]{"System", "Buffer Size", "Upload Rate(kB/s)", "Download Rate(kB/s)", "Combined Rate(kB/s)", ""};
+	public final static String[] BUFFER_RECOMMENDATION_TABLE_HEADER = new String[]{"System", "Recommended Buffer", "Combined Rate(kB/s)"};
+	
+	/**
+	 * Smallest multiplicative step between buffer sizes at which the buffer 
+	 * tuner stops refining.
+	 */
+	public final static double MIN_BUFFER_TUNING_STEP = 1.1;
+	
+	/**
+	 * Most values printed per throughput series in table output.
+	 */
+	public final static int THROUGHPUT_SERIES_POINTS = 60;
+	
+	public final static String[] SMALL_FILES_RESULT_TABLE_HEADER = new String[]{"Mode", "Direction", "Files", "Files/s", "Rate(kB/s)", "Mean/file(ms)", "p50(ms)", "p90(ms)", "p99(ms)", "Max(ms)"};
+	public final static String[] COLD_WARM_RESULT_TABLE_HEADER = new String[]{"Direction", "Cold Mean(ms)", "Cold p99(ms)", "Cold Rate(kB/s)", "Warm Mean(ms)", "Warm p99(ms)", "Warm Rate(kB/s)", "Saved(ms)", "Saved"};
+	public final static String[] PHASE_TABLE_HEADER = new String[]{"Direction", "Phase", "Samples", "Mean(ms)", "p50(ms)", "p99(ms)", "Max(ms)", "Share"};
+	public final static String[] CONCURRENCY_RESULT_TABLE_HEADER = new String[]{"Clients", "Upload Rate(kB/s)", "Upload Latency(ms)","Download Rate(kB/s)","Download Latency(ms)", "Knee"};
+	public final static String[] CHECKSUM_RESULT_TABLE_HEADER = new String[]{"Direction", "Algorithm", "Transfers", "Verified", "Mismatched", "Checksum(ms)", "Checksum Rate(kB/s)", "Overhead"};
+	public final static String[] LOCAL_IO_RESULT_TABLE_HEADER = new String[]{"Local I/O", "Direction", "Transfers", "Rate(kB/s)", "Mean(ms)", "Thread CPU(ms/GB)", "JVM CPU(ms/GB)", "Cores Busy"};
+	public final static String[] MAPPED_RESULT_TABLE_HEADER = new String[]{"Direction", "Transfers", "Windows", "Resident", "Local(ms)", "Network(ms)", "Local Share", "Local Rate(kB/s)", "Limited By"};
+	public final static String[] ALLOCATION_RESULT_TABLE_HEADER = new String[]{"Direction", "Transfers", "Mean(B)", "p50(B)", "p99(B)", "Max(B)", "Harness(B)", "Adaptor(B)"};
+	public final static String[] COMPARE_RESULT_TABLE_HEADER = new String[]{"Metric", "Baseline p50", "Latest p50", "Change", "p-value", "Status"};
+	public final static String[] ADAPTOR_RESULT_TABLE_HEADER = new String[]{"File Size", "Direction", "Pairs", "Adaptor(ms)", "Native(ms)", "Adaptor Rate(kB/s)", "Native Rate(kB/s)", "Overhead", "Overhead CI"};
+	public final static String[] PLAN_RESULT_TABLE_HEADER = new String[]{"Round", "System", "Mode", "Buffer Size", "Clients"};
+	public final static String[] FLEET_RESULT_TABLE_HEADER = new String[]{"Rank", "System", "Host", "Protocol", "Upload Rate(kB/s)", "Download Rate(kB/s)", "Connect+Auth(ms)", "Status"};
+	public final static String[] THROUGHPUT_RESULT_TABLE_HEADER = new String[]{"Direction", "Transfer", "Samples", "Steady After(ms)", "Steady Rate(kB/s)", "Peak Rate(kB/s)", "Stalls", "Stalled(ms)"};
+	public final static String[] STREAM_RESULT_TABLE_HEADER = new String[]{"Stream", "Bytes", "Upload time(ms)", "Upload Rate(kB/s)","Download time(ms)","Download Rate(kB/s)"};
+	
 	private SystemDao systemDao = new SystemDao();
 	private RemoteSystem system = null;
 	private String systemId = null;
 	private ObjectMapper mapper = new ObjectMapper();
 	private String username = null;
+	private String tenantId = null;
+	private RemoteDataClient cachedClient = null;
+	private boolean nio = false;
+	private boolean mapped = false;
+	private LocalIoStatistics mappedStatistics = new LocalIoStatistics();
+	private AllocationStatistics allocationStatistics = new AllocationStatistics();
+	private final BufferPool bufferPool = new BufferPool();
+	private int throughputInterval = 0;
+	private boolean progress = false;
+	private final List<ThroughputSeries> throughputSeries = Collections.synchronizedList(new ArrayList<ThroughputSeries>());
+	
+	@Autowired(required = false)
+	private NativeSystemsSpeedtestCommand<?> nativeCommand;
 	
-	@CliAvailabilityIndicator({"agave"})
+	@CliAvailabilityIndicator({"agave", "agave tune-buffer", "agave small-files", "agave cold-warm", "agave local-io", "compare", "compare adaptor", "run-plan", "agave fleet"})
 	public boolean isSimpleAvailable() {
 		//always available
 		return true;
 	}
 	
+	@Override
+	public String benchmark(String systemId, String testFilename,
+			boolean includeUploadTest, boolean includeDownloadTest,
+			String fileSize, int iterations, boolean streaming, int bufferSize,
+			boolean verboseOutput, boolean debugOutput, boolean inMemory)
+	throws Exception {
+		return benchmark(systemId, testFilename, includeUploadTest, includeDownloadTest, 
+				fileSize, iterations, streaming, bufferSize, verboseOutput, debugOutput, inMemory, 1, null, null, 4, null, false, false, false, "table", null, false, 100, false);
+	}
+	
 	@CliCommand(value = "agave", help = "Test upload and download speed to registered systems through the internal service adaptors")
 	public String benchmark(
 			@CliOption(key = { "system" }, mandatory = true, help = "System id on which to perform the test") final String systemId,
@@ -65,7 +185,20 @@ public class AgaveSystemsSpeedtestCommand<T extends RemoteDataClient> extends Sp
 			@CliOption(key = { "bufferSize" }, mandatory = false, help = "Size of the buffer to use during transfer.", unspecifiedDefaultValue="32768") final int bufferSize,
 			@CliOption(key = { "verbose" }, mandatory = false, help = "Enabled verbose output?", unspecifiedDefaultValue="false") final boolean verboseOutput,
 			@CliOption(key = { "debug" }, mandatory = false, help = "Enabled debug output?", unspecifiedDefaultValue="false") final boolean debugOutput,
-			@CliOption(key = { "inMemory" }, mandatory = false, help = "Use memory only transfers (/dev/zero <=> /dev/null) to identify optimal performance.", unspecifiedDefaultValue="false") final boolean inMemory)
+			@CliOption(key = { "inMemory" }, mandatory = false, help = "Use memory only transfers (/dev/zero <=> /dev/null) to identify optimal performance.", unspecifiedDefaultValue="false") final boolean inMemory,
+			@CliOption(key = { "streams" }, mandatory = false, help = "Number of parallel streams to split the test file across. Values greater than 1 always use the streaming api.", unspecifiedDefaultValue="1") final int streams,
+			@CliOption(key = { "concurrency" }, mandatory = false, help = "Comma separated list of simultaneous client counts to sweep, ie. 1,2,4,8. Each client transfers the full test file.") final String concurrency,
+			@CliOption(key = { "sizes" }, mandatory = false, help = "File sizes to sweep, either a comma separated list or a log-scale range such as 4KB..8GB. Fits a latency/bandwidth model to the results.") final String sizes,
+			@CliOption(key = { "sizeFactor" }, mandatory = false, help = "Multiplier between consecutive sizes of a --sizes range.", unspecifiedDefaultValue="4") final double sizeFactor,
+			@CliOption(key = { "verify" }, mandatory = false, help = "Checksum single stream transfers inline with the copy and compare every download with the uploaded data. The command fails if any download does not match. One of crc32 or adler32. Implies --streaming.", specifiedDefaultValue=TimedChecksum.CRC32) final String checksumAlgorithm,
+			@CliOption(key = { "nio" }, mandatory = false, help = "Read and write the local file through a FileChannel with pooled direct buffers. Implies --streaming.", unspecifiedDefaultValue="false") final boolean nio,
+			@CliOption(key = { "mmap" }, mandatory = false, help = "Memory map the local test file in 256MB windows. Implies --streaming. Ignored with --inMemory. Windows stay mapped until they are garbage collected.", unspecifiedDefaultValue="false") final boolean mmap,
+			@CliOption(key = { "allocations" }, mandatory = false, help = "Report the heap bytes allocated per transfer by the harness and the adaptor.", unspecifiedDefaultValue="false") final boolean allocations,
+			@CliOption(key = { "format" }, mandatory = false, help = "Output format, one of table, json or csv. Json and csv write every transfer and phase sample as it is measured.", unspecifiedDefaultValue="table") final String format,
+			@CliOption(key = { "out" }, mandatory = false, help = "File to append the results to. Defaults to the console.") final String out,
+			@CliOption(key = { "throughput" }, mandatory = false, help = "Sample the bytes moved during each transfer and report the time to steady state, the steady state rate and any stalls. Implies --streaming.", unspecifiedDefaultValue="false", specifiedDefaultValue="true") final boolean throughput,
+			@CliOption(key = { "sampleInterval" }, mandatory = false, help = "Milliseconds between throughput samples.", unspecifiedDefaultValue="100") final int sampleInterval,
+			@CliOption(key = { "progress" }, mandatory = false, help = "Show a live progress line on stderr during each transfer. Implies --throughput.", unspecifiedDefaultValue="false", specifiedDefaultValue="true") final boolean progress)
 	throws Exception {	
 		
 		/**
@@ -78,205 +211,2938 @@ public class AgaveSystemsSpeedtestCommand<T extends RemoteDataClient> extends Sp
 		 */
 		setBufferSize(bufferSize);
 		
-		/**
-		 *  set the verbose from the cli options
-		 */
-		setVerbose(verboseOutput);
+		/**
+		 *  set the verbose from the cli options
+		 */
+		setVerbose(verboseOutput);
+		
+		/**
+		 *  set the streaming from the cli options. Checksums are computed
+		 *  in our own copy loop, so verification needs the streaming api.
+		 */
+		setStreaming(streaming || nio || mmap || throughput || progress || !StringUtils.isEmpty(checksumAlgorithm));
+		
+		/**
+		 *  set the local io path from the cli options
+		 */
+		setNio(nio);
+		setMapped(mmap);
+		mappedStatistics = new LocalIoStatistics();
+		allocationStatistics = new AllocationStatistics();
+		
+		/**
+		 *  rates and averages are taken over iterations and streams
+		 */
+		if (iterations < 1 || streams < 1) {
+			throw new IllegalArgumentException("The number of iterations and streams must be at least 1.");
+		}
+		
+		/**
+		 *  set the throughput sampling from the cli options. Only the 
+		 *  streaming transfers of this command are sampled.
+		 */
+		if ((throughput || progress) && sampleInterval < 1) {
+			throw new IllegalArgumentException("The sample interval must be at least 1ms.");
+		}
+		this.throughputInterval = throughput || progress ? sampleInterval : 0;
+		this.progress = progress;
+		throughputSeries.clear();
+		
+		/**
+		 *  set the inMemory from the cli options
+		 */
+		setInMemory(inMemory);
+		
+		/**
+		 *  set the debug from the cli options
+		 */
+		setDebug(debugOutput);
+		
+		/**
+		 *  check the output format before doing any work
+		 */
+		SampleWriter.Format outputFormat = SampleWriter.Format.parse(format);
+		if (outputFormat != SampleWriter.Format.TABLE) {
+			if (!StringUtils.isEmpty(concurrency) || streams > 1) {
+				throw new IllegalArgumentException("Json and csv samples are not written for --concurrency or --streams runs. Use --format table.");
+			}
+			else if (isVerbose() && StringUtils.isEmpty(out)) {
+				// samples go to stdout, where the verbose output would break the lines apart
+				throw new IllegalArgumentException("Verbose output with --format " + format + " needs --out for the samples.");
+			}
+		}
+		
+		/**
+		 *  load the auth context from disk
+		 */
+		authenticate();
+		
+		/**
+		 *  Sweep file sizes if requested. Test data is generated per size.
+		 */
+		if (!StringUtils.isEmpty(sizes)) {
+			try {
+				openSampleWriter(outputFormat, out, mapper);
+				setSampleContext();
+				return formatResult(benchmarkSizes(parseSizes(sizes, sizeFactor), includeUploadTest, includeDownloadTest, iterations), 
+						outputFormat, out);
+			}
+			finally {
+				closeSampleWriter();
+				throughputInterval = 0;
+			}
+		}
+		
+		/**
+		 *  Create test data to use
+		 */
+		File testFile = maybeGenerateTestData(testFilename, fileSize);
+		
+		TransferStatistics statistics = new TransferStatistics();
+		PhaseStatistics phases = new PhaseStatistics();
+		ChecksumStatistics checksums = StringUtils.isEmpty(checksumAlgorithm) ? null : 
+				new ChecksumStatistics(new TimedChecksum(checksumAlgorithm).getAlgorithm());
+		long length = isInMemory() ? parseHumanReadableNumber(fileSize) : testFile.length();
+		
+		/**
+		 *  Run the tests
+		 */
+		StringBuilder sb = new StringBuilder();
+		String remoteUploadDirectory = username + "/speedtest-" + UUID.randomUUID().toString();
+		RemoteDataClient client = null;
+		
+		try {
+			openSampleWriter(outputFormat, out, mapper);
+			if (getSampleWriter() != null) {
+				setSampleContext();
+				getSampleWriter().setContext("fileSize", length);
+				statistics.addListener(getSampleWriter());
+				phases.addListener(getSampleWriter());
+			}
+			
+			long t0 = System.nanoTime();
+			client = getClient();
+			phases.recordSetup(Phase.CLIENT_INIT, System.nanoTime() - t0);
+			
+			if (isVerbose()) System.out.println("Authenticating to " + getSystem().getStorageConfig().getDefaultAuthConfig().getUsername() + 
+					"@" + getSystem().getStorageConfig().getHost() + ":" +  getSystem().getStorageConfig().getPort() + 
+					client.resolvePath(remoteUploadDirectory) );
+			
+			if (isVerbose()) System.out.println("Test file size: " + length);
+			
+			t0 = System.nanoTime();
+			client.authenticate();
+			phases.recordSetup(Phase.AUTH, System.nanoTime() - t0);
+			
+			t0 = System.nanoTime();
+			client.mkdirs(remoteUploadDirectory);
+			phases.recordSetup(Phase.MKDIR, System.nanoTime() - t0);
+			
+			if (!StringUtils.isEmpty(concurrency)) {
+				sb.append(benchmarkConcurrency(testFile, length, remoteUploadDirectory, 
+						includeUploadTest, includeDownloadTest, iterations, parseConcurrencyLevels(concurrency)));
+				return formatResult(sb.toString(), outputFormat, out);
+			}
+			else if (streams > 1) {
+				sb.append(benchmarkParallelStreams(testFile, length, remoteUploadDirectory, 
+						includeUploadTest, includeDownloadTest, iterations, streams));
+				return formatResult(sb.toString(), outputFormat, out);
+			}
+			
+			HistoryRecord record = newHistoryRecord(length);
+			statistics.addListener(record);
+			phases.addListener(record);
+			
+			runTransfers(client, testFile, length, remoteUploadDirectory, iterations, 
+					includeUploadTest, includeDownloadTest, statistics, phases, checksums);
+			
+			recordHistory(record);
+			
+			sb.append(formatOutput(RESULT_TABLE_HEADER) + "\n");
+			sb.append(calculateTime(statistics, length) + "\n\n");
+			sb.append(formatStatistics(statistics) + "\n");
+			sb.append(formatPhases(phases));
+			if (checksums != null) {
+				sb.append("\n" + formatChecksums(checksums, statistics));
+			}
+			if (isMapped() && !isInMemory()) {
+				sb.append("\n" + formatMapped(mappedStatistics));
+			}
+			if (allocations) {
+				measureHarnessAllocation(testFile, length, allocationStatistics);
+				sb.append("\n" + formatAllocations(allocationStatistics));
+			}
+			if (throughputInterval > 0) {
+				sb.append("\n" + formatThroughput(throughputSeries));
+			}
+		}
+		finally {
+			closeSampleWriter();
+			throughputInterval = 0;
+			
+			if (client != null) {
+				try { client.delete(remoteUploadDirectory); } catch (Exception e) {}
+				releaseClient();
+			}
+			
+			if (!isInMemory()) {
+				if (isVerbose()) System.out.println("Cleaning up local directory");
+				FileUtils.deleteQuietly(getDownloadFile(testFile));
+			}
+		}
+		
+		String result = formatResult(sb.toString(), outputFormat, out);
+		if (checksums != null && checksums.getMismatched() > 0) {
+			failWithReport(result, checksums.getMismatched() + " download(s) did not match the checksum of the upload.");
+		}
+		return result;
+	}
+	
+	/**
+	 * Adds the settings of the current run to every sample written.
+	 */
+	private void setSampleContext() {
+		if (getSampleWriter() != null) {
+			getSampleWriter().setContext("command", "agave");
+			getSampleWriter().setContext("system", getSystemId());
+			getSampleWriter().setContext("mode", getTransferMode());
+			getSampleWriter().setContext("bufferSize", getBufferSize());
+		}
+	}
+	
+	/**
+	 * @param length number of bytes per transfer
+	 * @return an empty history entry for a run with the current settings
+	 */
+	private HistoryRecord newHistoryRecord(long length) {
+		return new HistoryRecord("agave", getSystemId(), getProtocol(getSystem()), getTransferMode(), length, getBufferSize());
+	}
+	
+	/**
+	 * @return a short name for the transfer path selected on the command line
+	 */
+	protected String getTransferMode() {
+		if (isInMemory()) return "inMemory";
+		else if (isMapped()) return "mmap";
+		else if (isNio()) return "nio";
+		else if (isStreaming()) return "streaming";
+		else return "put-get";
+	}
+	
+	@CliCommand(value = "agave tune-buffer", help = "Search for the streaming buffer size giving the best throughput to one or more registered systems")
+	public String tuneBuffer(
+			@CliOption(key = { "system" }, mandatory = true, help = "Comma separated list of system ids on which to perform the test") final String systemIds,
+			@CliOption(key = { "file" }, mandatory = false, help = "File to use for the test") final String testFilename, 
+			@CliOption(key = { "size" }, mandatory = false, help = "Human readable size of the test file.", unspecifiedDefaultValue="32MB") final String fileSize, 
+			@CliOption(key = { "iter" }, mandatory = false, help = "Number of times to repeat the transfers at each buffer size.", unspecifiedDefaultValue="3") final int iterations, 
+			@CliOption(key = { "min" }, mandatory = false, help = "Human readable smallest buffer size to try.", unspecifiedDefaultValue="4KB") final String minBufferSize,
+			@CliOption(key = { "max" }, mandatory = false, help = "Human readable largest buffer size to try.", unspecifiedDefaultValue="16MB") final String maxBufferSize,
+			@CliOption(key = { "threshold" }, mandatory = false, help = "Stop refining once a pass improves throughput by less than this fraction.", unspecifiedDefaultValue="0.05") final double threshold,
+			@CliOption(key = { "verbose" }, mandatory = false, help = "Enabled verbose output?", unspecifiedDefaultValue="false") final boolean verboseOutput,
+			@CliOption(key = { "inMemory" }, mandatory = false, help = "Use memory only transfers (/dev/zero <=> /dev/null) to identify optimal performance.", unspecifiedDefaultValue="false") final boolean inMemory)
+	throws Exception {
+		
+		setVerbose(verboseOutput);
+		setStreaming(true);
+		setNio(false);
+		setMapped(false);
+		setInMemory(inMemory);
+		
+		long minBytes = parseHumanReadableNumber(minBufferSize);
+		long maxBytes = parseHumanReadableNumber(maxBufferSize);
+		if (minBytes < 1) {
+			throw new IllegalArgumentException("The smallest buffer size must be at least 1 byte.");
+		}
+		else if (maxBytes > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("The largest buffer size must be at most " + Integer.MAX_VALUE + " bytes.");
+		}
+		else if (minBytes > maxBytes) {
+			throw new IllegalArgumentException("The smallest buffer size must not be larger than the largest.");
+		}
+		int min = (int)minBytes;
+		int max = (int)maxBytes;
+		
+		File testFile = maybeGenerateTestData(testFilename, fileSize);
+		long length = isInMemory() ? parseHumanReadableNumber(fileSize) : testFile.length();
+		
+		StringBuilder results = new StringBuilder();
+		StringBuilder recommendations = new StringBuilder();
+		results.append(formatOutput(BUFFER_RESULT_TABLE_HEADER) + "\n");
+		recommendations.append(formatOutput(BUFFER_RECOMMENDATION_TABLE_HEADER) + "\n");
+		
+		try {
+			for (String systemId: StringUtils.commaDelimitedListToStringArray(systemIds.replaceAll(" ", ""))) {
+				setSystemId(systemId);
+				authenticate();
+				
+				TreeMap<Integer, float[]> trials = tuneBufferSize(testFile, length, iterations, min, max, threshold);
+				
+				int best = bestBufferSize(trials);
+				for (Map.Entry<Integer, float[]> trial: trials.entrySet()) {
+					float[] rates = trial.getValue();
+					results.append(formatOutput(new String[] {
+							systemId,
+							String.valueOf(trial.getKey()),
+							String.valueOf(rates[0]),
+							String.valueOf(rates[1]),
+							String.valueOf(rates[2]),
+							trial.getKey() == best ? "<- best" : ""}) + "\n");
+				}
+				
+				recommendations.append(formatOutput(new String[] {
+						systemId,
+						String.valueOf(best),
+						String.valueOf(trials.get(best)[2])}) + "\n");
+			}
+		}
+		finally {
+			if (!isInMemory()) {
+				FileUtils.deleteQuietly(getDownloadFile(testFile));
+			}
+		}
+		
+		return results.toString() + "\n" + recommendations.toString();
+	}
+	
+	/**
+	 * Adaptively searches for the buffer size with the best combined upload 
+	 * and download throughput to the current system. A coarse pass measures 
+	 * every power of four between {@code min} and {@code max}. Each 
+	 * following pass measures the geometric midpoints either side of the 
+	 * best size found so far, halving the log-scale step, until a pass 
+	 * improves on the best rate by less than {@code threshold}.
+	 * 
+	 * @param testFile the local test file
+	 * @param length number of bytes to transfer per trial
+	 * @param iterations transfers in each direction per trial
+	 * @param min smallest buffer size to try
+	 * @param max largest buffer size to try
+	 * @param threshold minimum relative improvement needed to keep refining
+	 * @return the upload, download and combined rate in kB/s of every buffer size tried
+	 * @throws Exception
+	 */
+	protected TreeMap<Integer, float[]> tuneBufferSize(File testFile, long length, int iterations, int min, int max, double threshold) 
+	throws Exception 
+	{
+		TreeMap<Integer, float[]> trials = new TreeMap<Integer, float[]>();
+		String remoteUploadDirectory = username + "/speedtest-" + UUID.randomUUID().toString();
+		RemoteDataClient client = getClient();
+		try {
+			client.authenticate();
+			client.mkdirs(remoteUploadDirectory);
+			String remotePath = isInMemory() ? null : remoteUploadDirectory + "/" + testFile.getName();
+			
+			// coarse log-scale pass
+			double step = 4;
+			for (long size = min; size <= max; size *= step) {
+				measureBufferSize(client, testFile, remotePath, length, iterations, (int)size, trials);
+			}
+			measureBufferSize(client, testFile, remotePath, length, iterations, max, trials);
+			
+			// refine around the best value until the gains level off
+			int best = bestBufferSize(trials);
+			while (step > MIN_BUFFER_TUNING_STEP) {
+				step = Math.sqrt(step);
+				float bestRate = trials.get(best)[2];
+				
+				int smaller = alignBufferSize(best / step, min, max);
+				int larger = alignBufferSize(best * step, min, max);
+				measureBufferSize(client, testFile, remotePath, length, iterations, smaller, trials);
+				measureBufferSize(client, testFile, remotePath, length, iterations, larger, trials);
+				
+				best = bestBufferSize(trials);
+				if (trials.get(best)[2] < bestRate * (1 + threshold)) {
+					break;
+				}
+			}
+		}
+		finally {
+			try { client.delete(remoteUploadDirectory); } catch (Exception e) {}
+			releaseClient();
+		}
+		
+		return trials;
+	}
+	
+	/**
+	 * Measures the upload, download and combined rate at a single buffer 
+	 * size and stores them in {@code trials}. Sizes that were already 
+	 * measured are skipped.
+	 */
+	private void measureBufferSize(RemoteDataClient client, File testFile, String remotePath, long length, 
+			int iterations, int bufferSize, Map<Integer, float[]> trials) 
+	throws IOException, RemoteDataException 
+	{
+		if (trials.containsKey(bufferSize)) return;
+		
+		setBufferSize(bufferSize);
+		PhaseStatistics phases = new PhaseStatistics();
+		long uploadTime = 0, downloadTime = 0;
+		for (int i=0; i<iterations; i++) {
+			long t1 = System.nanoTime();
+			if (isInMemory()) {
+				uploadStream(client, new File("/dev/zero"), "/dev/null", length, phases);
+			} else {
+				uploadStream(client, testFile, remotePath, length, phases);
+			}
+			long t2 = System.nanoTime();
+			if (isInMemory()) {
+				downloadStream(client, "/dev/zero", new File("/dev/null"), length, phases);
+			} else {
+				downloadStream(client, remotePath, getDownloadFile(testFile), length, phases);
+			}
+			long t3 = System.nanoTime();
+			
+			uploadTime += t2 - t1;
+			downloadTime += t3 - t2;
+		}
+		
+		long bytes = length * iterations;
+		float[] rates = new float[] {
+				calculateRate(bytes, uploadTime),
+				calculateRate(bytes, downloadTime),
+				calculateRate(2 * bytes, uploadTime + downloadTime) };
+		trials.put(bufferSize, rates);
+		
+		if (isVerbose()) System.out.println("\tBuffer " + bufferSize + ": " + rates[2] + " kB/s");
+	}
+	
+	private int bestBufferSize(Map<Integer, float[]> trials) {
+		int best = -1;
+		float bestRate = -1;
+		for (Map.Entry<Integer, float[]> trial: trials.entrySet()) {
+			if (trial.getValue()[2] > bestRate) {
+				best = trial.getKey();
+				bestRate = trial.getValue()[2];
+			}
+		}
+		return best;
+	}
+	
+	/**
+	 * Rounds a buffer size to the nearest kilobyte within the search bounds.
+	 */
+	private int alignBufferSize(double size, int min, int max) {
+		long aligned = Math.round(size / 1024) * 1024;
+		return (int)Math.min(max, Math.max(min, aligned));
+	}
+	
+	@CliCommand(value = "agave small-files", help = "Test upload and download speed of many small files to a registered system, both one file at a time and as a directory")
+	public String smallFiles(
+			@CliOption(key = { "system" }, mandatory = true, help = "System id on which to perform the test") final String systemId,
+			@CliOption(key = { "files" }, mandatory = false, help = "Number of files to transfer.", unspecifiedDefaultValue="1000") final int fileCount,
+			@CliOption(key = { "size" }, mandatory = false, help = "Human readable size of each file.", unspecifiedDefaultValue="4KB") final String fileSize,
+			@CliOption(key = { "iter" }, mandatory = false, help = "Number of times to repeat the transfer(s).", unspecifiedDefaultValue="1") final int iterations, 
+			@CliOption(key = { "upload" }, mandatory = false, help = "Include upload test if present.", unspecifiedDefaultValue="true") final boolean includeUploadTest,
+			@CliOption(key = { "download" }, mandatory = false, help = "Include download test if present.", unspecifiedDefaultValue="true") final boolean includeDownloadTest, 
+			@CliOption(key = { "verbose" }, mandatory = false, help = "Enabled verbose output?", unspecifiedDefaultValue="false") final boolean verboseOutput)
+	throws Exception {
+		
+		if (fileCount < 1) {
+			throw new IllegalArgumentException("The number of files must be at least 1.");
+		}
+		long size = parseHumanReadableNumber(fileSize);
+		
+		setSystemId(systemId);
+		setVerbose(verboseOutput);
+		setInMemory(false);
+		authenticate();
+		
+		File localDirectory = new File(System.getProperty("java.io.tmpdir"), "speedtest-files-" + UUID.randomUUID().toString());
+		File downloadDirectory = new File(localDirectory.getAbsolutePath() + "-download");
+		String remoteUploadDirectory = username + "/speedtest-" + UUID.randomUUID().toString();
+		
+		Histogram singleUploads = new Histogram();
+		Histogram singleDownloads = new Histogram();
+		Histogram bulkUploads = new Histogram();
+		Histogram bulkDownloads = new Histogram();
+		
+		RemoteDataClient client = null;
+		try {
+			if (isVerbose()) System.out.println("Generating " + fileCount + " test files of " + fileSize + " in " + localDirectory.getAbsolutePath());
+			localDirectory.mkdirs();
+			downloadDirectory.mkdirs();
+			File[] files = new File[fileCount];
+			for (int i=0; i<fileCount; i++) {
+				// a seed per file, so deduplication or compression on the 
+				// target cannot make the workload look cheaper than it is
+				files[i] = new File(localDirectory, String.format("file-%06d", i));
+				TestDataGenerator.write(files[i], size, TestDataGenerator.DEFAULT_SEED + i);
+			}
+			
+			client = getClient();
+			client.authenticate();
+			String remoteSingleDirectory = remoteUploadDirectory + "/single";
+			String remoteBulkDirectory = remoteUploadDirectory + "/bulk";
+			client.mkdirs(remoteSingleDirectory);
+			
+			for (int z=0; z<iterations; z++) {
+				if (includeUploadTest) {
+					if (isVerbose()) System.out.println("Starting file-by-file upload test...");
+					for (File file: files) {
+						long t1 = System.nanoTime();
+						client.put(file.getAbsolutePath(), remoteSingleDirectory);
+						singleUploads.record(System.nanoTime() - t1);
+					}
+					
+					if (isVerbose()) System.out.println("Starting directory upload test...");
+					try { client.delete(remoteBulkDirectory); } catch (Exception e) {}
+					long t1 = System.nanoTime();
+					client.put(localDirectory.getAbsolutePath(), remoteBulkDirectory);
+					bulkUploads.record(System.nanoTime() - t1);
+				}
+				
+				if (includeDownloadTest) {
+					if (isVerbose()) System.out.println("Starting file-by-file download test...");
+					for (File file: files) {
+						long t1 = System.nanoTime();
+						client.get(remoteSingleDirectory + "/" + file.getName(), new File(downloadDirectory, file.getName()).getAbsolutePath());
+						singleDownloads.record(System.nanoTime() - t1);
+					}
+					
+					if (isVerbose()) System.out.println("Starting directory download test...");
+					File bulkDownloadDirectory = new File(downloadDirectory, "bulk");
+					FileUtils.deleteQuietly(bulkDownloadDirectory);
+					long t1 = System.nanoTime();
+					client.get(remoteBulkDirectory, bulkDownloadDirectory.getAbsolutePath());
+					bulkDownloads.record(System.nanoTime() - t1);
+				}
+			}
+		}
+		finally {
+			if (client != null) {
+				try { client.delete(remoteUploadDirectory); } catch (Exception e) {}
+				releaseClient();
+			}
+			FileUtils.deleteQuietly(localDirectory);
+			FileUtils.deleteQuietly(downloadDirectory);
+		}
+		
+		long fileLength = parseHumanReadableNumber(fileSize);
+		StringBuilder sb = new StringBuilder();
+		sb.append(formatOutput(SMALL_FILES_RESULT_TABLE_HEADER) + "\n");
+		if (includeUploadTest) {
+			sb.append(formatSmallFiles("file", "upload", singleUploads, 1, fileLength) + "\n");
+			sb.append(formatSmallFiles("directory", "upload", bulkUploads, fileCount, fileLength) + "\n");
+		}
+		if (includeDownloadTest) {
+			sb.append(formatSmallFiles("file", "download", singleDownloads, 1, fileLength) + "\n");
+			sb.append(formatSmallFiles("directory", "download", bulkDownloads, fileCount, fileLength) + "\n");
+		}
+		return sb.toString();
+	}
+	
+	/**
+	 * Formats one row of the small files results. 
+	 * 
+	 * @param mode file or directory
+	 * @param direction upload or download
+	 * @param times the recorded transfer times, one sample per call
+	 * @param filesPerSample number of files moved by each call
+	 * @param fileLength size of each file
+	 * @return the formatted row. Per file latency percentiles are only 
+	 * available when each call moved a single file.
+	 */
+	private String formatSmallFiles(String mode, String direction, Histogram times, int filesPerSample, long fileLength) {
+		long files = times.getTotalCount() * filesPerSample;
+		long total = Math.round(times.getMean() * times.getTotalCount());
+		double filesPerSecond = total > 0 ? files * NANOS_PER_SECOND / total : 0;
+		boolean perFile = filesPerSample == 1;
+		
+		return formatOutput(new String[] {
+				mode,
+				direction,
+				String.valueOf(files),
+				String.format("%.2f", filesPerSecond),
+				String.valueOf(calculateRate(files * fileLength, total)),
+				formatMillis(times.getMean() / filesPerSample),
+				perFile ? formatMillis(times.getValueAtPercentile(50)) : "n/a",
+				perFile ? formatMillis(times.getValueAtPercentile(90)) : "n/a",
+				perFile ? formatMillis(times.getValueAtPercentile(99)) : "n/a",
+				perFile ? formatMillis(times.getMax()) : "n/a"});
+	}
+	
+	@CliCommand(value = "agave cold-warm", help = "Compare transfers that open a new connection each time with transfers over a reused, authenticated connection")
+	public String coldWarm(
+			@CliOption(key = { "system" }, mandatory = true, help = "System id on which to perform the test") final String systemId,
+			@CliOption(key = { "file" }, mandatory = false, help = "File to use for the test") final String testFilename, 
+			@CliOption(key = { "upload" }, mandatory = false, help = "Include upload test if present.", unspecifiedDefaultValue="true") final boolean includeUploadTest,
+			@CliOption(key = { "download" }, mandatory = false, help = "Include download test if present.", unspecifiedDefaultValue="true") final boolean includeDownloadTest, 
+			@CliOption(key = { "size" }, mandatory = false, help = "Human readable size of the test file.", unspecifiedDefaultValue="2MB") final String fileSize, 
+			@CliOption(key = { "iter" }, mandatory = false, help = "Number of cold and warm transfers to run.", unspecifiedDefaultValue="10") final int iterations, 
+			@CliOption(key = { "streaming" }, mandatory = false, help = "Should transfers be done using the streaming api?", unspecifiedDefaultValue="false") final boolean streaming, 
+			@CliOption(key = { "bufferSize" }, mandatory = false, help = "Size of the buffer to use during transfer.", unspecifiedDefaultValue="32768") final int bufferSize,
+			@CliOption(key = { "verbose" }, mandatory = false, help = "Enabled verbose output?", unspecifiedDefaultValue="false") final boolean verboseOutput,
+			@CliOption(key = { "inMemory" }, mandatory = false, help = "Use memory only transfers (/dev/zero <=> /dev/null) to identify optimal performance.", unspecifiedDefaultValue="false") final boolean inMemory)
+	throws Exception {
+		
+		setSystemId(systemId);
+		setBufferSize(bufferSize);
+		setVerbose(verboseOutput);
+		setStreaming(streaming);
+		setNio(false);
+		setMapped(false);
+		setInMemory(inMemory);
+		authenticate();
+		
+		File testFile = maybeGenerateTestData(testFilename, fileSize);
+		long length = isInMemory() ? parseHumanReadableNumber(fileSize) : testFile.length();
+		String remoteUploadDirectory = username + "/speedtest-" + UUID.randomUUID().toString();
+		
+		TransferStatistics cold = new TransferStatistics();
+		TransferStatistics warm = new TransferStatistics();
+		// kept apart so the tables show where the warm connection saves time
+		PhaseStatistics coldPhases = new PhaseStatistics();
+		PhaseStatistics warmPhases = new PhaseStatistics();
+		RemoteDataClient client = null;
+		
+		try {
+			client = getClient();
+			client.authenticate();
+			client.mkdirs(remoteUploadDirectory);
+			
+			// cold and warm transfers are interleaved so drift in the 
+			// network or the remote system affects both equally.
+			for (int z=0; z<iterations; z++) {
+				if (includeUploadTest) {
+					cold.recordUpload(coldTransfer(testFile, length, remoteUploadDirectory, true, coldPhases), length);
+					runTransfers(client, testFile, length, remoteUploadDirectory, 1, true, false, warm, warmPhases);
+				}
+				if (includeDownloadTest) {
+					cold.recordDownload(coldTransfer(testFile, length, remoteUploadDirectory, false, coldPhases), length);
+					runTransfers(client, testFile, length, remoteUploadDirectory, 1, false, true, warm, warmPhases);
+				}
+			}
+		}
+		finally {
+			if (client != null) {
+				try { client.delete(remoteUploadDirectory); } catch (Exception e) {}
+				releaseClient();
+			}
+			
+			if (!isInMemory()) {
+				FileUtils.deleteQuietly(getDownloadFile(testFile));
+			}
+		}
+		
+		StringBuilder sb = new StringBuilder();
+		sb.append(formatOutput(COLD_WARM_RESULT_TABLE_HEADER) + "\n");
+		if (includeUploadTest) {
+			sb.append(formatColdWarm("upload", cold.getUploadTimes(), warm.getUploadTimes(), length) + "\n");
+		}
+		if (includeDownloadTest) {
+			sb.append(formatColdWarm("download", cold.getDownloadTimes(), warm.getDownloadTimes(), length) + "\n");
+		}
+		sb.append("\nCold transfers\n" + formatPhases(coldPhases));
+		sb.append("\nWarm transfers\n" + formatPhases(warmPhases));
+		return sb.toString();
+	}
+	
+	/**
+	 * Runs a single transfer over a brand new client, including the 
+	 * connection setup and authentication in the measured time. The setup
+	 * phases are recorded in {@code phases}.
+	 * 
+	 * @return the total time in nanoseconds from creating the client to the transfer completing
+	 */
+	private long coldTransfer(File testFile, long length, String remoteUploadDirectory, boolean upload, PhaseStatistics phases) 
+	throws IOException, RemoteDataException 
+	{
+		TransferStatistics ignored = new TransferStatistics();
+		RemoteDataClient client = null;
+		try {
+			long t0 = System.nanoTime();
+			client = newClient();
+			long t1 = System.nanoTime();
+			phases.recordSetup(Phase.CLIENT_INIT, t1 - t0);
+			
+			client.authenticate();
+			phases.recordSetup(Phase.AUTH, System.nanoTime() - t1);
+			
+			runTransfers(client, testFile, length, remoteUploadDirectory, 1, upload, !upload, ignored, phases);
+			return System.nanoTime() - t0;
+		}
+		finally {
+			try { client.disconnect();} catch (Exception e) {}
+		}
+	}
+	
+	private String formatColdWarm(String direction, Histogram cold, Histogram warm, long length) {
+		double saved = cold.getMean() - warm.getMean();
+		return formatOutput(new String[] {
+				direction,
+				formatMillis(cold.getMean()),
+				formatMillis(cold.getValueAtPercentile(99)),
+				String.valueOf(calculateRate(length, Math.round(cold.getMean()))),
+				formatMillis(warm.getMean()),
+				formatMillis(warm.getValueAtPercentile(99)),
+				String.valueOf(calculateRate(length, Math.round(warm.getMean()))),
+				formatMillis(saved),
+				String.format("%.1f%%", cold.getMean() > 0 ? saved * 100 / cold.getMean() : 0)});
+	}
+	
+	@CliCommand(value = "agave local-io", help = "Compare the CPU cost per GB of the stream and nio local I/O paths of streaming transfers")
+	public String localIo(
+			@CliOption(key = { "system" }, mandatory = true, help = "System id on which to perform the test") final String systemId,
+			@CliOption(key = { "file" }, mandatory = false, help = "File to use for the test") final String testFilename, 
+			@CliOption(key = { "upload" }, mandatory = false, help = "Include upload test if present.", unspecifiedDefaultValue="true") final boolean includeUploadTest,
+			@CliOption(key = { "download" }, mandatory = false, help = "Include download test if present.", unspecifiedDefaultValue="true") final boolean includeDownloadTest, 
+			@CliOption(key = { "size" }, mandatory = false, help = "Human readable size of the test file.", unspecifiedDefaultValue="256MB") final String fileSize, 
+			@CliOption(key = { "iter" }, mandatory = false, help = "Number of transfers to run with each local I/O path.", unspecifiedDefaultValue="5") final int iterations, 
+			@CliOption(key = { "bufferSize" }, mandatory = false, help = "Size of the buffer to use during transfer.", unspecifiedDefaultValue="1048576") final int bufferSize,
+			@CliOption(key = { "verbose" }, mandatory = false, help = "Enabled verbose output?", unspecifiedDefaultValue="false") final boolean verboseOutput,
+			@CliOption(key = { "inMemory" }, mandatory = false, help = "Use memory only transfers (/dev/zero <=> /dev/null) to identify optimal performance.", unspecifiedDefaultValue="false") final boolean inMemory)
+	throws Exception {
+		
+		setSystemId(systemId);
+		setBufferSize(bufferSize);
+		setVerbose(verboseOutput);
+		setStreaming(true);
+		setMapped(false);
+		setInMemory(inMemory);
+		authenticate();
+		
+		File testFile = maybeGenerateTestData(testFilename, fileSize);
+		long length = isInMemory() ? parseHumanReadableNumber(fileSize) : testFile.length();
+		String remoteUploadDirectory = username + "/speedtest-" + UUID.randomUUID().toString();
+		
+		// index 0 is the stream path, 1 the nio path
+		CpuStatistics[] uploads = new CpuStatistics[] { new CpuStatistics(), new CpuStatistics() };
+		CpuStatistics[] downloads = new CpuStatistics[] { new CpuStatistics(), new CpuStatistics() };
+		RemoteDataClient client = null;
+		
+		try {
+			client = getClient();
+			client.authenticate();
+			client.mkdirs(remoteUploadDirectory);
+			
+			// alternate which path goes first so drift in the network or 
+			// the page cache does not favour either of them.
+			for (int z=0; z<iterations; z++) {
+				for (int i=0; i<2; i++) {
+					int path = (z + i) % 2;
+					setNio(path == 1);
+					if (includeUploadTest) {
+						measureCpu(client, testFile, length, remoteUploadDirectory, true, uploads[path]);
+					}
+					if (includeDownloadTest) {
+						measureCpu(client, testFile, length, remoteUploadDirectory, false, downloads[path]);
+					}
+				}
+			}
+		}
+		finally {
+			setNio(false);
+			if (client != null) {
+				try { client.delete(remoteUploadDirectory); } catch (Exception e) {}
+				releaseClient();
+			}
+			
+			if (!isInMemory()) {
+				FileUtils.deleteQuietly(getDownloadFile(testFile));
+			}
+		}
+		
+		StringBuilder sb = new StringBuilder();
+		sb.append(formatOutput(LOCAL_IO_RESULT_TABLE_HEADER) + "\n");
+		if (includeUploadTest) {
+			sb.append(formatLocalIo("stream", "upload", uploads[0]) + "\n");
+			sb.append(formatLocalIo("nio", "upload", uploads[1]) + "\n");
+		}
+		if (includeDownloadTest) {
+			sb.append(formatLocalIo("stream", "download", downloads[0]) + "\n");
+			sb.append(formatLocalIo("nio", "download", downloads[1]) + "\n");
+		}
+		return sb.toString();
+	}
+	
+	/**
+	 * Runs a single transfer and records its wall clock time along with 
+	 * the CPU time used by this thread and by the JVM as a whole.
+	 */
+	private void measureCpu(RemoteDataClient client, File testFile, long length, String remoteUploadDirectory, 
+			boolean upload, CpuStatistics statistics) 
+	throws IOException, RemoteDataException 
+	{
+		long processCpu = CpuStatistics.processCpuTime();
+		long threadCpu = CpuStatistics.currentThreadCpuTime();
+		long t0 = System.nanoTime();
+		
+		runTransfers(client, testFile, length, remoteUploadDirectory, 1, upload, !upload, 
+				new TransferStatistics(), new PhaseStatistics());
+		
+		long elapsed = System.nanoTime() - t0;
+		statistics.record(length, elapsed, 
+				CpuStatistics.currentThreadCpuTime() - threadCpu, 
+				CpuStatistics.processCpuTime() - processCpu);
+	}
+	
+	private String formatLocalIo(String path, String direction, CpuStatistics statistics) {
+		Histogram times = statistics.getTimes();
+		return formatOutput(new String[] {
+				path,
+				direction,
+				String.valueOf(times.getTotalCount()),
+				String.valueOf(calculateRate(statistics.getBytes(), Math.round(times.getMean() * times.getTotalCount()))),
+				formatMillis(times.getMean()),
+				formatMillis(statistics.getThreadCpuTimePerGigabyte()),
+				formatMillis(statistics.getProcessCpuTimePerGigabyte()),
+				String.format("%.2f", statistics.getUtilization())});
+	}
+	
+	@CliCommand(value = "compare", help = "Compare the latest recorded runs to a baseline of earlier runs and flag significant regressions")
+	public String compare(
+			@CliOption(key = { "system" }, mandatory = true, help = "System id whose recorded runs to compare") final String systemId,
+			@CliOption(key = { "protocol" }, mandatory = false, help = "Only compare runs over this protocol") final String protocol,
+			@CliOption(key = { "mode" }, mandatory = false, help = "Only compare runs with this transfer mode, ie. streaming, nio or native") final String mode,
+			@CliOption(key = { "size" }, mandatory = false, help = "Only compare runs of this human readable file size") final String fileSize,
+			@CliOption(key = { "bufferSize" }, mandatory = false, help = "Only compare runs with this buffer size") final Integer bufferSize,
+			@CliOption(key = { "latest" }, mandatory = false, help = "Number of most recent runs to test against the baseline.", unspecifiedDefaultValue="1") final int latest,
+			@CliOption(key = { "baseline" }, mandatory = false, help = "Number of runs before them forming the baseline.", unspecifiedDefaultValue="10") final int baseline,
+			@CliOption(key = { "alpha" }, mandatory = false, help = "Significance level of the Mann-Whitney test.", unspecifiedDefaultValue="0.05") final double alpha,
+			@CliOption(key = { "threshold" }, mandatory = false, help = "Smallest relative change of the median to report.", unspecifiedDefaultValue="0.05") final double threshold)
+	throws Exception {
+		
+		if (latest < 1 || baseline < 1) {
+			throw new IllegalArgumentException("The latest and baseline run counts must be positive.");
+		}
+		
+		List<HistoryRecord> records = getResultHistory().find(systemId, protocol, mode, 
+				StringUtils.isEmpty(fileSize) ? null : parseHumanReadableNumber(fileSize), bufferSize);
+		
+		// group by run settings, keeping the order runs were recorded in
+		Map<String, List<HistoryRecord>> runs = new LinkedHashMap<String, List<HistoryRecord>>();
+		for (HistoryRecord record: records) {
+			List<HistoryRecord> group = runs.get(record.getKey());
+			if (group == null) {
+				group = new ArrayList<HistoryRecord>();
+				runs.put(record.getKey(), group);
+			}
+			group.add(record);
+		}
+		
+		if (runs.isEmpty()) {
+			return "No recorded runs of " + systemId + " match in " + getResultHistory().getFile().getAbsolutePath();
+		}
+		
+		StringBuilder sb = new StringBuilder();
+		int regressions = 0;
+		for (Map.Entry<String, List<HistoryRecord>> entry: runs.entrySet()) {
+			List<HistoryRecord> group = entry.getValue();
+			int recent = Math.min(latest, group.size());
+			List<HistoryRecord> current = group.subList(group.size() - recent, group.size());
+			List<HistoryRecord> previous = group.subList(Math.max(0, group.size() - recent - baseline), group.size() - recent);
+			
+			sb.append(entry.getKey() + ": " + current.size() + " latest vs " + previous.size() + " baseline runs\n");
+			if (previous.isEmpty()) {
+				sb.append("\tno baseline yet\n\n");
+				continue;
+			}
+			
+			sb.append(formatOutput(COMPARE_RESULT_TABLE_HEADER) + "\n");
+			for (String metric: getMetrics(current)) {
+				double[] before = getSamples(previous, metric);
+				double[] after = getSamples(current, metric);
+				if (before.length == 0 || after.length == 0) continue;
+				
+				double baselineMedian = median(before);
+				double latestMedian = median(after);
+				double change = baselineMedian == 0 ? 0 : (latestMedian - baselineMedian) / baselineMedian;
+				MannWhitney test = MannWhitney.test(before, after);
+				
+				boolean worse = HistoryRecord.isHigherBetter(metric) ? change < 0 : change > 0;
+				String status = "ok";
+				if (test.getPValue() < alpha && Math.abs(change) >= threshold) {
+					status = worse ? "REGRESSION" : "improved";
+					if (worse) regressions++;
+				}
+				
+				sb.append(formatOutput(new String[]{
+						metric,
+						String.format("%.3f", baselineMedian),
+						String.format("%.3f", latestMedian),
+						String.format("%+.1f%%", change * 100),
+						String.format("%.4f", test.getPValue()),
+						status}) + "\n");
+			}
+			sb.append("\n");
+		}
+		sb.append(regressions + " significant regression(s) at alpha " + alpha);
+		
+		return sb.toString();
+	}
+	
+	/**
+	 * @param records the runs to read
+	 * @return the names of every metric recorded in the runs
+	 */
+	private Set<String> getMetrics(List<HistoryRecord> records) {
+		Set<String> metrics = new LinkedHashSet<String>();
+		for (HistoryRecord record: records) {
+			metrics.addAll(record.getSamples().keySet());
+		}
+		return metrics;
+	}
+	
+	/**
+	 * @param records the runs to read
+	 * @param metric the metric name
+	 * @return the samples of the metric pooled over every run
+	 */
+	private double[] getSamples(List<HistoryRecord> records, String metric) {
+		List<Double> pooled = new ArrayList<Double>();
+		for (HistoryRecord record: records) {
+			List<Double> values = record.getSamples().get(metric);
+			if (values != null) pooled.addAll(values);
+		}
+		double[] samples = new double[pooled.size()];
+		for (int i=0; i<samples.length; i++) samples[i] = pooled.get(i);
+		return samples;
+	}
+	
+	private double median(double[] values) {
+		double[] sorted = Arrays.copyOf(values, values.length);
+		Arrays.sort(sorted);
+		int mid = sorted.length / 2;
+		return sorted.length % 2 == 1 ? sorted[mid] : (sorted[mid - 1] + sorted[mid]) / 2;
+	}
+	
+	@CliCommand(value = "compare adaptor", help = "Compare the adaptor of a registered system with the native sftp client on the same transfers and report the adaptor overhead")
+	public String compareAdaptor(
+			@CliOption(key = { "system" }, mandatory = true, help = "System id on which to perform the test") final String systemId,
+			@CliOption(key = { "upload" }, mandatory = false, help = "Include upload test if present.", unspecifiedDefaultValue="true") final boolean includeUploadTest,
+			@CliOption(key = { "download" }, mandatory = false, help = "Include download test if present.", unspecifiedDefaultValue="true") final boolean includeDownloadTest, 
+			@CliOption(key = { "size" }, mandatory = false, help = "Comma separated list of human readable file sizes to test.", unspecifiedDefaultValue="2MB,32MB") final String fileSizes, 
+			@CliOption(key = { "iter" }, mandatory = false, help = "Number of adaptor and native transfer pairs per size and direction.", unspecifiedDefaultValue="10") final int iterations, 
+			@CliOption(key = { "streaming" }, mandatory = false, help = "Should adaptor transfers be done using the streaming api?", unspecifiedDefaultValue="false") final boolean streaming, 
+			@CliOption(key = { "bufferSize" }, mandatory = false, help = "Size of the buffer to use during adaptor transfers.", unspecifiedDefaultValue="32768") final int bufferSize,
+			@CliOption(key = { "confidence" }, mandatory = false, help = "Confidence level of the overhead intervals.", unspecifiedDefaultValue="0.95") final double confidence,
+			@CliOption(key = { "verbose" }, mandatory = false, help = "Enabled verbose output?", unspecifiedDefaultValue="false") final boolean verboseOutput)
+	throws Exception {
+		
+		if (nativeCommand == null) {
+			throw new IllegalStateException("The native command is not available.");
+		}
+		else if (iterations < 2) {
+			throw new IllegalArgumentException("At least 2 iterations are needed for a confidence interval.");
+		}
+		else if (confidence <= 0 || confidence >= 1) {
+			throw new IllegalArgumentException("The confidence level must be between 0 and 1.");
+		}
+		
+		setSystemId(systemId);
+		setBufferSize(bufferSize);
+		setVerbose(verboseOutput);
+		setStreaming(streaming);
+		setNio(false);
+		setMapped(false);
+		setInMemory(false);
+		authenticate();
+		
+		String remoteUploadDirectory = username + "/speedtest-" + UUID.randomUUID().toString();
+		RemoteDataClient client = null;
+		SftpSession session = null;
+		StringBuilder sb = new StringBuilder();
+		sb.append(formatOutput(ADAPTOR_RESULT_TABLE_HEADER) + "\n");
+		
+		try {
+			client = getClient();
+			client.authenticate();
+			client.mkdirs(remoteUploadDirectory);
+			String remoteUploadDirectoryAbsolutePath = client.resolvePath(remoteUploadDirectory);
+			
+			// both sides keep their connection open, so neither pays a handshake per transfer
+			session = nativeCommand.openSftpSession(systemId, isVerbose());
+			
+			for (String fileSize: StringUtils.commaDelimitedListToStringArray(fileSizes)) {
+				File testFile = maybeGenerateTestData(null, fileSize.trim());
+				long length = testFile.length();
+				String remotePath = remoteUploadDirectoryAbsolutePath + "/" + testFile.getName() + ".native";
+				File nativeDownloadFile = new File(nativeCommand.getSessionDirectory(), testFile.getName());
+				String put = "put " + testFile.getAbsolutePath() + " " + remotePath;
+				String get = "get " + remotePath + " " + nativeDownloadFile.getAbsolutePath();
+				
+				PairedOverhead uploads = new PairedOverhead();
+				PairedOverhead downloads = new PairedOverhead();
+				PhaseStatistics phases = new PhaseStatistics();
+				TransferStatistics adaptorStatistics = new TransferStatistics();
+				HistoryRecord adaptorRecord = newHistoryRecord(length);
+				adaptorStatistics.addListener(adaptorRecord);
+				TransferStatistics nativeStatistics = new TransferStatistics();
+				HistoryRecord nativeRecord = new HistoryRecord("native", systemId, "sftp", "native-session", length, 0);
+				nativeStatistics.addListener(nativeRecord);
+				
+				try {
+					if (!includeUploadTest) {
+						// the downloads need something to read
+						runTransfers(client, testFile, length, remoteUploadDirectory, 1, true, false, new TransferStatistics(), phases);
+						session.execute(put);
+					}
+					
+					// pairs alternate which side goes first so drift in the 
+					// network or the remote system affects both equally.
+					for (int z=0; z<iterations; z++) {
+						if (includeUploadTest) {
+							long[] times = compareTransfer(client, session, testFile, length, remoteUploadDirectory, put, 
+									true, z % 2 == 0, adaptorStatistics, nativeStatistics, phases);
+							uploads.record(times[0], times[1]);
+						}
+						if (includeDownloadTest) {
+							long[] times = compareTransfer(client, session, testFile, length, remoteUploadDirectory, get, 
+									false, z % 2 == 0, adaptorStatistics, nativeStatistics, phases);
+							downloads.record(times[0], times[1]);
+						}
+					}
+					
+					recordHistory(adaptorRecord);
+					recordHistory(nativeRecord);
+				}
+				finally {
+					FileUtils.deleteQuietly(getDownloadFile(testFile));
+					FileUtils.deleteQuietly(nativeDownloadFile);
+				}
+				
+				if (includeUploadTest) {
+					sb.append(formatAdaptorOverhead(fileSize.trim(), "upload", uploads, length, confidence) + "\n");
+				}
+				if (includeDownloadTest) {
+					sb.append(formatAdaptorOverhead(fileSize.trim(), "download", downloads, length, confidence) + "\n");
+				}
+			}
+		}
+		finally {
+			nativeCommand.closeSftpSession(session);
+			if (client != null) {
+				try { client.delete(remoteUploadDirectory); } catch (Exception e) {}
+				releaseClient();
+			}
+		}
+		
+		sb.append("\nOverhead is the extra time the adaptor took over sftp in the same session. Intervals are " + 
+				Math.round(confidence * 100) + "% bootstrap intervals over the pairs.");
+		return sb.toString();
+	}
+	
+	/**
+	 * Runs one adaptor transfer over the cached client and the same 
+	 * transfer through the sftp session, one after the other. The adaptor
+	 * time is the one {@link #runTransfers} records around the transfer 
+	 * itself, so its allocation probes and verbose output are not counted
+	 * against the adaptor.
+	 * 
+	 * @param sftpCommand the put or get for the session
+	 * @param adaptorFirst whether the adaptor transfer runs first
+	 * @return the adaptor and native times in nanoseconds
+	 */
+	private long[] compareTransfer(RemoteDataClient client, SftpSession session, File testFile, long length, 
+			String remoteUploadDirectory, String sftpCommand, boolean upload, boolean adaptorFirst, 
+			TransferStatistics adaptorStatistics, TransferStatistics nativeStatistics, PhaseStatistics phases) 
+	throws IOException, RemoteDataException 
+	{
+		final long[] adaptorTime = new long[1];
+		long nativeTime = 0;
+		SampleListener transferTime = new SampleListener() {
+			@Override
+			public void onSample(String direction, String metric, long elapsed, long length) {
+				if (SampleListener.TRANSFER.equals(metric)) adaptorTime[0] = elapsed;
+			}
+		};
+		for (int i=0; i<2; i++) {
+			if ((i == 0) == adaptorFirst) {
+				adaptorStatistics.addListener(transferTime);
+				try {
+					runTransfers(client, testFile, length, remoteUploadDirectory, 1, upload, !upload, adaptorStatistics, phases);
+				}
+				finally {
+					adaptorStatistics.removeListener(transferTime);
+				}
+			}
+			else {
+				nativeTime = session.execute(sftpCommand);
+				if (upload) nativeStatistics.recordUpload(nativeTime, length);
+				else nativeStatistics.recordDownload(nativeTime, length);
+			}
+		}
+		return new long[] { adaptorTime[0], nativeTime };
+	}
+	
+	private String formatAdaptorOverhead(String fileSize, String direction, PairedOverhead overhead, long length, double confidence) {
+		double[] interval = overhead.getConfidenceInterval(confidence);
+		return formatOutput(new String[] {
+				fileSize,
+				direction,
+				String.valueOf(overhead.size()),
+				formatMillis(overhead.getSubjectMean()),
+				formatMillis(overhead.getReferenceMean()),
+				String.valueOf(calculateRate(length, Math.round(overhead.getSubjectMean()))),
+				String.valueOf(calculateRate(length, Math.round(overhead.getReferenceMean()))),
+				String.format("%+.1f%%", overhead.getOverhead() * 100),
+				Double.isNaN(interval[0]) ? "n/a" : String.format("%+.1f%% to %+.1f%%", interval[0] * 100, interval[1] * 100)});
+	}
+	
+	@CliCommand(value = "run-plan", help = "Run every case of a JSON benchmark plan, resuming after the last completed case")
+	public String runPlan(
+			@CliOption(key = { "plan" }, mandatory = true, help = "JSON file listing the systems, modes, sizes, buffer sizes and concurrency levels to test") final String planFilename,
+			@CliOption(key = { "restart" }, mandatory = false, help = "Discard the progress of earlier runs of the plan and start over.", specifiedDefaultValue="true", unspecifiedDefaultValue="false") final boolean restart,
+			@CliOption(key = { "verbose" }, mandatory = false, help = "Enabled verbose output?", unspecifiedDefaultValue="false") final boolean verboseOutput)
+	throws Exception {
+		
+		File planFile = new File(planFilename);
+		BenchmarkPlan plan = BenchmarkPlan.load(planFile, mapper);
+		PlanProgress progress = new PlanProgress(PlanProgress.getProgressFile(planFile));
+		if (restart) progress.reset();
+		
+		setVerbose(verboseOutput);
+		setDebug(false);
+		
+		List<PlanCase> schedule = PlanScheduler.schedule(plan);
+		StringBuilder sb = new StringBuilder();
+		StringBuilder details = new StringBuilder();
+		sb.append(formatOutput(PLAN_RESULT_TABLE_HEADER) + formatOutput(RESULT_TABLE_HEADER) + "\n");
+		
+		int completed = 0, skipped = 0, failed = 0;
+		String connectedSystem = null;
+		String remoteUploadDirectory = null;
+		try {
+			for (PlanCase planCase: schedule) {
+				if (progress.isDone(planCase)) {
+					skipped++;
+					continue;
+				}
+				
+				if (isVerbose()) System.out.println("Running case " + planCase.getId());
+				try {
+					if (planCase.isNative()) {
+						sb.append(runNativeCase(plan, planCase, details));
+					}
+					else {
+						// one connection per system visit, shared by every case of the visit
+						if (!planCase.getSystem().equals(connectedSystem)) {
+							closePlanConnection(remoteUploadDirectory);
+							connectedSystem = null;
+							
+							setSystemId(planCase.getSystem());
+							authenticate();
+							getClient().authenticate();
+							remoteUploadDirectory = username + "/speedtest-" + UUID.randomUUID().toString();
+							getClient().mkdirs(remoteUploadDirectory);
+							connectedSystem = planCase.getSystem();
+						}
+						sb.append(runPlanCase(plan, planCase, remoteUploadDirectory, details));
+					}
+					progress.markDone(planCase);
+					completed++;
+				}
+				catch (Exception e) {
+					failed++;
+					sb.append(formatPlanCase(planCase) + "failed: " + e.getMessage() + "\n");
+					
+					// the connection may be broken, so the next case reconnects
+					if (!planCase.isNative()) {
+						closePlanConnection(remoteUploadDirectory);
+						connectedSystem = null;
+					}
+				}
+			}
+		}
+		finally {
+			closePlanConnection(remoteUploadDirectory);
+		}
+		
+		if (details.length() > 0) {
+			sb.append("\n" + details);
+		}
+		sb.append("\n" + completed + " case(s) completed, " + failed + " failed, " + skipped + 
+				" already completed of " + schedule.size() + ". Progress is kept in " + progress.getFile().getAbsolutePath());
+		
+		if (failed > 0) {
+			failWithReport(sb.toString(), failed + " of " + schedule.size() + " plan case(s) failed.");
+		}
+		return sb.toString();
+	}
+	
+	/**
+	 * Runs a single adaptor case of a plan over the cached client. Cases 
+	 * with more than one client open their own connections.
+	 * 
+	 * @return the result row of the case
+	 */
+	private String runPlanCase(BenchmarkPlan plan, PlanCase planCase, String remoteUploadDirectory, StringBuilder details) 
+	throws Exception 
+	{
+		String mode = planCase.getMode();
+		setInMemory("inMemory".equals(mode));
+		setStreaming(!"put-get".equals(mode));
+		setNio("nio".equals(mode));
+		setMapped("mmap".equals(mode));
+		setBufferSize(planCase.getBufferSize());
+		
+		File testFile = maybeGenerateTestData(null, planCase.getSize());
+		long length = isInMemory() ? parseHumanReadableNumber(planCase.getSize()) : testFile.length();
+		try {
+			if (planCase.getConcurrency() > 1) {
+				details.append(planCase.getId() + "\n");
+				details.append(benchmarkConcurrency(testFile, length, remoteUploadDirectory, plan.isUpload(), plan.isDownload(), 
+						plan.getIterations(), new int[] { planCase.getConcurrency() }) + "\n");
+				return formatPlanCase(planCase) + "see below\n";
+			}
+			
+			TransferStatistics statistics = new TransferStatistics();
+			PhaseStatistics phases = new PhaseStatistics();
+			HistoryRecord record = newHistoryRecord(length);
+			statistics.addListener(record);
+			phases.addListener(record);
+			
+			runTransfers(getClient(), testFile, length, remoteUploadDirectory, plan.getIterations(), 
+					plan.isUpload(), plan.isDownload(), statistics, phases);
+			recordHistory(record);
+			
+			return formatPlanCase(planCase) + calculateTime(statistics, length) + "\n";
+		}
+		finally {
+			if (!isInMemory()) FileUtils.deleteQuietly(getDownloadFile(testFile));
+		}
+	}
+	
+	/**
+	 * Runs a native case of a plan through the native command, which 
+	 * records its own history.
+	 * 
+	 * @return the result row of the case
+	 */
+	private String runNativeCase(BenchmarkPlan plan, PlanCase planCase, StringBuilder details) 
+	throws Exception 
+	{
+		if (nativeCommand == null) {
+			throw new IllegalStateException("The native command is not available.");
+		}
+		details.append(planCase.getId() + "\n");
+		details.append(nativeCommand.nativeSpeedtest(planCase.getSystem(), null, String.valueOf(plan.isUpload()), 
+				String.valueOf(plan.isDownload()), planCase.getSize(), plan.getIterations(), isVerbose(), 
+				1, NativeSystemsSpeedtestCommand.SPLIT_BYTES, null, null, false, false) + "\n");
+		return formatPlanCase(planCase) + "see below\n";
+	}
+	
+	private String formatPlanCase(PlanCase planCase) {
+		return formatOutput(new String[] {
+				String.valueOf(planCase.getRound() + 1),
+				planCase.getSystem(),
+				planCase.getMode(),
+				String.valueOf(planCase.getBufferSize()),
+				String.valueOf(planCase.getConcurrency())});
+	}
+	
+	/**
+	 * Removes the remote directory of a plan's system visit and releases
+	 * the connection.
+	 */
+	private void closePlanConnection(String remoteUploadDirectory) {
+		if (remoteUploadDirectory != null && cachedClient != null) {
+			try { cachedClient.delete(remoteUploadDirectory); } catch (Exception e) {}
+		}
+		releaseClient();
+	}
+	
+	@CliCommand(value = "agave fleet", help = "Test many registered systems in parallel and rank the slowest")
+	public String fleet(
+			@CliOption(key = { "type" }, mandatory = false, help = "Only test systems of this type, ie. storage or execution") final String type,
+			@CliOption(key = { "protocol" }, mandatory = false, help = "Only test systems using this storage protocol, ie. sftp") final String protocol,
+			@CliOption(key = { "pattern" }, mandatory = false, help = "Only test systems whose id matches this regular expression") final String pattern,
+			@CliOption(key = { "size" }, mandatory = false, help = "Human readable size of the test file.", unspecifiedDefaultValue="8MB") final String fileSize, 
+			@CliOption(key = { "iter" }, mandatory = false, help = "Number of times to repeat the transfer(s) on each system.", unspecifiedDefaultValue="1") final int iterations, 
+			@CliOption(key = { "bufferSize" }, mandatory = false, help = "Size of the buffer to use during transfer.", unspecifiedDefaultValue="32768") final int bufferSize,
+			@CliOption(key = { "workers" }, mandatory = false, help = "Number of systems tested at the same time.", unspecifiedDefaultValue="16") final int workers,
+			@CliOption(key = { "perHost" }, mandatory = false, help = "Number of systems on the same host tested at the same time.", unspecifiedDefaultValue="2") final int perHost,
+			@CliOption(key = { "timeout" }, mandatory = false, help = "Minutes to wait for the whole sweep before giving up on the remaining systems.", unspecifiedDefaultValue="60") final int timeout,
+			@CliOption(key = { "top" }, mandatory = false, help = "Number of slowest systems to list, or 0 for all.", unspecifiedDefaultValue="25") final int top,
+			@CliOption(key = { "verbose" }, mandatory = false, help = "Enabled verbose output?", unspecifiedDefaultValue="false") final boolean verboseOutput)
+	throws Exception {
+		
+		if (workers < 1 || perHost < 1 || timeout < 1) {
+			throw new IllegalArgumentException("Workers, perHost and timeout must be positive.");
+		}
+		
+		setBufferSize(bufferSize);
+		setVerbose(verboseOutput);
+		setStreaming(true);
+		setNio(false);
+		setMapped(false);
+		setInMemory(false);
+		authenticateUser();
+		
+		List<RemoteSystem> systems = selectSystems(type, protocol, pattern);
+		if (systems.isEmpty()) {
+			return "No available systems match the given type, protocol and pattern.";
+		}
+		
+		final File testFile = maybeGenerateTestData(null, fileSize);
+		final long length = testFile.length();
+		
+		// alternate hosts so the workers are not all queued on one host's limit
+		Map<String, List<RemoteSystem>> byHost = new LinkedHashMap<String, List<RemoteSystem>>();
+		for (RemoteSystem system: systems) {
+			String host = system.getStorageConfig().getHost();
+			if (!byHost.containsKey(host)) byHost.put(host, new ArrayList<RemoteSystem>());
+			byHost.get(host).add(system);
+		}
+		List<RemoteSystem> order = new ArrayList<RemoteSystem>(systems.size());
+		for (int i=0; order.size() < systems.size(); i++) {
+			for (List<RemoteSystem> hostSystems: byHost.values()) {
+				if (i < hostSystems.size()) order.add(hostSystems.get(i));
+			}
+		}
+		
+		Map<String, Semaphore> hostLimits = new HashMap<String, Semaphore>();
+		for (String host: byHost.keySet()) {
+			hostLimits.put(host, new Semaphore(perHost));
+		}
+		
+		long t0 = System.nanoTime();
+		final Set<RemoteDataClient> openClients = Collections.synchronizedSet(new HashSet<RemoteDataClient>());
+		// daemon workers, so a probe stuck in a read never keeps the JVM alive
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(workers, order.size()), new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "fleet-probe-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		List<Future<FleetResult>> futures = new ArrayList<Future<FleetResult>>(order.size());
+		for (final RemoteSystem system: order) {
+			final Semaphore hostLimit = hostLimits.get(system.getStorageConfig().getHost());
+			futures.add(executor.submit(new Callable<FleetResult>() {
+				@Override
+				public FleetResult call() throws Exception {
+					setTenancy();
+					hostLimit.acquire();
+					try {
+						return probeSystem(system, testFile, length, iterations, openClients);
+					}
+					finally {
+						hostLimit.release();
+					}
+				}
+			}));
+		}
+		
+		executor.shutdown();
+		boolean finished = executor.awaitTermination(timeout, TimeUnit.MINUTES);
+		boolean stopped = finished;
+		if (!finished) {
+			// blocked reads ignore interrupts, so close the connections under
+			// them and wait for the probes to stop before the next command
+			// changes the shared settings they use.
+			executor.shutdownNow();
+			synchronized (openClients) {
+				for (RemoteDataClient client: openClients) {
+					try { client.disconnect(); } catch (Exception e) {}
+				}
+			}
+			stopped = executor.awaitTermination(FLEET_SHUTDOWN_GRACE, TimeUnit.SECONDS);
+		}
+		long elapsed = System.nanoTime() - t0;
+		
+		List<FleetResult> results = new ArrayList<FleetResult>(order.size());
+		for (int i=0; i<order.size(); i++) {
+			RemoteSystem system = order.get(i);
+			Future<FleetResult> future = futures.get(i);
+			if (future.isDone() && !future.isCancelled()) {
+				try {
+					results.add(future.get());
+					continue;
+				}
+				catch (ExecutionException e) {
+					Throwable cause = e.getCause() == null ? e : e.getCause();
+					FleetResult result = new FleetResult(system.getSystemId(), system.getStorageConfig().getHost(), getProtocol(system));
+					result.setError(cause.getMessage() == null ? cause.getClass().getSimpleName() : cause.getMessage());
+					results.add(result);
+					continue;
+				}
+			}
+			FleetResult result = new FleetResult(system.getSystemId(), system.getStorageConfig().getHost(), getProtocol(system));
+			result.setError("timed out after " + timeout + " minutes");
+			results.add(result);
+		}
+		Collections.sort(results);
+		
+		int failed = 0;
+		for (FleetResult result: results) {
+			if (result.isFailed()) failed++;
+		}
+		
+		StringBuilder sb = new StringBuilder();
+		sb.append(formatOutput(FLEET_RESULT_TABLE_HEADER) + "\n");
+		int rows = top > 0 ? Math.min(top, results.size()) : results.size();
+		for (int i=0; i<rows; i++) {
+			sb.append(formatFleetResult(i + 1, results.get(i)) + "\n");
+		}
+		sb.append("\nTested " + results.size() + " systems on " + byHost.size() + " hosts in " + 
+				String.format("%.1f", elapsed / NANOS_PER_SECOND) + "s, " + failed + " failed.");
+		if (!stopped) {
+			sb.append("\nSome timed out probes were still running " + FLEET_SHUTDOWN_GRACE + 
+					"s after their connections were closed.");
+		}
+		
+		return sb.toString();
+	}
+	
+	/**
+	 * Returns the available registered systems matching every given filter.
+	 * 
+	 * @param type the system type, or null for any
+	 * @param protocol the storage protocol, or null for any
+	 * @param pattern regular expression the system id must match, or null for any
+	 * @return the matching systems
+	 */
+	protected List<RemoteSystem> selectSystems(String type, String protocol, String pattern) {
+		Pattern idPattern = StringUtils.isEmpty(pattern) ? null : Pattern.compile(pattern);
+		List<RemoteSystem> selected = new ArrayList<RemoteSystem>();
+		for (RemoteSystem system: systemDao.getAll()) {
+			if (!system.isAvailable() || system.getStorageConfig() == null) continue;
+			if (!StringUtils.isEmpty(type) && (system.getType() == null || !system.getType().name().equalsIgnoreCase(type))) continue;
+			if (!StringUtils.isEmpty(protocol) && !protocol.equalsIgnoreCase(getProtocol(system))) continue;
+			if (idPattern != null && !idPattern.matcher(system.getSystemId()).matches()) continue;
+			selected.add(system);
+		}
+		return selected;
+	}
+	
+	/**
+	 * Connects to a single system of a fleet sweep with its own client and
+	 * times streaming uploads and downloads of the test file. Failures are
+	 * returned in the result rather than thrown.
+	 * 
+	 * @param system the system to test
+	 * @param testFile the local test file, shared by every probe
+	 * @param length the number of bytes to transfer
+	 * @param iterations number of times to repeat the transfers
+	 * @param openClients holds the client of the probe while it is connected,
+	 * so a timed out sweep can close it
+	 * @return the result of the probe
+	 */
+	protected FleetResult probeSystem(RemoteSystem system, File testFile, long length, int iterations, 
+			Set<RemoteDataClient> openClients) 
+	{
+		FleetResult result = new FleetResult(system.getSystemId(), system.getStorageConfig().getHost(), getProtocol(system));
+		HistoryRecord record = new HistoryRecord("agave", system.getSystemId(), getProtocol(system), "streaming", length, getBufferSize());
+		result.getStatistics().addListener(record);
+		result.getPhases().addListener(record);
+		
+		String remoteUploadDirectory = username + "/speedtest-" + UUID.randomUUID().toString();
+		String remotePath = remoteUploadDirectory + "/" + testFile.getName();
+		RemoteDataClient client = null;
+		File downloadFile = null;
+		try {
+			if (isVerbose()) System.out.println("Testing " + system.getSystemId());
+			downloadFile = File.createTempFile("speedtest-", ".download");
+			
+			long t0 = System.nanoTime();
+			client = system.getRemoteDataClient();
+			openClients.add(client);
+			result.getPhases().recordSetup(Phase.CLIENT_INIT, System.nanoTime() - t0);
+			
+			t0 = System.nanoTime();
+			client.authenticate();
+			result.getPhases().recordSetup(Phase.AUTH, System.nanoTime() - t0);
+			
+			client.mkdirs(remoteUploadDirectory);
+			
+			for (int i=0; i<iterations; i++) {
+				long t1 = System.nanoTime();
+				uploadStream(client, testFile, remotePath, length, result.getPhases());
+				result.getStatistics().recordUpload(System.nanoTime() - t1, length);
+				
+				long t3 = System.nanoTime();
+				downloadStream(client, remotePath, downloadFile, length, result.getPhases());
+				result.getStatistics().recordDownload(System.nanoTime() - t3, length);
+			}
+			
+			recordHistory(record);
+		}
+		catch (Exception e) {
+			result.setError(e.getMessage() == null ? e.getClass().getSimpleName() : e.getMessage());
+		}
+		finally {
+			if (client != null) {
+				openClients.remove(client);
+				try { client.delete(remoteUploadDirectory); } catch (Exception e) {}
+				try { client.disconnect(); } catch (Exception e) {}
+			}
+			FileUtils.deleteQuietly(downloadFile);
+		}
+		return result;
+	}
+	
+	private String formatFleetResult(int rank, FleetResult result) {
+		Histogram init = result.getPhases().getSetup().get(Phase.CLIENT_INIT);
+		Histogram auth = result.getPhases().getSetup().get(Phase.AUTH);
+		double setup = (init == null ? 0 : init.getMean()) + (auth == null ? 0 : auth.getMean());
+		
+		return formatOutput(new String[] {
+				String.valueOf(rank),
+				result.getSystemId(),
+				result.getHost(),
+				result.getProtocol(),
+				result.isFailed() ? "-" : String.format("%.0f", result.getUploadRate()),
+				result.isFailed() ? "-" : String.format("%.0f", result.getDownloadRate()),
+				setup == 0 ? "-" : formatMillis(setup),
+				result.isFailed() ? "failed: " + result.getError() : "ok"});
+	}
+	
+	/**
+	 * @return the lower case storage protocol of the system, or null
+	 */
+	private String getProtocol(RemoteSystem system) {
+		return system.getStorageConfig() == null || system.getStorageConfig().getProtocol() == null ? null : 
+				system.getStorageConfig().getProtocol().name().toLowerCase();
+	}
+	
+	/**
+	 * Uploads and/or downloads the test file {@code iterations} times over 
+	 * an authenticated client, using the transfer mode selected on the 
+	 * command line, and records every sample.
+	 * 
+	 * @param client an authenticated client
+	 * @param testFile the local test file
+	 * @param length the number of bytes to transfer
+	 * @param remoteUploadDirectory the remote directory to transfer into
+	 * @param iterations number of times to repeat the transfer(s)
+	 * @param includeUploadTest
+	 * @param includeDownloadTest
+	 * @param statistics receives the duration and rate of every transfer
+	 * @param phases receives the phase timings of every transfer
+	 * @throws IOException
+	 * @throws RemoteDataException
+	 */
+	protected void runTransfers(RemoteDataClient client, File testFile, long length, String remoteUploadDirectory, 
+			int iterations, boolean includeUploadTest, boolean includeDownloadTest, 
+			TransferStatistics statistics, PhaseStatistics phases) 
+	throws IOException, RemoteDataException 
+	{
+		runTransfers(client, testFile, length, remoteUploadDirectory, iterations, 
+				includeUploadTest, includeDownloadTest, statistics, phases, null);
+	}
+	
+	/**
+	 * Same as {@link #runTransfers(RemoteDataClient, File, long, String, int, boolean, boolean, TransferStatistics, PhaseStatistics)}
+	 * but also checksums every streaming transfer inside the copy loop 
+	 * when {@code checksums} is not null. Each download is compared with 
+	 * the checksum of the last upload and mismatches are reported on stderr as they 
+	 * happen. Transfers through put/get are not checksummed.
+	 * 
+	 * @param checksums receives the checksum totals, or null to skip checksumming
+	 */
+	protected void runTransfers(RemoteDataClient client, File testFile, long length, String remoteUploadDirectory, 
+			int iterations, boolean includeUploadTest, boolean includeDownloadTest, 
+			TransferStatistics statistics, PhaseStatistics phases, ChecksumStatistics checksums) 
+	throws IOException, RemoteDataException 
+	{
+		String remotePath = remoteUploadDirectory + "/" + testFile.getName();
+		Long expected = null;
+		
+		for (int z=0; z<iterations; z++) {
+			if (includeUploadTest) {
+				if (isVerbose()) System.out.println("Starting upload test...");
+				if (isVerbose()) System.out.println("\tTransfer: file:///" + testFile.getAbsoluteFile() + " => agave://" + getSystem().getSystemId() + "/" + testFile.getName());
+				TimedChecksum checksum = checksums == null ? null : new TimedChecksum(checksums.getAlgorithm());
+				long a1 = AllocationStatistics.currentThreadAllocatedBytes();
+				long t1 = System.nanoTime();
+				
+				if (isInMemory()) {
+					uploadStream(client, new File("/dev/zero"), "/dev/null", length, phases, checksum);
+				}
+				else if (isStreaming()) {
+					uploadStream(client, testFile, remotePath, length, phases, checksum);
+				}
+				else {
+					client.put(testFile.getAbsolutePath(), remoteUploadDirectory);
+//					client.put(testFile.getAbsolutePath(), remoteUploadDirectory, new RemoteTransferListener(null) {
+//						protected synchronized void setTransferTask(TransferTask transferTask){}
+//					});
+					phases.recordUpload(Phase.BODY, System.nanoTime() - t1);
+				}
+				
+				long t2 = System.nanoTime();
+				allocationStatistics.recordUpload(AllocationStatistics.allocatedSince(a1));
+				statistics.recordUpload(t2 - t1, length);
+				if (checksum != null && checksum.getBytes() == length) {
+					checksums.recordUpload(checksum);
+					expected = checksum.getValue();
+				}
+				if (isVerbose()) System.out.println("\tPerf: " + formatMillis(t2 - t1) + "ms " + TransferTask.formatMaxMemory((long)(calculateRate(length, t2 - t1) * 1024)) + "/s ");
+				
+			}
+			
+			if (includeDownloadTest) {
+				if (isVerbose()) System.out.println("Starting download test...");
+				if (isVerbose()) System.out.println("\tTransfer: agave://" + getSystem().getSystemId() + "/" + testFile.getName() + " => file:///" + getDownloadFile(testFile).getAbsolutePath());
+				TimedChecksum checksum = checksums == null ? null : new TimedChecksum(checksums.getAlgorithm());
+				long a3 = AllocationStatistics.currentThreadAllocatedBytes();
+				long t3 = System.nanoTime();
+				
+				if (isInMemory()) {
+					downloadStream(client, "/dev/zero", new File("/dev/null"), length, phases, checksum);
+				}
+				else if (isStreaming()) {
+					downloadStream(client, remotePath, getDownloadFile(testFile), length, phases, checksum);
+				}
+				else {
+					client.get(remotePath, getDownloadFile(testFile).getAbsolutePath());
+//					client.get(remoteUploadDirectory + "/" + testFile.getName(), testFile.getAbsolutePath(), new RemoteTransferListener(null) {
+//						protected synchronized void setTransferTask(TransferTask transferTask){}
+//					});
+					phases.recordDownload(Phase.BODY, System.nanoTime() - t3);
+				}
+				
+				long t4 = System.nanoTime();
+				allocationStatistics.recordDownload(AllocationStatistics.allocatedSince(a3));
+				statistics.recordDownload(t4 - t3, length);
+				// put and get leave the checksum empty, anything else short is a mismatch
+				if (checksum != null && checksum.getBytes() > 0 
+						&& !checksums.recordDownload(checksum, expected, length)) {
+					System.err.println("Checksum mismatch on download " + (z + 1) + ": expected " + 
+							Long.toHexString(expected) + " over " + length + " bytes, received " + 
+							checksum.toHexString() + " over " + checksum.getBytes() + " bytes");
+				}
+				if (isVerbose()) System.out.println("\tPerf: " + formatMillis(t4 - t3) + "ms " + TransferTask.formatMaxMemory((long)(calculateRate(length, t4 - t3) * 1024)) + "/s");
+				
+//				client.delete(remoteUploadDirectory + "/" + testFile.getName());
+			}
+		}
+	}
+	
+	/**
+	 * Runs the transfers at each of the given file sizes and fits 
+	 * {@code time = fixedOverhead + size / bandwidth} to the mean transfer 
+	 * time in each direction. The test file of each size is taken from the
+	 * test data cache.
+	 * 
+	 * @param sizes the file sizes to test, in bytes
+	 * @param includeUploadTest
+	 * @param includeDownloadTest
+	 * @param iterations number of times to repeat the transfer(s) at each size
+	 * @return the per size results followed by the fitted model
+	 * @throws Exception
+	 */
+	protected String benchmarkSizes(long[] sizes, boolean includeUploadTest, boolean includeDownloadTest, int iterations) 
+	throws Exception 
+	{
+		String remoteUploadDirectory = username + "/speedtest-" + UUID.randomUUID().toString();
+		double[] uploadTimes = new double[sizes.length];
+		double[] downloadTimes = new double[sizes.length];
+		
+		StringBuilder sb = new StringBuilder();
+		sb.append(formatOutput(RESULT_TABLE_HEADER) + "\n");
+		
+		RemoteDataClient client = getClient();
+		try {
+			client.authenticate();
+			client.mkdirs(remoteUploadDirectory);
+			
+			for (int i=0; i<sizes.length; i++) {
+				File testFile = maybeGenerateTestData(null, sizes[i] + "B");
+				try {
+					if (isVerbose()) System.out.println("Testing file size " + sizes[i]);
+					
+					TransferStatistics statistics = new TransferStatistics();
+					PhaseStatistics phases = new PhaseStatistics();
+					if (getSampleWriter() != null) {
+						getSampleWriter().setContext("fileSize", sizes[i]);
+						getSampleWriter().resetIterations();
+						statistics.addListener(getSampleWriter());
+						phases.addListener(getSampleWriter());
+					}
+					HistoryRecord record = newHistoryRecord(sizes[i]);
+					statistics.addListener(record);
+					phases.addListener(record);
+					
+					runTransfers(client, testFile, sizes[i], remoteUploadDirectory, iterations, 
+							includeUploadTest, includeDownloadTest, statistics, phases);
+					recordHistory(record);
+					
+					uploadTimes[i] = statistics.getUploadTimes().getMean();
+					downloadTimes[i] = statistics.getDownloadTimes().getMean();
+					sb.append(calculateTime(statistics, sizes[i]) + "\n");
+				}
+				finally {
+					if (!isInMemory()) FileUtils.deleteQuietly(getDownloadFile(testFile));
+				}
+			}
+		}
+		finally {
+			try { client.delete(remoteUploadDirectory); } catch (Exception e) {}
+			releaseClient();
+		}
+		
+		sb.append("\n" + formatOutput(TRANSFER_MODEL_TABLE_HEADER) + "\n");
+		if (includeUploadTest) sb.append(formatTransferModel("upload", sizes, uploadTimes) + "\n");
+		if (includeDownloadTest) sb.append(formatTransferModel("download", sizes, downloadTimes) + "\n");
+		
+		return sb.toString();
+	}
+	
+	/**
+	 * Uploads {@code length} bytes of a local file through the streaming api,
+	 * timing the stream open, data transfer and close separately.
+	 * 
+	 * @param client an authenticated client
+	 * @param localFile the file to read from
+	 * @param remotePath the remote file to write to
+	 * @param length number of bytes to copy
+	 * @param phases the statistics to record the phase timings in
+	 * @throws IOException
+	 * @throws RemoteDataException
+	 */
+	protected void uploadStream(RemoteDataClient client, File localFile, String remotePath, long length, PhaseStatistics phases) 
+	throws IOException, RemoteDataException 
+	{
+		uploadStream(client, localFile, remotePath, length, phases, null);
+	}
+	
+	/**
+	 * Same as {@link #uploadStream(RemoteDataClient, File, String, long, PhaseStatistics)}
+	 * but also feeds every byte sent into {@code checksum}. Uses 
+	 * {@link #uploadMapped(RemoteDataClient, File, String, long, PhaseStatistics, Checksum, LocalIoStatistics.Totals)}
+	 * or {@link #uploadChannel(RemoteDataClient, File, String, long, PhaseStatistics, Checksum)}
+	 * when the mapped or nio local path is selected.
+	 * 
+	 * @param checksum the checksum to update, or null
+	 */
+	protected void uploadStream(RemoteDataClient client, File localFile, String remotePath, long length, 
+			PhaseStatistics phases, Checksum checksum) 
+	throws IOException, RemoteDataException 
+	{
+		if (isMapped() && !isInMemory()) {
+			uploadMapped(client, localFile, remotePath, length, phases, checksum, mappedStatistics.getUpload());
+			return;
+		}
+		else if (isNio()) {
+			uploadChannel(client, localFile, remotePath, length, phases, checksum);
+			return;
+		}
+		
+		InputStream in = null;
+		OutputStream out = null;
+		byte[] buf = bufferPool.acquireArray(getBufferSize());
+		ThroughputMonitor monitor = null;
+		try {
+			long t0 = System.nanoTime();
+			out = countBytes(client.getOutputStream(remotePath, true, false));
+			in = new FileInputStream(localFile);
+			long t1 = System.nanoTime();
+			phases.recordUpload(Phase.OPEN, t1 - t0);
+			monitor = startThroughput(SampleListener.UPLOAD, out, length);
+			
+			copy(in, out, buf, length, checksum);
+			out.flush();
+			long t2 = System.nanoTime();
+			stopThroughput(monitor);
+			phases.recordUpload(Phase.BODY, t2 - t1);
+			
+			out.close();
+			out = null;
+			in.close();
+			in = null;
+			phases.recordUpload(Phase.CLOSE, System.nanoTime() - t2);
+		}
+		finally {
+			if (monitor != null) monitor.stop();
+			try { in.close();} catch (Exception e1){}
+			try { out.close();} catch (Exception e1){}
+			bufferPool.release(buf);
+		}
+	}
+	
+	/**
+	 * Downloads {@code length} bytes of a remote file through the streaming 
+	 * api, timing the stream open, first byte, data transfer and close 
+	 * separately.
+	 * 
+	 * @param client an authenticated client
+	 * @param remotePath the remote file to read from
+	 * @param localFile the file to write to
+	 * @param length number of bytes to copy
+	 * @param phases the statistics to record the phase timings in
+	 * @throws IOException
+	 * @throws RemoteDataException
+	 */
+	protected void downloadStream(RemoteDataClient client, String remotePath, File localFile, long length, PhaseStatistics phases) 
+	throws IOException, RemoteDataException 
+	{
+		downloadStream(client, remotePath, localFile, length, phases, null);
+	}
+	
+	/**
+	 * Same as {@link #downloadStream(RemoteDataClient, String, File, long, PhaseStatistics)}
+	 * but also feeds every byte received into {@code checksum}. Uses 
+	 * {@link #downloadMapped(RemoteDataClient, String, File, long, PhaseStatistics, Checksum, LocalIoStatistics.Totals)}
+	 * or {@link #downloadChannel(RemoteDataClient, String, File, long, PhaseStatistics, Checksum)}
+	 * when the mapped or nio local path is selected.
+	 * 
+	 * @param checksum the checksum to update, or null
+	 */
+	protected void downloadStream(RemoteDataClient client, String remotePath, File localFile, long length, 
+			PhaseStatistics phases, Checksum checksum) 
+	throws IOException, RemoteDataException 
+	{
+		if (isMapped() && !isInMemory()) {
+			downloadMapped(client, remotePath, localFile, length, phases, checksum, mappedStatistics.getDownload());
+			return;
+		}
+		else if (isNio()) {
+			downloadChannel(client, remotePath, localFile, length, phases, checksum);
+			return;
+		}
+		
+		InputStream in = null;
+		OutputStream out = null;
+		byte[] buf = bufferPool.acquireArray(getBufferSize());
+		ThroughputMonitor monitor = null;
+		try {
+			long t0 = System.nanoTime();
+			in = countBytes(client.getInputStream(remotePath, false));
+			out = new FileOutputStream(localFile);
+			long t1 = System.nanoTime();
+			phases.recordDownload(Phase.OPEN, t1 - t0);
+			monitor = startThroughput(SampleListener.DOWNLOAD, in, length);
+			
+			long firstByte = copy(in, out, buf, length, checksum);
+			out.flush();
+			long t2 = System.nanoTime();
+			stopThroughput(monitor);
+			phases.recordDownload(Phase.FIRST_BYTE, firstByte - t1);
+			phases.recordDownload(Phase.BODY, t2 - firstByte);
+			
+			out.close();
+			out = null;
+			in.close();
+			in = null;
+			phases.recordDownload(Phase.CLOSE, System.nanoTime() - t2);
+		}
+		finally {
+			if (monitor != null) monitor.stop();
+			try { in.close();} catch (Exception e1){}
+			try { out.close();} catch (Exception e1){}
+			bufferPool.release(buf);
+		}
+	}
+	
+	/**
+	 * Copies exactly {@code length} bytes from one stream to the other.
+	 * 
+	 * @param in the stream to read from
+	 * @param out the stream to write to
+	 * @param buf the copy buffer
+	 * @param length number of bytes to copy
+	 * @return the {@link System#nanoTime()} at which the first read returned 
+	 * data, or the time the copy started if nothing was copied.
+	 * @throws IOException if the input ends before {@code length} bytes were read
+	 */
+	protected long copy(InputStream in, OutputStream out, byte[] buf, long length) 
+	throws IOException 
+	{
+		return copy(in, out, buf, length, null);
+	}
+	
+	/**
+	 * Same as {@link #copy(InputStream, OutputStream, byte[], long)} but 
+	 * also updates {@code checksum} with each chunk while it is still in 
+	 * the buffer, so verification needs no second pass over the data.
+	 * 
+	 * @param checksum the checksum to update, or null
+	 */
+	protected long copy(InputStream in, OutputStream out, byte[] buf, long length, Checksum checksum) 
+	throws IOException 
+	{
+		return Copier.copy(in, out, buf, length, checksum);
+	}
+	
+	/**
+	 * Wraps the adaptor stream of an upload so the bytes written can be 
+	 * sampled while the transfer runs. The stream is returned as is when 
+	 * throughput sampling is off.
+	 * 
+	 * @param out the adaptor output stream
+	 * @return the stream to copy to
+	 */
+	protected OutputStream countBytes(OutputStream out) {
+		return throughputInterval > 0 ? new CountingOutputStream(out) : out;
+	}
+	
+	/**
+	 * Wraps the adaptor stream of a download so the bytes read can be 
+	 * sampled while the transfer runs. The stream is returned as is when 
+	 * throughput sampling is off.
+	 * 
+	 * @param in the adaptor input stream
+	 * @return the stream to copy from
+	 */
+	protected InputStream countBytes(InputStream in) {
+		return throughputInterval > 0 ? new CountingInputStream(in) : in;
+	}
+	
+	/**
+	 * Starts sampling a stream returned by {@link #countBytes(OutputStream)}
+	 * or {@link #countBytes(InputStream)} every {@code --sampleInterval} 
+	 * milliseconds. Each interval is also written to the sample writer, if
+	 * one is open.
+	 * 
+	 * @param direction {@link SampleListener#UPLOAD} or {@link SampleListener#DOWNLOAD}
+	 * @param stream the stream of the transfer
+	 * @param length expected size of the transfer
+	 * @return the running monitor, or null if the stream is not counted
+	 */
+	protected ThroughputMonitor startThroughput(String direction, Object stream, long length) {
+		if (throughputInterval <= 0 || !(stream instanceof ByteCounter)) return null;
+		
+		int iteration = 1;
+		synchronized (throughputSeries) {
+			for (ThroughputSeries series: throughputSeries) {
+				if (series.getDirection().equals(direction)) iteration++;
+			}
+		}
+		return ThroughputMonitor.start((ByteCounter)stream, 
+				new ThroughputSeries(direction, iteration, ThroughputSeries.DEFAULT_CAPACITY), 
+				length, throughputInterval, getSampleWriter(), progress ? System.err : null);
+	}
+	
+	/**
+	 * Stops a monitor started by {@link #startThroughput(String, Object, long)}
+	 * and keeps its series for the report.
+	 * 
+	 * @param monitor the monitor to stop, or null
+	 */
+	protected void stopThroughput(ThroughputMonitor monitor) {
+		if (monitor != null) {
+			throughputSeries.add(monitor.stop());
+		}
+	}
+	
+	/**
+	 * Uploads {@code length} bytes of a local file through the streaming 
+	 * api, reading the file through a {@link FileChannel} into a pooled 
+	 * direct buffer. This skips the temporary native buffer 
+	 * {@link FileInputStream} allocates on every large read, leaving a 
+	 * single copy into the heap array handed to the adaptor stream.
+	 * 
+	 * @param client an authenticated client
+	 * @param localFile the file to read from
+	 * @param remotePath the remote file to write to
+	 * @param length number of bytes to copy
+	 * @param phases the statistics to record the phase timings in
+	 * @param checksum the checksum to update, or null
+	 * @throws IOException
+	 * @throws RemoteDataException
+	 */
+	protected void uploadChannel(RemoteDataClient client, File localFile, String remotePath, long length, 
+			PhaseStatistics phases, Checksum checksum) 
+	throws IOException, RemoteDataException 
+	{
+		FileChannel channel = null;
+		OutputStream out = null;
+		ByteBuffer buffer = bufferPool.acquireDirect(getBufferSize());
+		byte[] buf = bufferPool.acquireArray(getBufferSize());
+		ThroughputMonitor monitor = null;
+		try {
+			long t0 = System.nanoTime();
+			out = countBytes(client.getOutputStream(remotePath, true, false));
+			channel = new FileInputStream(localFile).getChannel();
+			long t1 = System.nanoTime();
+			phases.recordUpload(Phase.OPEN, t1 - t0);
+			monitor = startThroughput(SampleListener.UPLOAD, out, length);
+			
+			copyFromChannel(channel, out, buffer, buf, length, checksum);
+			out.flush();
+			long t2 = System.nanoTime();
+			stopThroughput(monitor);
+			phases.recordUpload(Phase.BODY, t2 - t1);
+			
+			out.close();
+			out = null;
+			channel.close();
+			channel = null;
+			phases.recordUpload(Phase.CLOSE, System.nanoTime() - t2);
+		}
+		finally {
+			if (monitor != null) monitor.stop();
+			try { channel.close();} catch (Exception e1){}
+			try { out.close();} catch (Exception e1){}
+			bufferPool.release(buffer);
+			bufferPool.release(buf);
+		}
+	}
+	
+	/**
+	 * Downloads {@code length} bytes of a remote file through the 
+	 * streaming api, collecting the reads in a pooled direct buffer and 
+	 * writing it to the local file through a {@link FileChannel} whenever 
+	 * it fills. This skips the temporary native buffer 
+	 * {@link FileOutputStream} allocates on every large write.
+	 * 
+	 * @param client an authenticated client
+	 * @param remotePath the remote file to read from
+	 * @param localFile the file to write to
+	 * @param length number of bytes to copy
+	 * @param phases the statistics to record the phase timings in
+	 * @param checksum the checksum to update, or null
+	 * @throws IOException
+	 * @throws RemoteDataException
+	 */
+	protected void downloadChannel(RemoteDataClient client, String remotePath, File localFile, long length, 
+			PhaseStatistics phases, Checksum checksum) 
+	throws IOException, RemoteDataException 
+	{
+		InputStream in = null;
+		FileChannel channel = null;
+		ByteBuffer buffer = bufferPool.acquireDirect(getBufferSize());
+		byte[] buf = bufferPool.acquireArray(getBufferSize());
+		ThroughputMonitor monitor = null;
+		try {
+			long t0 = System.nanoTime();
+			in = countBytes(client.getInputStream(remotePath, false));
+			channel = new FileOutputStream(localFile).getChannel();
+			long t1 = System.nanoTime();
+			phases.recordDownload(Phase.OPEN, t1 - t0);
+			monitor = startThroughput(SampleListener.DOWNLOAD, in, length);
+			
+			long firstByte = copyToChannel(in, channel, buffer, buf, length, checksum);
+			long t2 = System.nanoTime();
+			stopThroughput(monitor);
+			phases.recordDownload(Phase.FIRST_BYTE, firstByte - t1);
+			phases.recordDownload(Phase.BODY, t2 - firstByte);
+			
+			channel.close();
+			channel = null;
+			in.close();
+			in = null;
+			phases.recordDownload(Phase.CLOSE, System.nanoTime() - t2);
+		}
+		finally {
+			if (monitor != null) monitor.stop();
+			try { in.close();} catch (Exception e1){}
+			try { channel.close();} catch (Exception e1){}
+			bufferPool.release(buffer);
+			bufferPool.release(buf);
+		}
+	}
+	
+	/**
+	 * Uploads {@code length} bytes of a local file through the streaming 
+	 * api, copying straight out of read-only mappings of the file. The 
+	 * file is mapped {@link #MAP_WINDOW_SIZE} bytes at a time so files 
+	 * larger than 2GB work and the heap stays flat regardless of file 
+	 * size. Each window is released when it is garbage collected, not when
+	 * the transfer ends. The time spent on the mapping and on the adaptor stream is 
+	 * recorded separately in {@code totals}.
+	 * 
+	 * @param client an authenticated client
+	 * @param localFile the file to read from
+	 * @param remotePath the remote file to write to
+	 * @param length number of bytes to copy
+	 * @param phases the statistics to record the phase timings in
+	 * @param checksum the checksum to update, or null
+	 * @param totals receives the local and network time of the transfer
+	 * @throws IOException
+	 * @throws RemoteDataException
+	 */
+	protected void uploadMapped(RemoteDataClient client, File localFile, String remotePath, long length, 
+			PhaseStatistics phases, Checksum checksum, LocalIoStatistics.Totals totals) 
+	throws IOException, RemoteDataException 
+	{
+		RandomAccessFile file = null;
+		OutputStream out = null;
+		byte[] buf = bufferPool.acquireArray(getBufferSize());
+		ThroughputMonitor monitor = null;
+		try {
+			long t0 = System.nanoTime();
+			out = countBytes(client.getOutputStream(remotePath, true, false));
+			file = new RandomAccessFile(localFile, "r");
+			long t1 = System.nanoTime();
+			phases.recordUpload(Phase.OPEN, t1 - t0);
+			monitor = startThroughput(SampleListener.UPLOAD, out, length);
+			
+			FileChannel channel = file.getChannel();
+			for (long position = 0; position < length; position += MAP_WINDOW_SIZE) {
+				long m0 = System.nanoTime();
+				MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, 
+						position, Math.min(MAP_WINDOW_SIZE, length - position));
+				totals.addWindow(window.isLoaded());
+				long local = System.nanoTime() - m0;
+				long remote = 0;
+				
+				while (window.hasRemaining()) {
+					int bytesRead = Math.min(buf.length, window.remaining());
+					long c0 = System.nanoTime();
+					window.get(buf, 0, bytesRead);
+					long c1 = System.nanoTime();
+					out.write(buf, 0, bytesRead);
+					long c2 = System.nanoTime();
+					local += c1 - c0;
+					remote += c2 - c1;
+					if (checksum != null) {
+						checksum.update(buf, 0, bytesRead);
+					}
+				}
+				totals.addLocalTime(local);
+				totals.addRemoteTime(remote);
+				
+				// unreachable before the next map, which collects and retries when it runs out of address space
+				window = null;
+			}
+			out.flush();
+			long t2 = System.nanoTime();
+			stopThroughput(monitor);
+			phases.recordUpload(Phase.BODY, t2 - t1);
+			
+			out.close();
+			out = null;
+			file.close();
+			file = null;
+			phases.recordUpload(Phase.CLOSE, System.nanoTime() - t2);
+			totals.addTransfer(length);
+		}
+		finally {
+			if (monitor != null) monitor.stop();
+			try { file.close();} catch (Exception e1){}
+			try { out.close();} catch (Exception e1){}
+			bufferPool.release(buf);
+		}
+	}
+	
+	/**
+	 * Downloads {@code length} bytes of a remote file through the 
+	 * streaming api into read-write mappings of a local file that is sized
+	 * up front. The file is mapped {@link #MAP_WINDOW_SIZE} bytes at a 
+	 * time and the time spent on the mapping and on the adaptor stream is 
+	 * recorded separately in {@code totals}. Dirty pages are left for the
+	 * kernel to write back, as with the stream path, and each window is 
+	 * released when it is garbage collected.
+	 * 
+	 * @param client an authenticated client
+	 * @param remotePath the remote file to read from
+	 * @param localFile the file to write to
+	 * @param length number of bytes to copy
+	 * @param phases the statistics to record the phase timings in
+	 * @param checksum the checksum to update, or null
+	 * @param totals receives the local and network time of the transfer
+	 * @throws IOException
+	 * @throws RemoteDataException
+	 */
+	protected void downloadMapped(RemoteDataClient client, String remotePath, File localFile, long length, 
+			PhaseStatistics phases, Checksum checksum, LocalIoStatistics.Totals totals) 
+	throws IOException, RemoteDataException 
+	{
+		InputStream in = null;
+		RandomAccessFile file = null;
+		byte[] buf = bufferPool.acquireArray(getBufferSize());
+		ThroughputMonitor monitor = null;
+		try {
+			long t0 = System.nanoTime();
+			in = countBytes(client.getInputStream(remotePath, false));
+			file = new RandomAccessFile(localFile, "rw");
+			file.setLength(length);
+			long t1 = System.nanoTime();
+			phases.recordDownload(Phase.OPEN, t1 - t0);
+			monitor = startThroughput(SampleListener.DOWNLOAD, in, length);
+			
+			FileChannel channel = file.getChannel();
+			long firstByte = t1;
+			boolean first = true;
+			for (long position = 0; position < length; position += MAP_WINDOW_SIZE) {
+				long m0 = System.nanoTime();
+				MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_WRITE, 
+						position, Math.min(MAP_WINDOW_SIZE, length - position));
+				totals.addWindow(window.isLoaded());
+				long local = System.nanoTime() - m0;
+				long remote = 0;
+				
+				while (window.hasRemaining()) {
+					long c0 = System.nanoTime();
+					int bytesRead = in.read(buf, 0, Math.min(buf.length, window.remaining()));
+					long c1 = System.nanoTime();
+					if (bytesRead == -1) {
+						throw new IOException("Stream ended " + (length - position - window.position()) + 
+								" bytes before the expected " + length + " bytes were read.");
+					}
+					if (first) {
+						firstByte = c1;
+						first = false;
+					}
+					window.put(buf, 0, bytesRead);
+					local += System.nanoTime() - c1;
+					remote += c1 - c0;
+					if (checksum != null) {
+						checksum.update(buf, 0, bytesRead);
+					}
+				}
+				totals.addLocalTime(local);
+				totals.addRemoteTime(remote);
+				
+				// unreachable before the next map, which collects and retries when it runs out of address space
+				window = null;
+			}
+			long t2 = System.nanoTime();
+			stopThroughput(monitor);
+			phases.recordDownload(Phase.FIRST_BYTE, firstByte - t1);
+			phases.recordDownload(Phase.BODY, t2 - firstByte);
+			
+			file.close();
+			file = null;
+			in.close();
+			in = null;
+			phases.recordDownload(Phase.CLOSE, System.nanoTime() - t2);
+			totals.addTransfer(length);
+		}
+		finally {
+			if (monitor != null) monitor.stop();
+			try { in.close();} catch (Exception e1){}
+			try { file.close();} catch (Exception e1){}
+			bufferPool.release(buf);
+		}
+	}
+	
+	/**
+	 * Measures the heap bytes the harness allocates for one transfer on 
+	 * its own by running the local side of the transfer between local 
+	 * files only, through the same stream, nio or mapped path and pooled 
+	 * buffers the real transfers use. Uploads read the test file into 
+	 * /dev/null and downloads read /dev/zero into the download file.
+	 * 
+	 * @param testFile the local test file
+	 * @param length number of bytes to copy
+	 * @param allocations receives the harness measurements
+	 * @throws IOException
+	 */
+	protected void measureHarnessAllocation(File testFile, long length, AllocationStatistics allocations) 
+	throws IOException 
+	{
+		File source = isInMemory() ? new File("/dev/zero") : testFile;
+		File sink = isInMemory() ? new File("/dev/null") : getDownloadFile(testFile);
+		allocations.setHarnessUpload(measureLocalCopy(source, new File("/dev/null"), length, true));
+		allocations.setHarnessDownload(measureLocalCopy(new File("/dev/zero"), sink, length, false));
+	}
+	
+	/**
+	 * Copies {@code length} bytes between two local files and returns the
+	 * heap bytes allocated on this thread while doing it. The first pass 
+	 * loads classes and fills the buffer pool, so only the second counts.
+	 */
+	private long measureLocalCopy(File source, File sink, long length, boolean upload) 
+	throws IOException 
+	{
+		long allocated = 0;
+		for (int i=0; i<2; i++) {
+			long start = AllocationStatistics.currentThreadAllocatedBytes();
+			if (isMapped() && !isInMemory()) {
+				localCopyMapped(source, sink, length, upload);
+			}
+			else if (isNio()) {
+				localCopyChannel(source, sink, length, upload);
+			}
+			else {
+				localCopyStream(source, sink, length);
+			}
+			allocated = AllocationStatistics.allocatedSince(start);
+		}
+		return allocated;
+	}
+	
+	/**
+	 * The local side of {@link #uploadStream(RemoteDataClient, File, String, long, PhaseStatistics)}
+	 * and {@link #downloadStream(RemoteDataClient, String, File, long, PhaseStatistics)}.
+	 */
+	private void localCopyStream(File source, File sink, long length) 
+	throws IOException 
+	{
+		InputStream in = null;
+		OutputStream out = null;
+		byte[] buf = bufferPool.acquireArray(getBufferSize());
+		try {
+			in = new FileInputStream(source);
+			out = new FileOutputStream(sink);
+			copy(in, out, buf, length, null);
+		}
+		finally {
+			try { in.close();} catch (Exception e1){}
+			try { out.close();} catch (Exception e1){}
+			bufferPool.release(buf);
+		}
+	}
+	
+	/**
+	 * The local side of {@link #uploadChannel(RemoteDataClient, File, String, long, PhaseStatistics, Checksum)}
+	 * and {@link #downloadChannel(RemoteDataClient, String, File, long, PhaseStatistics, Checksum)}.
+	 */
+	private void localCopyChannel(File source, File sink, long length, boolean upload) 
+	throws IOException 
+	{
+		InputStream in = null;
+		OutputStream out = null;
+		FileChannel channel = null;
+		ByteBuffer buffer = bufferPool.acquireDirect(getBufferSize());
+		byte[] buf = bufferPool.acquireArray(getBufferSize());
+		try {
+			if (upload) {
+				channel = new FileInputStream(source).getChannel();
+				out = new FileOutputStream(sink);
+				copyFromChannel(channel, out, buffer, buf, length, null);
+			}
+			else {
+				in = new FileInputStream(source);
+				channel = new FileOutputStream(sink).getChannel();
+				copyToChannel(in, channel, buffer, buf, length, null);
+			}
+		}
+		finally {
+			try { in.close();} catch (Exception e1){}
+			try { out.close();} catch (Exception e1){}
+			try { channel.close();} catch (Exception e1){}
+			bufferPool.release(buffer);
+			bufferPool.release(buf);
+		}
+	}
+	
+	/**
+	 * The local side of {@link #uploadMapped(RemoteDataClient, File, String, long, PhaseStatistics, Checksum, LocalIoStatistics.Totals)}
+	 * and {@link #downloadMapped(RemoteDataClient, String, File, long, PhaseStatistics, Checksum, LocalIoStatistics.Totals)}.
+	 */
+	private void localCopyMapped(File source, File sink, long length, boolean upload) 
+	throws IOException 
+	{
+		InputStream in = null;
+		OutputStream out = null;
+		RandomAccessFile file = null;
+		byte[] buf = bufferPool.acquireArray(getBufferSize());
+		try {
+			if (upload) {
+				file = new RandomAccessFile(source, "r");
+				out = new FileOutputStream(sink);
+			}
+			else {
+				in = new FileInputStream(source);
+				file = new RandomAccessFile(sink, "rw");
+				file.setLength(length);
+			}
+			FileChannel channel = file.getChannel();
+			for (long position = 0; position < length; position += MAP_WINDOW_SIZE) {
+				MappedByteBuffer window = channel.map(upload ? FileChannel.MapMode.READ_ONLY : FileChannel.MapMode.READ_WRITE, 
+						position, Math.min(MAP_WINDOW_SIZE, length - position));
+				while (window.hasRemaining()) {
+					int count = Math.min(buf.length, window.remaining());
+					if (upload) {
+						window.get(buf, 0, count);
+						out.write(buf, 0, count);
+					}
+					else {
+						count = in.read(buf, 0, count);
+						if (count == -1) throw new IOException("Unexpected end of " + source.getAbsolutePath());
+						window.put(buf, 0, count);
+					}
+				}
+				window = null;
+			}
+		}
+		finally {
+			try { in.close();} catch (Exception e1){}
+			try { out.close();} catch (Exception e1){}
+			try { file.close();} catch (Exception e1){}
+			bufferPool.release(buf);
+		}
+	}
+	
+	/**
+	 * Generates a table with the distribution of heap bytes allocated per 
+	 * transfer on the transferring thread. The harness column is the 
+	 * allocation of the local copy loop alone, and the adaptor column is
+	 * what is left of the mean once that is taken out.
+	 * 
+	 * @param allocations the allocation samples of the run
+	 * @return the formatted table
+	 */
+	protected String formatAllocations(AllocationStatistics allocations) {
+		if (!AllocationStatistics.isSupported()) {
+			return "Per thread allocation is not supported by this JVM.\n";
+		}
+		StringBuilder sb = new StringBuilder();
+		sb.append(formatOutput(ALLOCATION_RESULT_TABLE_HEADER) + "\n");
+		if (allocations.getUploads().getTotalCount() > 0) {
+			sb.append(formatAllocation("upload", allocations.getUploads(), allocations.getHarnessUpload()) + "\n");
+		}
+		if (allocations.getDownloads().getTotalCount() > 0) {
+			sb.append(formatAllocation("download", allocations.getDownloads(), allocations.getHarnessDownload()) + "\n");
+		}
+		return sb.toString();
+	}
+	
+	private String formatAllocation(String direction, Histogram allocated, long harness) {
+		return formatOutput(new String[] {
+				direction,
+				String.valueOf(allocated.getTotalCount()),
+				String.format("%.0f", allocated.getMean()),
+				String.valueOf(allocated.getValueAtPercentile(50)),
+				String.valueOf(allocated.getValueAtPercentile(99)),
+				String.valueOf(allocated.getMax()),
+				harness < 0 ? "-" : String.valueOf(harness),
+				harness < 0 ? "-" : String.format("%.0f", Math.max(0, allocated.getMean() - harness))});
+	}
+	
+	/**
+	 * Generates a table summarizing the throughput series of every sampled
+	 * transfer, followed by each series itself, merged down to at most 
+	 * {@link #THROUGHPUT_SERIES_POINTS} values. The full resolution series
+	 * is written by {@code --format json} or {@code csv}.
+	 * 
+	 * @param series the sampled transfers, in the order they ran
+	 * @return the formatted table
+	 */
+	protected String formatThroughput(List<ThroughputSeries> series) {
+		StringBuilder sb = new StringBuilder();
+		StringBuilder rates = new StringBuilder();
+		sb.append(formatOutput(THROUGHPUT_RESULT_TABLE_HEADER) + "\n");
+		synchronized (series) {
+			for (ThroughputSeries s: series) {
+				double steadyAfter = s.getTimeToSteadyState();
+				sb.append(formatOutput(new String[] {
+						s.getDirection(),
+						String.valueOf(s.getIteration()),
+						String.valueOf(s.size()) + (s.isWrapped() ? " (last)" : ""),
+						steadyAfter < 0 ? "never" : String.format("%.1f", steadyAfter),
+						String.format("%.1f", s.getSteadyStateRate()),
+						String.format("%.1f", s.getPeakRate()),
+						String.valueOf(s.getStallCount()),
+						String.format("%.1f", s.getStalledTime())}) + "\n");
+				
+				double[] points = s.getRates(THROUGHPUT_SERIES_POINTS);
+				rates.append(s.getDirection() + " " + s.getIteration() + " (kB/s, " + 
+						(points.length == 0 ? 0 : formatMillis(s.getOffset(s.size() - 1) / points.length)) + "ms per value):");
+				for (double point: points) {
+					rates.append(String.format(" %.0f", point));
+				}
+				rates.append("\n");
+			}
+		}
+		return sb.toString() + "\n" + rates.toString();
+	}
+	
+	/**
+	 * Generates a table splitting the body of the memory mapped transfers
+	 * into local and network time. The resident column gives the fraction 
+	 * of windows that were already in the page cache when mapped. When the
+	 * local share passes one half, faulting pages in or out of the page 
+	 * cache is limiting throughput rather than the network.
+	 * 
+	 * @param statistics the mapped transfer totals of the run
+	 * @return the formatted table
+	 */
+	protected String formatMapped(LocalIoStatistics statistics) {
+		StringBuilder sb = new StringBuilder();
+		sb.append(formatOutput(MAPPED_RESULT_TABLE_HEADER) + "\n");
+		if (statistics.getUpload().getTransfers() > 0) {
+			sb.append(formatMapped("upload", statistics.getUpload()) + "\n");
+		}
+		if (statistics.getDownload().getTransfers() > 0) {
+			sb.append(formatMapped("download", statistics.getDownload()) + "\n");
+		}
+		return sb.toString();
+	}
+	
+	private String formatMapped(String direction, LocalIoStatistics.Totals totals) {
+		return formatOutput(new String[] {
+				direction,
+				String.valueOf(totals.getTransfers()),
+				String.valueOf(totals.getWindows()),
+				String.format("%.1f%%", totals.getWindows() == 0 ? 0 : totals.getResidentWindows() * 100d / totals.getWindows()),
+				formatMillis(totals.getLocalTime()),
+				formatMillis(totals.getRemoteTime()),
+				String.format("%.1f%%", totals.getLocalShare() * 100),
+				String.valueOf(calculateRate(totals.getBytes(), totals.getLocalTime())),
+				totals.getLocalShare() > 0.5 ? "page cache" : "network"});
+	}
+	
+	/**
+	 * Copies exactly {@code length} bytes from a channel to a stream, 
+	 * reading into the direct {@code buffer} and passing each chunk to the
+	 * stream through {@code buf}. See {@link Copier#copyFromChannel}.
+	 * 
+	 * @param in the channel to read from
+	 * @param out the stream to write to
+	 * @param buffer direct buffer to read into
+	 * @param buf heap array used to hand the data to the stream
+	 * @param length number of bytes to copy
+	 * @param checksum the checksum to update, or null
+	 * @throws IOException if the channel ends before {@code length} bytes were read
+	 */
+	protected void copyFromChannel(FileChannel in, OutputStream out, ByteBuffer buffer, byte[] buf, 
+			long length, Checksum checksum) 
+	throws IOException 
+	{
+		Copier.copyFromChannel(in, out, buffer, buf, length, checksum);
+	}
+	
+	/**
+	 * Copies exactly {@code length} bytes from a stream to a channel. 
+	 * Reads are collected in the direct {@code buffer} and written out 
+	 * each time it fills, so small reads from the adaptor do not turn 
+	 * into small writes. See {@link Copier#copyToChannel}.
+	 * 
+	 * @param in the stream to read from
+	 * @param out the channel to write to
+	 * @param buffer direct buffer to collect the data in
+	 * @param buf heap array the stream reads into
+	 * @param length number of bytes to copy
+	 * @param checksum the checksum to update, or null
+	 * @return the {@link System#nanoTime()} at which the first read returned 
+	 * data, or the time the copy started if nothing was copied.
+	 * @throws IOException if the stream ends before {@code length} bytes were read
+	 */
+	protected long copyToChannel(InputStream in, FileChannel out, ByteBuffer buffer, byte[] buf, 
+			long length, Checksum checksum) 
+	throws IOException 
+	{
+		return Copier.copyToChannel(in, out, buffer, buf, length, checksum);
+	}
+	
+	/**
+	 * Generates a table comparing the time spent checksumming with the 
+	 * time spent transferring in each direction. The checksum rate is how
+	 * fast the algorithm consumed data on this machine; when it is well 
+	 * above the transfer rate, verification is effectively free.
+	 * 
+	 * @param checksums the checksum totals of the run
+	 * @param statistics the transfer samples of the same run
+	 * @return the formatted table
+	 */
+	protected String formatChecksums(ChecksumStatistics checksums, TransferStatistics statistics) {
+		StringBuilder sb = new StringBuilder();
+		sb.append(formatOutput(CHECKSUM_RESULT_TABLE_HEADER) + "\n");
+		if (checksums.getUploads() > 0) {
+			sb.append(formatChecksum("upload", checksums, checksums.getUploads(), "-", "-",
+					checksums.getUploadElapsed(), checksums.getUploadBytes(), statistics.getUploadTimes()) + "\n");
+		}
+		if (checksums.getDownloads() > 0) {
+			sb.append(formatChecksum("download", checksums, checksums.getDownloads(), 
+					String.valueOf(checksums.getVerified()), String.valueOf(checksums.getMismatched()),
+					checksums.getDownloadElapsed(), checksums.getDownloadBytes(), statistics.getDownloadTimes()) + "\n");
+		}
+		return sb.toString();
+	}
+	
+	private String formatChecksum(String direction, ChecksumStatistics checksums, int transfers, String verified, 
+			String mismatched, long elapsed, long bytes, Histogram transferTimes) {
+		double transferTime = transferTimes.getMean() * transferTimes.getTotalCount();
+		return formatOutput(new String[] {
+				direction,
+				checksums.getAlgorithm(),
+				String.valueOf(transfers),
+				verified,
+				mismatched,
+				formatMillis(elapsed),
+				String.format("%.2f", calculateRate(bytes, elapsed)),
+				String.format("%.1f%%", transferTime > 0 ? elapsed * 100 / transferTime : 0)});
+	}
+	
+	/**
+	 * Generates a table with the time spent in each phase of the run. The 
+	 * share column gives each transfer phase's fraction of the total time 
+	 * spent transferring in that direction.
+	 * 
+	 * @param phases the recorded phase timings
+	 * @return the formatted table
+	 */
+	protected String formatPhases(PhaseStatistics phases) {
+		StringBuilder sb = new StringBuilder();
+		sb.append(formatOutput(PHASE_TABLE_HEADER) + "\n");
+		formatPhases(sb, "setup", phases.getSetup());
+		formatPhases(sb, "upload", phases.getUpload());
+		formatPhases(sb, "download", phases.getDownload());
+		if (!phases.getSetup().isEmpty()) {
+			sb.append("Setup: \"" + Phase.CLIENT_INIT.getLabel() + "\" only builds the client. The network connect, handshake and login all happen in \"" + 
+					Phase.AUTH.getLabel() + "\", as the adaptors do them in a single call.\n");
+		}
+		return sb.toString();
+	}
+	
+	private void formatPhases(StringBuilder sb, String direction, Map<Phase, Histogram> phases) {
+		double total = 0;
+		for (Histogram histogram: phases.values()) {
+			total += histogram.getMean() * histogram.getTotalCount();
+		}
+		
+		for (Map.Entry<Phase, Histogram> entry: phases.entrySet()) {
+			Histogram histogram = entry.getValue();
+			double share = total > 0 ? histogram.getMean() * histogram.getTotalCount() / total : 0;
+			sb.append(formatOutput(new String[] {
+					direction,
+					entry.getKey().getLabel(),
+					String.valueOf(histogram.getTotalCount()),
+					formatMillis(histogram.getMean()),
+					formatMillis(histogram.getValueAtPercentile(50)),
+					formatMillis(histogram.getValueAtPercentile(99)),
+					formatMillis(histogram.getMax()),
+					String.format("%.1f%%", share * 100)}) + "\n");
+		}
+	}
+	
+	/**
+	 * Splits the test file into {@code streams} byte ranges and moves them 
+	 * concurrently over independently authenticated clients. Each range is 
+	 * uploaded to its own remote part file and downloaded back into its 
+	 * offset of a local copy, so no remote seek support is required.
+	 * 
+	 * @param testFile the local test file
+	 * @param length number of bytes to transfer
+	 * @param remoteUploadDirectory remote directory to hold the part files
+	 * @param includeUploadTest 
+	 * @param includeDownloadTest
+	 * @param iterations number of times to repeat the transfer(s)
+	 * @param streams number of concurrent streams
+	 * @return table with the aggregate and per-stream results
+	 * @throws Exception
+	 */
+	protected String benchmarkParallelStreams(final File testFile, long length, final String remoteUploadDirectory, 
+			boolean includeUploadTest, boolean includeDownloadTest, int iterations, int streams)
+	throws Exception 
+	{
+		List<ByteRange> ranges = ByteRange.split(length, streams);
+		List<RemoteDataClient> clients = new ArrayList<RemoteDataClient>(streams);
+		ExecutorService executor = Executors.newFixedThreadPool(streams);
+		String remotePrefix = remoteUploadDirectory + "/" + testFile.getName();
+		File downloadFile = isInMemory() ? new File("/dev/null") : 
+			getDownloadFile(testFile);
 		
-		/**
-		 *  set the inMemory from the cli options
-		 */
-		setStreaming(streaming);
+		long[] uploadTimes = new long[streams];
+		long[] downloadTimes = new long[streams];
+		long uploadWallTime = 0, downloadWallTime = 0;
 		
-		/**
-		 *  set the inMemory from the cli options
-		 */
-		setInMemory(inMemory);
+		try {
+			clients.addAll(createAuthenticatedClients(streams));
+			
+			if (!isInMemory()) {
+				RandomAccessFile raf = new RandomAccessFile(downloadFile, "rw");
+				try { raf.setLength(length); } finally { raf.close(); }
+			}
+			
+			for (int z=0; z<iterations; z++) {
+				if (includeUploadTest) {
+					if (isVerbose()) System.out.println("Starting " + streams + " stream upload test...");
+					uploadWallTime += runParallelStreams(executor, clients, ranges, testFile, remotePrefix, true, uploadTimes);
+				}
+				
+				if (includeDownloadTest) {
+					if (isVerbose()) System.out.println("Starting " + streams + " stream download test...");
+					downloadWallTime += runParallelStreams(executor, clients, ranges, downloadFile, remotePrefix, false, downloadTimes);
+				}
+			}
+		}
+		finally {
+			executor.shutdownNow();
+			disconnectQuietly(clients);
+			if (!isInMemory()) FileUtils.deleteQuietly(downloadFile);
+		}
 		
-		/**
-		 *  set the debug from the cli options
-		 */
-		setDebug(debugOutput);
+		StringBuilder sb = new StringBuilder();
+		sb.append(formatOutput(STREAM_RESULT_TABLE_HEADER) + "\n");
+		sb.append(formatOutput(new String[] {
+				"all",
+				String.valueOf(length),
+				formatMillis(uploadWallTime / iterations),
+				String.valueOf(calculateRate(length * iterations, uploadWallTime)),
+				formatMillis(downloadWallTime / iterations),
+				String.valueOf(calculateRate(length * iterations, downloadWallTime))}) + "\n");
 		
-		/**
-		 *  load the auth context from disk
-		 */
-		authenticate();
+		for (ByteRange range: ranges) {
+			int i = range.getIndex();
+			sb.append(formatOutput(new String[] {
+					String.valueOf(i),
+					String.valueOf(range.getLength()),
+					formatMillis(uploadTimes[i] / iterations),
+					String.valueOf(calculateRate(range.getLength() * iterations, uploadTimes[i])),
+					formatMillis(downloadTimes[i] / iterations),
+					String.valueOf(calculateRate(range.getLength() * iterations, downloadTimes[i]))}) + "\n");
+		}
 		
-		/**
-		 *  Create test data to use
-		 */
-		File testFile = maybeGenerateTestData(testFilename, fileSize);
+		return sb.toString();
+	}
+	
+	/**
+	 * Runs a sweep of simultaneous clients against the system. At each 
+	 * concurrency level every client uploads and downloads its own copy of 
+	 * the full test file. Downloaded data is discarded locally so the local 
+	 * disk does not become the bottleneck. The level after which adding 
+	 * clients stops improving aggregate throughput is marked as the knee.
+	 * 
+	 * @param testFile the local test file
+	 * @param length number of bytes each client transfers
+	 * @param remoteUploadDirectory remote directory to hold the client files
+	 * @param includeUploadTest
+	 * @param includeDownloadTest
+	 * @param iterations number of times to repeat the transfer(s) at each level
+	 * @param levels the concurrency levels to sweep
+	 * @return table of aggregate throughput and per-client latency by concurrency
+	 * @throws Exception
+	 */
+	protected String benchmarkConcurrency(final File testFile, long length, final String remoteUploadDirectory, 
+			boolean includeUploadTest, boolean includeDownloadTest, int iterations, int[] levels)
+	throws Exception 
+	{
+		int maxLevel = 0;
+		for (int level: levels) maxLevel = Math.max(maxLevel, level);
 		
-		long t1=0,t2=0,t3=0,t4=0;
-		long length = testFile.length();
+		ExecutorService executor = Executors.newFixedThreadPool(maxLevel);
+		File sink = new File("/dev/null");
+		String remotePrefix = remoteUploadDirectory + "/" + testFile.getName();
 		
-		/**
-		 *  Run the tests
-		 */
-		StringBuilder sb = new StringBuilder();
-		sb.append(formatOutput(RESULT_TABLE_HEADER) + "\n");
-		String remoteUploadDirectory = username + "/speedtest-" + UUID.randomUUID().toString();
+		float[] uploadRates = new float[levels.length];
+		long[] uploadLatencies = new long[levels.length];
+		float[] downloadRates = new float[levels.length];
+		long[] downloadLatencies = new long[levels.length];
 		
 		try {
-			
-			if (isVerbose()) System.out.println("Authenticating to " + getSystem().getStorageConfig().getDefaultAuthConfig().getUsername() + 
-					"@" + getSystem().getStorageConfig().getHost() + ":" +  getSystem().getStorageConfig().getPort() + 
-					getClient().resolvePath(remoteUploadDirectory) );
-			
-			if (isVerbose()) System.out.println("Test file size: " + testFile.length());
-			
-			getClient().authenticate();
-			
-			getClient().mkdirs(remoteUploadDirectory);
-			
-			for (int z=0; z<iterations; z++) {
-				if (includeUploadTest) {
-					if (isVerbose()) System.out.println("Starting upload test...");
-					if (isVerbose()) System.out.println("\tTransfer: file:///" + testFile.getAbsoluteFile() + " => agave://" + getSystem().getSystemId() + "/" + testFile.getName());
-					t1 = System.currentTimeMillis();
-					
-					if (isInMemory()) {
-						
-						InputStream in = null;
-						OutputStream out = null;
-						try {
-							out = getClient().getOutputStream("/dev/null", true, false);
-							in = new FileInputStream("/dev/zero");
-							byte[] buf = new byte[bufferSize];
-						    int bytesRead = 0;
-						    for (int i=0;i<Math.ceil(length / bufferSize); i++) {
-						    	bytesRead = in.read(buf);
-						    	out.write(buf, 0, bytesRead);
-						    }
-						    out.flush();
-						}
-						catch (Exception e) {
-							try { in.close();} catch (Exception e1){}
-							try { out.close();} catch (Exception e1){}
-						}
-					}
-					else if (isStreaming()) {
-						InputStream in = null;
-						OutputStream out = null;
-						try {
-							out = getClient().getOutputStream(remoteUploadDirectory + "/" + testFile.getName(), true, false);
-							in = new FileInputStream(testFile);
-							byte[] buf = new byte[bufferSize];
-						    int bytesRead = in.read(buf);
-						    while (bytesRead != -1) {
-								out.write(buf, 0, bytesRead);
-						      bytesRead = in.read(buf);
-						    }
-						    out.flush();
-						}
-						catch (Exception e) {
-							try { in.close();} catch (Exception e1){}
-							try { out.close();} catch (Exception e1){}
-						}
-					}
-					else {
-						getClient().put(testFile.getAbsolutePath(), remoteUploadDirectory);
-	//					client.put(testFile.getAbsolutePath(), remoteUploadDirectory, new RemoteTransferListener(null) {
-	//						protected synchronized void setTransferTask(TransferTask transferTask){}
-	//					});
-					}
-					
-					t2 = System.currentTimeMillis();
-					long duration = ((t2 - t1)/1000);
-					if (isVerbose()) System.out.println("\tPerf: " + ((t2 - t1)) + "ms " + TransferTask.formatMaxMemory(testFile.length() / duration) + "/s ");
-					
+			for (int l=0; l<levels.length; l++) {
+				int level = levels[l];
+				
+				// every client moves the whole file, so each gets the full range
+				List<ByteRange> ranges = new ArrayList<ByteRange>(level);
+				for (int i=0; i<level; i++) {
+					ranges.add(new ByteRange(i, 0, length));
 				}
 				
-				if (includeDownloadTest) {
-					if (isVerbose()) System.out.println("Starting download test...");
-					if (isVerbose()) System.out.println("\tTransfer: agave://" + getSystem().getSystemId() + "/" + testFile.getName() + " => file:///" + testFile.getAbsoluteFile());
-					t3 = System.currentTimeMillis();
-					
-					if (isInMemory()) {
-						
-						InputStream in = null;
-						OutputStream out = null;
-						BufferedOutputStream bout = null;
-						try {
-							in = getClient().getInputStream("/dev/zero", false);
-							out = new FileOutputStream("/dev/null");
-							bout = new BufferedOutputStream(out, 2 * 32 * getBufferSize());
-							byte[] buf = new byte[getBufferSize()];
-						    int bytesRead = 0;
-						    for (int i=0;i<Math.ceil(length / getBufferSize()); i++) {
-						    	bytesRead = in.read(buf);
-						    	bout.write(buf, 0, bytesRead);
-						    }
-						    out.flush();
-						}
-						catch (Exception e) {
-							try { in.close();} catch (Exception e1){}
-							try { out.close();} catch (Exception e1){}
-							try { bout.close();} catch (Exception e1){}
-						}
-					}
-					else if (isStreaming()) {
-						InputStream in = null;
-						OutputStream out = null;
-						BufferedOutputStream bout = null;
-						try {
-							in = getClient().getInputStream(remoteUploadDirectory + "/" + testFile.getName(), false);
-							out = new FileOutputStream(testFile);
-							bout = new BufferedOutputStream(out, 2 * 32 * getBufferSize());
-							byte[] buf = new byte[getBufferSize()];
-						    int bytesRead = in.read(buf);
-						    
-						    while (bytesRead != -1) {
-						    	bout.write(buf, 0, bytesRead);
-						    	bytesRead = in.read(buf);
-						    }
-						    bout.flush();								
+				long[] uploadTimes = new long[level];
+				long[] downloadTimes = new long[level];
+				long uploadWallTime = 0, downloadWallTime = 0;
+				
+				List<RemoteDataClient> clients = createAuthenticatedClients(level);
+				try {
+					for (int z=0; z<iterations; z++) {
+						if (includeUploadTest) {
+							if (isVerbose()) System.out.println("Starting upload test with " + level + " concurrent clients...");
+							uploadWallTime += runParallelStreams(executor, clients, ranges, testFile, remotePrefix, true, uploadTimes);
 						}
-						catch (Exception e) {
-							try { in.close();} catch (Exception e1){}
-							try { out.close();} catch (Exception e1){}
-							try { bout.close();} catch (Exception e1){}
+						
+						if (includeDownloadTest) {
+							if (isVerbose()) System.out.println("Starting download test with " + level + " concurrent clients...");
+							downloadWallTime += runParallelStreams(executor, clients, ranges, sink, remotePrefix, false, downloadTimes);
 						}
 					}
-					else {
-						getClient().get(remoteUploadDirectory + "/" + testFile.getName(), testFile.getAbsolutePath());
-					}
-					
-//					client.get(remoteUploadDirectory + "/" + testFile.getName(), testFile.getAbsolutePath(), new RemoteTransferListener(null) {
-//						protected synchronized void setTransferTask(TransferTask transferTask){}
-//					});
-					
-					t4 = System.currentTimeMillis();
-					long duration = ((t4 - t3)/1000);
-					if (isVerbose()) System.out.println("\tPerf: " + ((t4 - t3)) + "ms " + TransferTask.formatMaxMemory(testFile.length() / duration) + "/s");
-					
-//					client.delete(remoteUploadDirectory + "/" + testFile.getName());
 				}
+				finally {
+					disconnectQuietly(clients);
+				}
+				
+				long totalBytes = length * level * iterations;
+				uploadRates[l] = calculateRate(totalBytes, uploadWallTime);
+				uploadLatencies[l] = sum(uploadTimes) / (level * iterations);
+				downloadRates[l] = calculateRate(totalBytes, downloadWallTime);
+				downloadLatencies[l] = sum(downloadTimes) / (level * iterations);
 			}
-			
-			sb.append(calculateTime(t2, t1, t4, t3, length) + "\n");
-			
-		} catch (IOException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		} catch (RemoteDataException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
 		}
 		finally {
-			try {getClient().delete(remoteUploadDirectory); } catch (Exception e) {}
-			try {getClient().disconnect();} catch (Exception e) {}
+			executor.shutdownNow();
+		}
+		
+		int uploadKnee = includeUploadTest ? findKnee(uploadRates) : -1;
+		int downloadKnee = includeDownloadTest ? findKnee(downloadRates) : -1;
+		
+		StringBuilder sb = new StringBuilder();
+		sb.append(formatOutput(CONCURRENCY_RESULT_TABLE_HEADER) + "\n");
+		for (int l=0; l<levels.length; l++) {
+			String knee = "";
+			if (l == uploadKnee) knee += "<- upload ";
+			if (l == downloadKnee) knee += "<- download";
 			
-			if (StringUtils.isEmpty(testFilename) && !isInMemory()) {
-				if (isVerbose()) System.out.println("Cleaning up local directory");
-				FileUtils.deleteQuietly(testFile);
-			}
+			sb.append(formatOutput(new String[] {
+					String.valueOf(levels[l]),
+					String.valueOf(uploadRates[l]),
+					formatMillis(uploadLatencies[l]),
+					String.valueOf(downloadRates[l]),
+					formatMillis(downloadLatencies[l]),
+					knee.trim()}) + "\n");
 		}
 		
 		return sb.toString();
 	}
 	
+	/**
+	 * Parses a comma separated list of distinct, positive concurrency levels.
+	 * 
+	 * @param concurrency the user supplied list, ie. 1,2,4,8
+	 * @return the levels in the order given
+	 * @throws NumberFormatException if the list is empty or any value is 
+	 * missing, not a positive integer or repeated
+	 */
+	protected int[] parseConcurrencyLevels(String concurrency) 
+	throws NumberFormatException 
+	{
+		String[] tokens = StringUtils.commaDelimitedListToStringArray(concurrency.replaceAll(" ", ""));
+		if (tokens.length == 0) {
+			throw new NumberFormatException("At least one concurrency level is needed.");
+		}
+		int[] levels = new int[tokens.length];
+		Set<Integer> seen = new HashSet<Integer>();
+		for (int i=0; i<tokens.length; i++) {
+			if (tokens[i].isEmpty()) {
+				throw new NumberFormatException("Empty concurrency level in " + concurrency);
+			}
+			levels[i] = Integer.parseInt(tokens[i]);
+			if (levels[i] < 1) {
+				throw new NumberFormatException("Concurrency levels must be positive integers.");
+			}
+			else if (!seen.add(levels[i])) {
+				throw new NumberFormatException("Concurrency level " + levels[i] + " is given more than once.");
+			}
+		}
+		return levels;
+	}
+	
+	/**
+	 * Creates {@code count} new clients and authenticates each of them. 
+	 * Clients are created up front on the calling thread so the handshakes 
+	 * are not part of the measured transfer time.
+	 * 
+	 * @param count number of clients to create
+	 * @return the authenticated clients
+	 * @throws IOException
+	 * @throws RemoteDataException
+	 */
+	private List<RemoteDataClient> createAuthenticatedClients(int count) 
+	throws IOException, RemoteDataException 
+	{
+		List<RemoteDataClient> clients = new ArrayList<RemoteDataClient>(count);
+		try {
+			for (int i=0; i<count; i++) {
+				RemoteDataClient client = newClient();
+				clients.add(client);
+				client.authenticate();
+			}
+		}
+		catch (IOException | RemoteDataException e) {
+			disconnectQuietly(clients);
+			throw e;
+		}
+		return clients;
+	}
+	
+	private void disconnectQuietly(List<RemoteDataClient> clients) {
+		for (RemoteDataClient client: clients) {
+			try { client.disconnect(); } catch (Exception e) {}
+		}
+	}
+	
+	private long sum(long[] values) {
+		long total = 0;
+		for (long value: values) total += value;
+		return total;
+	}
+	
+	/**
+	 * Transfers every range concurrently, one range per client, and waits 
+	 * for all of them to complete. The elapsed time of each stream is added 
+	 * to {@code streamTimes}.
+	 * 
+	 * @return the wall clock time from the first stream starting to the last one finishing.
+	 * @throws Exception if any of the streams failed
+	 */
+	private long runParallelStreams(ExecutorService executor, List<RemoteDataClient> clients, List<ByteRange> ranges, 
+			final File localFile, final String remotePrefix, final boolean upload, long[] streamTimes)
+	throws Exception 
+	{
+		List<Future<Long>> futures = new ArrayList<Future<Long>>(ranges.size());
+		
+		long start = System.nanoTime();
+		for (final ByteRange range: ranges) {
+			final RemoteDataClient client = clients.get(range.getIndex());
+			final String remotePath = isInMemory() ? (upload ? "/dev/null" : "/dev/zero") : 
+				remotePrefix + ".part" + range.getIndex();
+			
+			futures.add(executor.submit(new Callable<Long>() {
+				@Override
+				public Long call() throws Exception {
+					long t1 = System.nanoTime();
+					if (upload) {
+						uploadRange(client, localFile, range, remotePath);
+					} else {
+						downloadRange(client, remotePath, localFile, range);
+					}
+					return System.nanoTime() - t1;
+				}
+			}));
+		}
+		
+		for (int i=0; i<futures.size(); i++) {
+			try {
+				streamTimes[i] += futures.get(i).get();
+			} 
+			catch (ExecutionException e) {
+				throw new RemoteDataException("Stream " + i + " failed", e.getCause());
+			}
+		}
+		
+		return System.nanoTime() - start;
+	}
+	
+	/**
+	 * Writes the given range of the local file to a remote file.
+	 */
+	private void uploadRange(RemoteDataClient client, File localFile, ByteRange range, String remotePath) 
+	throws IOException, RemoteDataException 
+	{
+		RandomAccessFile in = null;
+		OutputStream out = null;
+		byte[] buf = bufferPool.acquireArray(getBufferSize());
+		try {
+			in = new RandomAccessFile(localFile, "r");
+			in.seek(range.getOffset());
+			out = client.getOutputStream(remotePath, true, false);
+			long remaining = range.getLength();
+			while (remaining > 0) {
+				int bytesRead = in.read(buf, 0, (int)Math.min(buf.length, remaining));
+				if (bytesRead == -1) {
+					throw new IOException("Unexpected end of file reading range " + range.getIndex() + " of " + localFile.getAbsolutePath());
+				}
+				out.write(buf, 0, bytesRead);
+				remaining -= bytesRead;
+			}
+			out.flush();
+		}
+		finally {
+			try { in.close();} catch (Exception e1){}
+			try { out.close();} catch (Exception e1){}
+			bufferPool.release(buf);
+		}
+	}
+	
+	/**
+	 * Reads a remote file into the given range of the local file.
+	 */
+	private void downloadRange(RemoteDataClient client, String remotePath, File localFile, ByteRange range) 
+	throws IOException, RemoteDataException 
+	{
+		InputStream in = null;
+		RandomAccessFile out = null;
+		byte[] buf = bufferPool.acquireArray(getBufferSize());
+		try {
+			in = client.getInputStream(remotePath, false);
+			out = new RandomAccessFile(localFile, "rw");
+			out.seek(range.getOffset());
+			long remaining = range.getLength();
+			while (remaining > 0) {
+				int bytesRead = in.read(buf, 0, (int)Math.min(buf.length, remaining));
+				if (bytesRead == -1) {
+					throw new IOException("Stream " + range.getIndex() + " ended " + remaining + " bytes short of " + remotePath);
+				}
+				out.write(buf, 0, bytesRead);
+				remaining -= bytesRead;
+			}
+		}
+		finally {
+			try { in.close();} catch (Exception e1){}
+			try { out.close();} catch (Exception e1){}
+			bufferPool.release(buf);
+		}
+	}
+	
 //	private String getSystemSalt() {
 //		return getSystem().getSystemId() + 
 //				getSystem().getStorageConfig().getHost() + 
@@ -302,6 +3168,40 @@ public class AgaveSystemsSpeedtestCommand<T extends RemoteDataClient> extends Sp
 	@Override
 	protected void authenticate() throws AuthenticationException {
 		
+		authenticateUser();
+		
+		try {
+			// get a handle on the specified system or the default system for the tenant.
+			if (!StringUtils.isEmpty(getSystemId())) {
+				setSystem(systemDao.findBySystemId(getSystemId()));
+				if (getSystem() == null) {
+					throw new SystemUnknownException("No system found for id " + getSystemId());
+				}
+			}
+			else {
+				setSystem(new SystemManager().getUserDefaultStorageSystem(username, RemoteSystemType.STORAGE));
+				if (getSystem() == null) {
+					throw new SystemUnknownException("No default system found for user. Please specify a system");
+				}
+			}
+		} 
+		catch (SystemUnknownException e) {
+			throw new AuthenticationException(e);
+		}
+		catch (Exception e) {
+			throw new AuthenticationException("Unable to authenticate to " + getSystemId(), e);
+		}
+	}
+	
+	/**
+	 * Reads the username and tenant from the agave cache file on disk and 
+	 * sets the tenancy of the current thread. Threads started afterwards 
+	 * must call {@link #setTenancy()} before using the service adaptors.
+	 * 
+	 * @throws AuthenticationException if the cache file is missing or invalid
+	 */
+	protected void authenticateUser() throws AuthenticationException {
+		
 		try {
 	//		Logger logger = Logger.getLogger("org.iplantc.service.transfer.RemoteTransferListener");
 	//		logger.setLevel(Level.DEBUG);
@@ -336,8 +3236,8 @@ public class AgaveSystemsSpeedtestCommand<T extends RemoteDataClient> extends Sp
 					throw new TenantException("No tenant id found in agave config file at " + agaveCacheFile.getAbsolutePath());
 				}
 				else if (new TenantDao().exists(tenantCode)) {
-					TenancyHelper.setCurrentTenantId(tenantCode);
-					TenancyHelper.setCurrentEndUser(username);
+					tenantId = tenantCode;
+					setTenancy();
 				}
 				else {
 					throw new TenantException("No tenant found matching " + tenantCode);
@@ -349,31 +3249,26 @@ public class AgaveSystemsSpeedtestCommand<T extends RemoteDataClient> extends Sp
 			catch (Exception e) {
 				throw new TenantException("Unable to verify tenant id.", e);
 			}
-			
-			// get a handle on the specified system or the default system for the tenant.
-			if (!StringUtils.isEmpty(getSystemId())) {
-				setSystem(systemDao.findBySystemId(getSystemId()));
-				if (getSystem() == null) {
-					throw new SystemUnknownException("No system found for id " + getSystemId());
-				}
-			}
-			else {
-				setSystem(new SystemManager().getUserDefaultStorageSystem(username, RemoteSystemType.STORAGE));
-				if (getSystem() == null) {
-					throw new SystemUnknownException("No default system found for user. Please specify a system");
-				}
-			}
 		} 
 		catch (AuthenticationException e) {
 			throw e;
 		}
-		catch (SystemUnknownException | TenantException e) {
+		catch (TenantException e) {
 			throw new AuthenticationException(e);
 		}
 		catch (Exception e) {
-			throw new AuthenticationException("Unable to authenticate to " + getSystemId(), e);
+			throw new AuthenticationException("Unable to read the agave config", e);
 		}
 	}
+	
+	/**
+	 * Applies the tenancy read by {@link #authenticateUser()} to the 
+	 * current thread.
+	 */
+	protected void setTenancy() {
+		TenancyHelper.setCurrentTenantId(tenantId);
+		TenancyHelper.setCurrentEndUser(username);
+	}
 
 	/**
 	 * @return the systemId
@@ -400,11 +3295,61 @@ public class AgaveSystemsSpeedtestCommand<T extends RemoteDataClient> extends Sp
 	 * @param system the system to set
 	 */
 	public void setSystem(RemoteSystem system) {
+		releaseClient();
 		this.system = system;
 	}
 
+	/**
+	 * @return true if streaming transfers use the nio local path
+	 */
+	public boolean isNio() {
+		return nio;
+	}
+
+	/**
+	 * @param nio whether streaming transfers use the nio local path
+	 */
+	public void setNio(boolean nio) {
+		this.nio = nio;
+	}
+
+	/**
+	 * @return true if streaming transfers memory map the local file
+	 */
+	public boolean isMapped() {
+		return mapped;
+	}
+
+	/**
+	 * @param mapped whether streaming transfers memory map the local file
+	 */
+	public void setMapped(boolean mapped) {
+		this.mapped = mapped;
+	}
+
+	/**
+	 * Returns the client cached for the current run, creating it on first 
+	 * use. The same instance is returned until {@link #releaseClient()} is 
+	 * called or the system changes, so every call within a run shares one 
+	 * session. Callers are responsible for authenticating it once.
+	 */
 	@Override
 	protected RemoteDataClient getClient() throws RemoteDataException {
+		if (cachedClient == null) {
+			cachedClient = newClient();
+		}
+		return cachedClient;
+	}
+	
+	/**
+	 * Creates a new, unauthenticated client for the current system that 
+	 * is independent of the cached client. The caller owns the client and 
+	 * must disconnect it.
+	 * 
+	 * @return a new client
+	 * @throws RemoteDataException
+	 */
+	protected RemoteDataClient newClient() throws RemoteDataException {
 		try {
 			if (getSystem() != null) {
 				return getSystem().getRemoteDataClient();
@@ -420,4 +3365,15 @@ public class AgaveSystemsSpeedtestCommand<T extends RemoteDataClient> extends Sp
 			throw new RemoteDataException(e);
 		}
 	}
-}
+	
+	/**
+	 * Disconnects and discards the cached client. The next call to 
+	 * {@link #getClient()} will open a new one.
+	 */
+	protected void releaseClient() {
+		if (cachedClient != null) {
+			try { cachedClient.disconnect(); } catch (Exception e) {}
+			cachedClient = null;
+		}
+	}
+}
\ No newline at end of file
@@ -2,17 +2,29 @@ package org.agaveapi.ops.speedtest.cli.commands;
 
 import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.math.BigDecimal;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
 import java.util.UUID;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import org.agaveapi.ops.speedtest.cli.io.ByteRange;
+import org.agaveapi.ops.speedtest.cli.io.HistoryRecord;
+import org.agaveapi.ops.speedtest.cli.io.SftpSession;
+import org.agaveapi.ops.speedtest.cli.stats.TransferStatistics;
 import org.apache.commons.exec.CommandLine;
 import org.apache.commons.exec.DefaultExecuteResultHandler;
 import org.apache.commons.exec.DefaultExecutor;
@@ -53,9 +65,24 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.io.Files;
 
 @Component
-public class NativeSystemsSpeedtestCommand<RemoteDataClient> extends SpeedtestCommand implements CommandMarker {
+public class NativeSystemsSpeedtestCommand<T extends RemoteDataClient> extends SpeedtestCommand implements CommandMarker {
 	
 	public final static String[] RESULT_TABLE_HEADER = new String[]{"File Size", "Upload time(ms)", "Upload Rate","Download time(ms)","Download Rate"};
+	public final static String[] SFTP_SWEEP_TABLE_HEADER = new String[]{"Processes", "Split", "Buffer(-B)", "Requests(-R)", "Upload Rate(kB/s)", "Download Rate(kB/s)", "Combined Rate(kB/s)", ""};
+	public final static String SPLIT_BYTES = "bytes";
+	public final static String SPLIT_FILES = "files";
+	public final static String[] MULTIPLEX_TABLE_HEADER = new String[]{"Buffer(-B)", "Requests(-R)", "Direction", "Fresh(ms)", "Multiplexed(ms)", "Saved(ms)", "Saved"};
+	public final static String[] TOOL_RESULT_TABLE_HEADER = new String[]{"Tool", "Upload time(ms)", "Upload Rate(kB/s)", "Download time(ms)", "Download Rate(kB/s)", "Upload vs Pipe", "Download vs Pipe"};
+	public final static String TOOL_SFTP = "sftp";
+	public final static String TOOL_SCP = "scp";
+	public final static String TOOL_RSYNC = "rsync";
+	public final static String TOOL_SSH_PIPE = "ssh-pipe";
+	public final static String[] TOOLS = new String[]{TOOL_SFTP, TOOL_SCP, TOOL_RSYNC, TOOL_SSH_PIPE};
+	
+	/**
+	 * Longest a single round of sftp processes may run before it is killed.
+	 */
+	public final static long PROCESS_TIMEOUT = 10 * 60 * 1000;
 	
 	private SystemDao systemDao = new SystemDao();
 	private RemoteSystem system = null;
@@ -64,14 +91,15 @@ public class NativeSystemsSpeedtestCommand<RemoteDataClient> extends SpeedtestCo
 	private String username = null;
 	
 	private boolean verbose = false;
+	private File controlSocket = null;
+	private File sessionDirectory = null;
 	
-	@CliAvailabilityIndicator({"native"})
+	@CliAvailabilityIndicator({"native", "native tools"})
 	public boolean isSimpleAvailable() {
 		//always available
 		return true;
 	}
 	
-	@SuppressWarnings({ "unchecked", "rawtypes" })
 	@CliCommand(value = "native", help = "Test upload and download speed to registered systems through the native system utilities")
 	public String nativeSpeedtest(
 		@CliOption(key = { "system" }, mandatory = false, help = "System id on which to perform the test", unspecifiedDefaultValue="data.agaveapi.co") final String systemId,
@@ -80,13 +108,38 @@ public class NativeSystemsSpeedtestCommand<RemoteDataClient> extends SpeedtestCo
 		@CliOption(key = { "download" }, mandatory = false, help = "Include download test if present.", unspecifiedDefaultValue="true") final String includeDownloadTest,
 		@CliOption(key = { "size" }, mandatory = false, help = "Number of 4k blocks to transfer.", unspecifiedDefaultValue="2MB") final String fileSize,
 		@CliOption(key = { "iter" }, mandatory = false, help = "Number of times to repeat the transfer(s).", unspecifiedDefaultValue="1") final int iterations,
-		@CliOption(key = { "verbose" }, mandatory = false, help = "Verbose output.", unspecifiedDefaultValue="true") final boolean verbose) 
+		@CliOption(key = { "verbose" }, mandatory = false, help = "Verbose output.", unspecifiedDefaultValue="true") final boolean verbose,
+		@CliOption(key = { "processes" }, mandatory = false, help = "Number of sftp processes to run in parallel.", unspecifiedDefaultValue="1") final int processes,
+		@CliOption(key = { "split" }, mandatory = false, help = "How parallel processes share the work. bytes gives each process one contiguous part of the test file, files gives each process a whole copy of it.", unspecifiedDefaultValue=SPLIT_BYTES) final String split,
+		@CliOption(key = { "sftpBuffer" }, mandatory = false, help = "Comma separated list of human readable sftp -B buffer sizes to sweep, ie. 32KB,128KB,256KB. Defaults to the sftp default.") final String sftpBuffers,
+		@CliOption(key = { "requests" }, mandatory = false, help = "Comma separated list of sftp -R outstanding request counts to sweep, ie. 64,128,256. Defaults to the sftp default.") final String requests,
+		@CliOption(key = { "multiplex" }, mandatory = false, help = "Open one OpenSSH ControlMaster connection per run and send every transfer over it. Each transfer is also repeated over a fresh connection to compare the per-transfer cost of both.", unspecifiedDefaultValue="false", specifiedDefaultValue="true") final boolean multiplex,
+		@CliOption(key = { "session" }, mandatory = false, help = "Keep one interactive sftp process open for each sweep setting and time every put and get inside it, so iterations measure only the data movement.", unspecifiedDefaultValue="false", specifiedDefaultValue="true") final boolean session) 
 	throws Exception {	
 		
 		this.verbose = verbose;
 		
 		setSystemId(systemId);
 		
+		/**
+		 *  check the sweep settings before doing any work
+		 */
+		if (processes < 1) {
+			throw new IllegalArgumentException("The number of processes must be at least 1.");
+		}
+		else if (!SPLIT_BYTES.equalsIgnoreCase(split) && !SPLIT_FILES.equalsIgnoreCase(split)) {
+			throw new IllegalArgumentException("Unknown split " + split + ". Valid values are " + SPLIT_BYTES + " and " + SPLIT_FILES + ".");
+		}
+		else if (session && processes > 1) {
+			throw new IllegalArgumentException("A persistent session runs a single sftp process.");
+		}
+		else if (session && multiplex) {
+			throw new IllegalArgumentException("A persistent session already pays a single handshake per setting. Use either session or multiplex.");
+		}
+		boolean splitBytes = SPLIT_BYTES.equalsIgnoreCase(split);
+		int[] bufferSizes = parseSftpSettings(sftpBuffers, true);
+		int[] requestCounts = parseSftpSettings(requests, false);
+		
 		/**
 		 *  load the auth context from disk
 		 */
@@ -96,20 +149,14 @@ public class NativeSystemsSpeedtestCommand<RemoteDataClient> extends SpeedtestCo
 		 *  Create test data to use
 		 */
 		File testFile = maybeGenerateTestData(testFilename, fileSize);
-		
-		long t1=0,t2=0,t3=0,t4=0;
 		long length = testFile.length();
+		long totalBytes = splitBytes ? length : length * processes;
 		
 		/**
 		 *  Run the tests
 		 */
 		RemoteDataClient client = null; 
 		StringBuilder sb = new StringBuilder();
-		sb.append(formatOutput(RESULT_TABLE_HEADER) + "\n");
-		
-		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-		ByteArrayOutputStream inputStream = new ByteArrayOutputStream();
-		
 		
 		String uuid = UUID.randomUUID().toString();
 		
@@ -117,27 +164,15 @@ public class NativeSystemsSpeedtestCommand<RemoteDataClient> extends SpeedtestCo
 		String remoteUploadDirectoryAbsolutePath = null;
 		
 		File tmpdir = Files.createTempDir();
-		File batchFileUpload = new File(tmpdir, "up-" + uuid + ".batch");
-		File batchFileDownload = new File(tmpdir, "down-" + uuid + ".batch");
 		File askpassFile = createAskPassFile(tmpdir, system);
 		File pubKey = new File(tmpdir, "key-cert.pub");
 		File privateKey = new File(tmpdir, "key");
-		String salt = getSystemSalt();
-		
-		if (system.getStorageConfig().getDefaultAuthConfig().getType() == AuthConfigType.SSHKEYS) {
-			IOUtil.writeText(system.getStorageConfig().getDefaultAuthConfig().getClearTextPublicKey(salt), pubKey);
-			IOUtil.writeText(system.getStorageConfig().getDefaultAuthConfig().getClearTextPrivateKey(salt), privateKey);
-			privateKey.setReadable(false, false);
-			privateKey.setWritable(false, false);
-			privateKey.setExecutable(false, false);
-			
-			privateKey.setReadable(true, true);
-			privateKey.setWritable(true, true);
-			privateKey.setExecutable(false, true);
-		}
+		writeKeyFiles(privateKey, pubKey);
 		
 		try {
 			
+			checkSftpAuth(privateKey, pubKey);
+			
 			client = system.getRemoteDataClient();
 			
 			remoteUploadDirectoryAbsolutePath = client.resolvePath(remoteUploadDirectory);
@@ -156,181 +191,163 @@ public class NativeSystemsSpeedtestCommand<RemoteDataClient> extends SpeedtestCo
 				if (verbose) System.out.println("Failed to crate remote upload directory: " + remoteUploadDirectory);
 			}
 			
-			FileWriter writer = new FileWriter(batchFileUpload);
-			writer.append("lcd " + testFile.getParentFile().getAbsolutePath() + "\n");
-//			writer.append("mkdir -P " + client.resolvePath(remoteUploadDirectory) + "\n");
-			writer.append("put " + testFile.getName() + " " + remoteUploadDirectoryAbsolutePath + "/" + testFile.getName() + " \n");
-			writer.append("quit");
-			writer.flush();
-			writer.close();
+			/**
+			 *  Write one upload and one download batch file per process
+			 */
+			List<File> sources = new ArrayList<File>();
+			if (splitBytes && processes > 1) {
+				sources.addAll(splitTestFile(testFile, processes, tmpdir));
+			}
+			else {
+				for (int i=0; i<processes; i++) sources.add(testFile);
+			}
 			
-			writer = new FileWriter(batchFileDownload);
-			writer.append("lcd " + testFile.getParentFile().getAbsolutePath() + "\n");
-			writer.append("get " + remoteUploadDirectoryAbsolutePath + "/" + testFile.getName() + " " + testFile.getAbsolutePath() + " \n");
-			writer.append("quit");
-			writer.flush();
-			writer.close();
+			List<String> uploadCommands = new ArrayList<String>();
+			List<String> downloadCommands = new ArrayList<String>();
+			List<File> uploadBatches = new ArrayList<File>();
+			List<File> downloadBatches = new ArrayList<File>();
+			for (int i=0; i<processes; i++) {
+				String remotePath = remoteUploadDirectoryAbsolutePath + "/" + testFile.getName() + (processes > 1 ? "." + i : "");
+				File downloadFile = new File(tmpdir, "download-" + i);
+				uploadCommands.add("put " + sources.get(i).getAbsolutePath() + " " + remotePath);
+				downloadCommands.add("get " + remotePath + " " + downloadFile.getAbsolutePath());
+				uploadBatches.add(writeBatchFile(new File(tmpdir, "up-" + i + ".batch"), uploadCommands.get(i)));
+				downloadBatches.add(writeBatchFile(new File(tmpdir, "down-" + i + ".batch"), downloadCommands.get(i)));
+			}
 			
-			for (int i=0; i<iterations; i++) {
-				if (Boolean.parseBoolean(includeUploadTest)) {
-					if (verbose) System.out.println("Starting upload test...");
-					if (verbose) System.out.println("\tTransfer: file:///" + testFile.getAbsoluteFile() + " => agave://" + system.getSystemId() + "/" + remoteUploadDirectoryAbsolutePath + "/" + testFile.getName());
-					
-					
-//					String cmd = String.format("sftp -p %d –B %s %s@%s", 
-//							system.getStorageConfig().getPort(),  
-//							batchFileUpload.getAbsolutePath(),
-//							system.getStorageConfig().getDefaultAuthConfig().getUsername(),
-//							system.getStorageConfig().getHost());
-//					
-					CommandLine cmdLine = getSFTPCommandLine(privateKey, pubKey, system, batchFileUpload);
-					
-					DefaultExecuteResultHandler resultHandler = new DefaultExecuteResultHandler();
-
-					outputStream = new ByteArrayOutputStream();
-					
-				    ExecuteWatchdog watchdog = new ExecuteWatchdog(10 * 60 * 1000);
-					Executor executor = new DefaultExecutor();
-					executor.setExitValue(0);
-					executor.setWatchdog(watchdog);
-					PumpStreamHandler streamHandler = new PumpStreamHandler(outputStream);
-					
-					// add any needed environment variables for the auth and/or command
-					Map<String,String> envMap = new HashMap<String,String>();
-					if (system.getStorageConfig().getDefaultAuthConfig().getType() == AuthConfigType.PASSWORD) {
-						envMap.put("SSHPASS",system.getStorageConfig().getDefaultAuthConfig().getClearTextPassword(getSystemSalt()));
-					}
-					envMap.put("SSH_ASKPASS",askpassFile.getAbsolutePath());
-					envMap.put("DISPLAY",":");
-					envMap.put("PATH", "/usr/bin:/bin:/usr/sbin:/sbin");
-					envMap.put("HOME", System.getProperty("user.home"));
-					envMap.put("SHELL", "/bin/bash");
-					envMap.put("SSH_AUTH_SOCK", "");
-					
-					executor.setStreamHandler(streamHandler);
-					
-					t1 = System.currentTimeMillis();
-//					executor.execute(cmdLine, envMap, resultHandler);
-					String[] args = new String[] {"sftp", 
-							"-i", privateKey.getAbsolutePath(), 
-							"-P", String.valueOf(system.getStorageConfig().getPort()), 
-							"-o", "UserKnownHostsFile=/dev/null", 
-							"-o", "StrictHostKeyChecking=false", 
-							"-b", 
-							batchFileUpload.getAbsolutePath(),
-							system.getStorageConfig().getDefaultAuthConfig().getUsername() + "@" + system.getStorageConfig().getHost()};
-					ProcessBuilder pb = new ProcessBuilder(args)
-			        .directory(tmpdir)
-			        .redirectErrorStream(true)
-			        .redirectOutput(java.lang.ProcessBuilder.Redirect.INHERIT);
-					pb.environment().putAll(envMap);
-			        Process pp = pb.start();
-			        
-					int exitValue = pp.waitFor();
-					// some time later the result handler callback was invoked so we
-					// can safely request the exit value
-//					resultHandler.waitFor();
+			Map<String,String> envMap = getSshEnvironment(askpassFile);
+			
+			/**
+			 *  Open the shared connection, timing the handshake on its own
+			 */
+			long handshake = 0;
+			if (multiplex) {
+				handshake = startControlMaster(privateKey, tmpdir, envMap);
+				if (verbose) System.out.println("Control master connected in " + formatMillis(handshake) + "ms");
+			}
+			
+			// downloads need a remote copy to read even when uploads are not timed
+			if (!Boolean.parseBoolean(includeUploadTest) && Boolean.parseBoolean(includeDownloadTest)) {
+				runSftp(uploadBatches, 0, 0, privateKey, tmpdir, envMap);
+			}
+			
+			/**
+			 *  Sweep every combination of buffer size and request count
+			 */
+			List<int[]> settings = new ArrayList<int[]>();
+			List<TransferStatistics> results = new ArrayList<TransferStatistics>();
+			List<TransferStatistics> freshResults = new ArrayList<TransferStatistics>();
+			List<Long> sessionHandshakes = new ArrayList<Long>();
+			for (int bufferSize: bufferSizes) {
+				for (int requestCount: requestCounts) {
+					if (verbose) System.out.println("Testing " + processes + " sftp process(es)" + 
+							(bufferSize > 0 ? " with -B " + bufferSize : "") + 
+							(requestCount > 0 ? " with -R " + requestCount : ""));
 					
-					t2 = System.currentTimeMillis();
+					TransferStatistics statistics = new TransferStatistics();
+					HistoryRecord record = new HistoryRecord("native", systemId, "sftp", 
+							getNativeMode(processes, splitBytes, requestCount) + (multiplex ? "-mux" : "") + (session ? "-session" : ""), length, bufferSize);
+					statistics.addListener(record);
 					
-//					int exitValue = resultHandler.getExitValue();
+					TransferStatistics freshStatistics = new TransferStatistics();
+					HistoryRecord freshRecord = new HistoryRecord("native", systemId, "sftp", 
+							getNativeMode(processes, splitBytes, requestCount), length, bufferSize);
+					freshStatistics.addListener(freshRecord);
 					
-					if (exitValue != 0) {
-						throw new RemoteDataException("Failed to fork upload command " + cmdLine.toString() + "\n" + outputStream.toString(), resultHandler.getException() );
+					if (session) {
+						SftpSession sftpSession = startSftpSession(bufferSize, requestCount, privateKey, tmpdir, envMap);
+						try {
+							sessionHandshakes.add(sftpSession.getHandshakeTime());
+							if (verbose) System.out.println("sftp session connected in " + formatMillis(sftpSession.getHandshakeTime()) + "ms");
+							
+							for (int i=0; i<iterations; i++) {
+								if (Boolean.parseBoolean(includeUploadTest)) {
+									long elapsed = sftpSession.execute(uploadCommands.get(0));
+									statistics.recordUpload(elapsed, totalBytes);
+									if (verbose) System.out.println("\tUpload: " + formatMillis(elapsed) + "ms " + TransferTask.formatMaxMemory((long)(calculateRate(totalBytes, elapsed) * 1024)) + "/s ");
+								}
+								if (Boolean.parseBoolean(includeDownloadTest)) {
+									long elapsed = sftpSession.execute(downloadCommands.get(0));
+									statistics.recordDownload(elapsed, totalBytes);
+									if (verbose) System.out.println("\tDownload: " + formatMillis(elapsed) + "ms " + TransferTask.formatMaxMemory((long)(calculateRate(totalBytes, elapsed) * 1024)) + "/s ");
+								}
+							}
+						}
+						finally {
+							sftpSession.close();
+						}
 					}
 					else {
-						if (verbose) System.out.println(outputStream.toString());
+						for (int i=0; i<iterations; i++) {
+							if (Boolean.parseBoolean(includeUploadTest)) {
+								if (verbose) System.out.println("Starting upload test...");
+								if (verbose) System.out.println("\tTransfer: file:///" + testFile.getAbsoluteFile() + " => agave://" + system.getSystemId() + "/" + remoteUploadDirectoryAbsolutePath + "/" + testFile.getName());
+								
+								// alternate which goes first so caching on either end favours neither
+								if (multiplex && i % 2 == 0) {
+									freshStatistics.recordUpload(runSftpWithoutMultiplexing(uploadBatches, bufferSize, requestCount, privateKey, tmpdir, envMap), totalBytes);
+								}
+								long elapsed = runSftp(uploadBatches, bufferSize, requestCount, privateKey, tmpdir, envMap);
+								statistics.recordUpload(elapsed, totalBytes);
+								if (multiplex && i % 2 == 1) {
+									freshStatistics.recordUpload(runSftpWithoutMultiplexing(uploadBatches, bufferSize, requestCount, privateKey, tmpdir, envMap), totalBytes);
+								}
+								
+								if (verbose) System.out.println("\tPerf: " + formatMillis(elapsed) + "ms " + TransferTask.formatMaxMemory((long)(calculateRate(totalBytes, elapsed) * 1024)) + "/s ");
+							}
+							
+							if (Boolean.parseBoolean(includeDownloadTest)) {
+								if (verbose) System.out.println("Starting download test...");
+								if (verbose) System.out.println("\tTransfer: agave://" + system.getSystemId() + "/" + testFile.getName() + " => file:///" + tmpdir.getAbsolutePath());
+								
+								if (multiplex && i % 2 == 0) {
+									freshStatistics.recordDownload(runSftpWithoutMultiplexing(downloadBatches, bufferSize, requestCount, privateKey, tmpdir, envMap), totalBytes);
+								}
+								long elapsed = runSftp(downloadBatches, bufferSize, requestCount, privateKey, tmpdir, envMap);
+								statistics.recordDownload(elapsed, totalBytes);
+								if (multiplex && i % 2 == 1) {
+									freshStatistics.recordDownload(runSftpWithoutMultiplexing(downloadBatches, bufferSize, requestCount, privateKey, tmpdir, envMap), totalBytes);
+								}
+								
+								if (verbose) System.out.println("\tPerf: " + formatMillis(elapsed) + "ms " + TransferTask.formatMaxMemory((long)(calculateRate(totalBytes, elapsed) * 1024)) + "/s");
+							}
+						}
 					}
 					
-					long duration = ((t2 - t1)/1000);
-					if (verbose) System.out.println("\tPerf: " + ((t2 - t1)) + "ms " + TransferTask.formatMaxMemory(testFile.length() / duration) + "/s ");
-					
-					outputStream.close();
-				}
-				
-				if (Boolean.parseBoolean(includeDownloadTest)) {
-					if (verbose) System.out.println("Starting download test...");
-					if (verbose) System.out.println("\tTransfer: agave://" + system.getSystemId() + "/" + testFile.getName() + " => file:///" + testFile.getAbsoluteFile());
-					
-//					String cmd = String.format("sftp -p %d –B %s %s@%s", 
-//							system.getStorageConfig().getPort(),  
-//							batchFileDownload.getAbsolutePath(),
-//							system.getStorageConfig().getDefaultAuthConfig().getUsername(),
-//							system.getStorageConfig().getHost());
-					
-					CommandLine cmdLine = getSFTPCommandLine(privateKey, pubKey, system, batchFileDownload);
-
-					DefaultExecuteResultHandler resultHandler = new DefaultExecuteResultHandler();
-
-					outputStream = new ByteArrayOutputStream();
-					inputStream = new ByteArrayOutputStream();
-				    ExecuteWatchdog watchdog = new ExecuteWatchdog(10 * 60 * 1000);
-					Executor executor = new DefaultExecutor();
-					executor.setExitValue(0);
-					executor.setWatchdog(watchdog);
-					PumpStreamHandler streamHandler = new PumpStreamHandler(outputStream);
-					
-					// add any needed environment variables for the auth and/or command
-					Map<String,String> envMap = new HashMap<String,String>();
-					if (system.getStorageConfig().getDefaultAuthConfig().getType() == AuthConfigType.PASSWORD) {
-						envMap.put("SSHPASS",system.getStorageConfig().getDefaultAuthConfig().getClearTextPassword(getSystemSalt()));
+					recordHistory(record);
+					settings.add(new int[] { bufferSize, requestCount });
+					results.add(statistics);
+					if (multiplex) {
+						recordHistory(freshRecord);
+						freshResults.add(freshStatistics);
 					}
-					envMap.put("SSH_ASKPASS",askpassFile.getAbsolutePath());
-					envMap.put("DISPLAY",":");
-					envMap.put("PATH", "/usr/bin:/bin:/usr/sbin:/sbin");
-					envMap.put("HOME", System.getProperty("user.home"));
-					envMap.put("SHELL", "/bin/bash");
-//					envMap.put("SSH_AUTH_SOCK", "");
-					
-					executor.setStreamHandler(streamHandler);
-					
-					t3 = System.currentTimeMillis();
-					
-					executor.execute(cmdLine, resultHandler);
-					
-					// some time later the result handler callback was invoked so we
-					// can safely request the exit value
-					resultHandler.waitFor();
-					
-					t4 = System.currentTimeMillis();
-					
-					int exitValue = resultHandler.getExitValue();
-					
-					if (exitValue != 0) {
-						throw new RemoteDataException("Failed to fork download command " + cmdLine.toString() + "\n" + outputStream.toString(), resultHandler.getException());
-					}
-					else {
-						if (verbose) System.out.println(outputStream.toString());
-					}
-					
-					long duration = ((t4 - t3)/1000);
-					if (verbose) System.out.println("\tPerf: " + ((t4 - t3)) + "ms " + TransferTask.formatMaxMemory(testFile.length() / duration) + "/s");
-					
-					outputStream.close();
-					inputStream.close();
 				}
 			}
 			
-			sb.append(calculateTime(t2, t1, t4, t3, length) + "\n");
-			
-		} catch (IOException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		} catch (RemoteDataException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		} catch (RemoteCredentialException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+			if (results.size() == 1) {
+				sb.append(formatOutput(RESULT_TABLE_HEADER) + "\n");
+				sb.append(calculateTime(results.get(0), totalBytes) + "\n\n");
+				sb.append(formatStatistics(results.get(0)));
+			}
+			else {
+				sb.append(formatSftpSweep(processes, splitBytes ? SPLIT_BYTES : SPLIT_FILES, settings, results));
+			}
+			if (multiplex) {
+				sb.append("\n" + formatMultiplexing(handshake, settings, freshResults, results));
+			}
+			for (int i=0; i<sessionHandshakes.size(); i++) {
+				sb.append("\nsftp session handshake" + 
+						(settings.get(i)[0] > 0 ? " -B " + settings.get(i)[0] : "") + 
+						(settings.get(i)[1] > 0 ? " -R " + settings.get(i)[1] : "") + 
+						": " + formatMillis(sessionHandshakes.get(i)) + "ms");
+			}
 		}
 		finally {
-			try { outputStream.close();} catch (Exception e) {}
-			try { inputStream.close(); } catch (Exception e) {}
+			stopControlMaster(tmpdir);
 			try { client.delete(remoteUploadDirectory); }  catch (Exception e) {}
 			try { client.disconnect();} catch (Exception e) {}
 			try { uninstallSshKeys(privateKey, pubKey);} catch (Exception e) {}
 			FileUtils.deleteQuietly(tmpdir);
-			FileUtils.deleteQuietly(batchFileDownload);
 			
 //			if (StringUtils.isEmpty(testFilename)) {
 //				System.out.println("Cleaning up local directory");
@@ -340,7 +357,836 @@ public class NativeSystemsSpeedtestCommand<RemoteDataClient> extends SpeedtestCo
 		
 		return sb.toString();
 	}
+	
+	@CliCommand(value = "native tools", help = "Compare sftp, scp, rsync and a raw ssh pipe moving the same test file to a registered system")
+	public String compareTools(
+		@CliOption(key = { "system" }, mandatory = false, help = "System id on which to perform the test", unspecifiedDefaultValue="data.agaveapi.co") final String systemId,
+		@CliOption(key = { "file" }, mandatory = false, help = "File to use for the test") final String testFilename,
+		@CliOption(key = { "upload" }, mandatory = false, help = "Include upload test if present.", unspecifiedDefaultValue="true") final boolean includeUploadTest,
+		@CliOption(key = { "download" }, mandatory = false, help = "Include download test if present.", unspecifiedDefaultValue="true") final boolean includeDownloadTest,
+		@CliOption(key = { "size" }, mandatory = false, help = "Human readable size of the test file.", unspecifiedDefaultValue="32MB") final String fileSize,
+		@CliOption(key = { "iter" }, mandatory = false, help = "Number of rounds. Each round runs every tool once, in turn.", unspecifiedDefaultValue="3") final int iterations,
+		@CliOption(key = { "tools" }, mandatory = false, help = "Comma separated list of tools to compare, from sftp, scp, rsync and ssh-pipe.", unspecifiedDefaultValue="sftp,scp,rsync,ssh-pipe") final String tools,
+		@CliOption(key = { "verbose" }, mandatory = false, help = "Verbose output.", unspecifiedDefaultValue="false") final boolean verbose) 
+	throws Exception {
+		
+		this.verbose = verbose;
+		
+		setSystemId(systemId);
+		
+		/**
+		 *  check the tools before doing any work
+		 */
+		List<String> toolNames = new ArrayList<String>();
+		for (String tool: StringUtils.commaDelimitedListToStringArray(tools.replaceAll(" ", "").toLowerCase())) {
+			if (!Arrays.asList(TOOLS).contains(tool)) {
+				throw new IllegalArgumentException("Unknown tool " + tool + ". Valid values are " + 
+						StringUtils.arrayToCommaDelimitedString(TOOLS) + ".");
+			}
+			if (!toolNames.contains(tool)) toolNames.add(tool);
+		}
+		if (toolNames.isEmpty()) {
+			throw new IllegalArgumentException("No tools to compare.");
+		}
+		
+		authenticate();
+		
+		File testFile = maybeGenerateTestData(testFilename, fileSize);
+		long length = testFile.length();
+		
+		RemoteDataClient client = null;
+		String remoteUploadDirectory = username + "/speedtest-" + UUID.randomUUID().toString();
+		
+		File tmpdir = Files.createTempDir();
+		File askpassFile = createAskPassFile(tmpdir, system);
+		File pubKey = new File(tmpdir, "key-cert.pub");
+		File privateKey = new File(tmpdir, "key");
+		writeKeyFiles(privateKey, pubKey);
+		
+		try {
+			checkSftpAuth(privateKey, pubKey);
+			
+			client = system.getRemoteDataClient();
+			client.authenticate();
+			client.mkdirs(remoteUploadDirectory);
+			String remoteDirectory = client.resolvePath(remoteUploadDirectory);
+			Map<String,String> envMap = getSshEnvironment(askpassFile);
+			
+			Map<String, TransferStatistics> results = new LinkedHashMap<String, TransferStatistics>();
+			Map<String, HistoryRecord> records = new LinkedHashMap<String, HistoryRecord>();
+			for (String tool: toolNames) {
+				TransferStatistics statistics = new TransferStatistics();
+				HistoryRecord record = new HistoryRecord("native", systemId, "sftp", getToolMode(tool), length, 0);
+				statistics.addListener(record);
+				results.put(tool, statistics);
+				records.put(tool, record);
+			}
+			
+			// downloads need a remote copy to read even when uploads are not timed
+			if (!includeUploadTest && includeDownloadTest) {
+				for (String tool: toolNames) {
+					runTool(tool, true, testFile, remoteDirectory + "/" + testFile.getName() + "." + tool, 
+							privateKey, tmpdir, envMap);
+				}
+			}
+			
+			// rotate the tools within each round so drift on the link is 
+			// spread over every tool rather than landing on the last one
+			for (int i=0; i<iterations; i++) {
+				for (int t=0; t<toolNames.size(); t++) {
+					String tool = toolNames.get((i + t) % toolNames.size());
+					String remotePath = remoteDirectory + "/" + testFile.getName() + "." + tool;
+					File downloadFile = new File(tmpdir, "download." + tool);
+					
+					if (includeUploadTest) {
+						long elapsed = runTool(tool, true, testFile, remotePath, privateKey, tmpdir, envMap);
+						results.get(tool).recordUpload(elapsed, length);
+						if (verbose) System.out.println(tool + " upload: " + formatMillis(elapsed) + "ms");
+					}
+					if (includeDownloadTest) {
+						FileUtils.deleteQuietly(downloadFile);
+						long elapsed = runTool(tool, false, downloadFile, remotePath, privateKey, tmpdir, envMap);
+						results.get(tool).recordDownload(elapsed, length);
+						if (verbose) System.out.println(tool + " download: " + formatMillis(elapsed) + "ms");
+					}
+				}
+			}
+			
+			for (HistoryRecord record: records.values()) {
+				recordHistory(record);
+			}
+			
+			return formatTools(results);
+		}
+		finally {
+			try { client.delete(remoteUploadDirectory); }  catch (Exception e) {}
+			try { client.disconnect();} catch (Exception e) {}
+			try { uninstallSshKeys(privateKey, pubKey);} catch (Exception e) {}
+			FileUtils.deleteQuietly(tmpdir);
+		}
+	}
+	
+	/**
+	 * @return the mode recorded in the history for a tool. sftp matches the
+	 * mode of a default {@code native} run.
+	 */
+	private String getToolMode(String tool) {
+		return TOOL_SFTP.equals(tool) ? "native" : "native-" + tool;
+	}
+	
+	/**
+	 * Moves the test file with one of the native tools.
+	 * 
+	 * @param tool one of {@link #TOOLS}
+	 * @param upload true to copy {@code localFile} to {@code remotePath}, 
+	 * false to copy {@code remotePath} to {@code localFile}
+	 * @param localFile the local side of the transfer
+	 * @param remotePath absolute path of the remote side of the transfer
+	 * @param privateKey the key file for key based auth
+	 * @param tmpdir working directory of the process
+	 * @param envMap environment of the process
+	 * @return the wall clock time in nanoseconds
+	 * @throws RemoteDataException if the tool fails
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	protected long runTool(String tool, boolean upload, File localFile, String remotePath, File privateKey, 
+			File tmpdir, Map<String,String> envMap) 
+	throws RemoteDataException, IOException, InterruptedException 
+	{
+		String port = String.valueOf(system.getStorageConfig().getPort());
+		String remote = getRemoteLogin() + ":" + remotePath;
+		File logFile = new File(tmpdir, tool + (upload ? "-up" : "-down") + ".log");
+		ProcessBuilder builder;
+		
+		if (TOOL_SFTP.equals(tool)) {
+			File batchFile = writeBatchFile(new File(tmpdir, tool + (upload ? "-up" : "-down") + ".batch"), 
+					upload ? "put " + localFile.getAbsolutePath() + " " + remotePath 
+						   : "get " + remotePath + " " + localFile.getAbsolutePath());
+			builder = newProcess(getSftpArguments(privateKey, batchFile, 0, 0), tmpdir, envMap, logFile);
+		}
+		else if (TOOL_SCP.equals(tool)) {
+			List<String> args = newCommand("scp");
+			args.addAll(Arrays.asList("-P", port));
+			args.addAll(getSshOptions(privateKey));
+			args.add(upload ? localFile.getAbsolutePath() : remote);
+			args.add(upload ? remote : localFile.getAbsolutePath());
+			builder = newProcess(args, tmpdir, envMap, logFile);
+		}
+		else if (TOOL_RSYNC.equals(tool)) {
+			List<String> ssh = new ArrayList<String>(Arrays.asList("ssh", "-p", port));
+			ssh.addAll(getSshOptions(privateKey));
+			List<String> args = newCommand("rsync");
+			// always send the whole file, even when the destination looks up to date
+			args.addAll(Arrays.asList("--ignore-times", "--whole-file", "-e", StringUtils.collectionToDelimitedString(ssh, " ")));
+			args.add(upload ? localFile.getAbsolutePath() : remote);
+			args.add(upload ? remote : localFile.getAbsolutePath());
+			builder = newProcess(args, tmpdir, envMap, logFile);
+		}
+		else {
+			List<String> args = newCommand("ssh");
+			args.addAll(Arrays.asList("-p", port));
+			args.addAll(getSshOptions(privateKey));
+			args.add(getRemoteLogin());
+			args.add((upload ? "cat > " : "cat ") + quoteRemotePath(remotePath));
+			builder = newProcess(args, tmpdir, envMap, logFile);
+			if (upload) {
+				builder.redirectInput(localFile);
+			}
+			else {
+				// the data arrives on stdout, so only stderr is logged
+				builder.redirectErrorStream(false)
+						.redirectOutput(localFile)
+						.redirectError(verbose ? ProcessBuilder.Redirect.INHERIT : ProcessBuilder.Redirect.to(logFile));
+			}
+		}
+		
+		return runProcesses(Arrays.asList(builder), Arrays.asList(logFile));
+	}
+	
+	/**
+	 * @return the path single quoted for the remote shell
+	 */
+	protected String quoteRemotePath(String path) {
+		return "'" + path.replace("'", "'\\''") + "'";
+	}
+	
+	/**
+	 * Generates a side by side table of the aggregate rate of every tool, 
+	 * each relative to the raw ssh pipe when it was measured, followed by 
+	 * the distribution of each tool's transfers.
+	 * 
+	 * @param results the transfers of every tool
+	 * @return the formatted tables
+	 */
+	protected String formatTools(Map<String, TransferStatistics> results) {
+		float[] pipe = results.containsKey(TOOL_SSH_PIPE) ? getAggregateRates(results.get(TOOL_SSH_PIPE)) : null;
+		
+		StringBuilder sb = new StringBuilder();
+		StringBuilder distributions = new StringBuilder();
+		sb.append(formatOutput(TOOL_RESULT_TABLE_HEADER) + "\n");
+		for (Map.Entry<String, TransferStatistics> entry: results.entrySet()) {
+			TransferStatistics statistics = entry.getValue();
+			float[] rates = getAggregateRates(statistics);
+			sb.append(formatOutput(new String[] {
+					entry.getKey(),
+					formatMillis(statistics.getUploadTimes().getMean()),
+					String.valueOf(rates[0]),
+					formatMillis(statistics.getDownloadTimes().getMean()),
+					String.valueOf(rates[1]),
+					pipe == null || pipe[0] == 0 ? "n/a" : String.format("%.1f%%", rates[0] * 100 / pipe[0]),
+					pipe == null || pipe[1] == 0 ? "n/a" : String.format("%.1f%%", rates[1] * 100 / pipe[1])}) + "\n");
+			
+			distributions.append("\n" + entry.getKey() + "\n");
+			distributions.append(formatStatistics(statistics));
+		}
+		return sb.toString() + distributions.toString();
+	}
+	
+	/**
+	 * Parses a comma separated list of sftp settings to sweep.
+	 * 
+	 * @param values the list, or null for the sftp default
+	 * @param humanReadable whether values may carry a size suffix, ie. 128KB
+	 * @return the settings to try, where 0 means the sftp default
+	 * @throws NumberFormatException if a value is not a positive number
+	 */
+	protected int[] parseSftpSettings(String values, boolean humanReadable) 
+	throws NumberFormatException 
+	{
+		if (StringUtils.isEmpty(values)) return new int[] { 0 };
+		
+		String[] tokens = StringUtils.commaDelimitedListToStringArray(values.replaceAll(" ", ""));
+		int[] settings = new int[tokens.length];
+		for (int i=0; i<tokens.length; i++) {
+			// sftp itself takes a bare byte count, so accept that as well as a unit
+			long value = humanReadable && !tokens[i].matches("\\d+") ? parseHumanReadableNumber(tokens[i]) : Long.parseLong(tokens[i]);
+			if (value > Integer.MAX_VALUE) {
+				throw new NumberFormatException("sftp settings must be at most " + Integer.MAX_VALUE + ", found " + tokens[i]);
+			}
+			settings[i] = (int)value;
+			if (settings[i] < 1) {
+				throw new NumberFormatException("sftp settings must be positive numbers, found " + tokens[i]);
+			}
+		}
+		return settings;
+	}
+	
+	/**
+	 * @return the mode recorded in the history, so runs are only compared
+	 * with runs using the same process layout and request count
+	 */
+	private String getNativeMode(int processes, boolean splitBytes, int requestCount) {
+		String mode = "native";
+		if (processes > 1) {
+			mode += "-" + (splitBytes ? SPLIT_BYTES : SPLIT_FILES) + "x" + processes;
+		}
+		if (requestCount > 0) {
+			mode += "-R" + requestCount;
+		}
+		return mode;
+	}
+	
+	/**
+	 * Splits the test file into {@code parts} contiguous part files, one 
+	 * per sftp process. See {@link ByteRange#split(long, int)}.
+	 * 
+	 * @param testFile the file to split
+	 * @param parts number of parts
+	 * @param dir where to write the parts
+	 * @return the part files in order
+	 * @throws IOException
+	 */
+	protected List<File> splitTestFile(File testFile, int parts, File dir) 
+	throws IOException 
+	{
+		List<File> files = new ArrayList<File>();
+		FileChannel in = new FileInputStream(testFile).getChannel();
+		try {
+			for (ByteRange range: ByteRange.split(testFile.length(), parts)) {
+				File part = new File(dir, testFile.getName() + ".part" + range.getIndex());
+				FileChannel out = new FileOutputStream(part).getChannel();
+				try {
+					long position = range.getOffset();
+					while (position < range.getEnd()) {
+						position += in.transferTo(position, range.getEnd() - position, out);
+					}
+				}
+				finally {
+					out.close();
+				}
+				files.add(part);
+			}
+		}
+		finally {
+			in.close();
+		}
+		return files;
+	}
+	
+	/**
+	 * Writes an sftp batch file running a single transfer.
+	 * 
+	 * @return the batch file
+	 */
+	private File writeBatchFile(File batchFile, String transfer) 
+	throws IOException 
+	{
+		FileWriter writer = new FileWriter(batchFile);
+		writer.append(transfer + " \n");
+		writer.append("quit");
+		writer.flush();
+		writer.close();
+		return batchFile;
+	}
+	
+	/**
+	 * Runs one sftp process per batch file in parallel and waits for all 
+	 * of them. See {@link #runProcesses(List, List)}.
+	 * 
+	 * @param batchFiles the batch file of every process
+	 * @param bufferSize the sftp -B value, or 0 for the default
+	 * @param requestCount the sftp -R value, or 0 for the default
+	 * @param privateKey the key file for key based auth
+	 * @param tmpdir working directory of the processes
+	 * @param envMap environment of the processes
+	 * @return the wall clock time in nanoseconds
+	 * @throws RemoteDataException if any process fails or times out
+	 * @throws IOException if a process cannot be started
+	 * @throws InterruptedException
+	 */
+	protected long runSftp(List<File> batchFiles, int bufferSize, int requestCount, File privateKey, 
+			File tmpdir, Map<String,String> envMap) 
+	throws RemoteDataException, IOException, InterruptedException 
+	{
+		List<ProcessBuilder> builders = new ArrayList<ProcessBuilder>();
+		List<File> logFiles = new ArrayList<File>();
+		for (File batchFile: batchFiles) {
+			File logFile = getLogFile(batchFile);
+			builders.add(newProcess(getSftpArguments(privateKey, batchFile, bufferSize, requestCount), tmpdir, envMap, logFile));
+			logFiles.add(logFile);
+		}
+		return runProcesses(builders, logFiles);
+	}
+	
+	/**
+	 * Opens a persistent sftp session to a system for other commands, ie.
+	 * to compare the adaptors against sftp on the same transfers. The 
+	 * keys and any downloads live in {@link #getSessionDirectory()} until
+	 * {@link #closeSftpSession(SftpSession)} is called.
+	 * 
+	 * @param systemId the system to connect to
+	 * @param verbose whether to show the sftp output
+	 * @return the connected session
+	 * @throws Exception if the system cannot be loaded or sftp fails to connect
+	 */
+	public SftpSession openSftpSession(String systemId, boolean verbose) 
+	throws Exception 
+	{
+		this.verbose = verbose;
+		setSystemId(systemId);
+		authenticate();
+		
+		sessionDirectory = Files.createTempDir();
+		File askpassFile = createAskPassFile(sessionDirectory, system);
+		File pubKey = new File(sessionDirectory, "key-cert.pub");
+		File privateKey = new File(sessionDirectory, "key");
+		try {
+			writeKeyFiles(privateKey, pubKey);
+			checkSftpAuth(privateKey, pubKey);
+			return startSftpSession(0, 0, privateKey, sessionDirectory, getSshEnvironment(askpassFile));
+		}
+		catch (Exception e) {
+			closeSftpSession(null);
+			throw e;
+		}
+	}
+	
+	/**
+	 * Closes a session opened by {@link #openSftpSession(String, boolean)}
+	 * and removes its keys and directory.
+	 * 
+	 * @param session the session, or null if it failed to open
+	 */
+	public void closeSftpSession(SftpSession session) {
+		if (session != null) session.close();
+		if (sessionDirectory != null) {
+			try { uninstallSshKeys(new File(sessionDirectory, "key"), new File(sessionDirectory, "key-cert.pub")); } catch (Exception e) {}
+			FileUtils.deleteQuietly(sessionDirectory);
+			sessionDirectory = null;
+		}
+	}
+	
+	/**
+	 * @return the working directory of the open session, or null
+	 */
+	public File getSessionDirectory() {
+		return sessionDirectory;
+	}
+	
+	/**
+	 * Opens an interactive sftp process reading its commands from stdin.
+	 * See {@link SftpSession}.
+	 * 
+	 * @param bufferSize the sftp -B value, or 0 for the default
+	 * @param requestCount the sftp -R value, or 0 for the default
+	 * @param privateKey the key file for key based auth
+	 * @param tmpdir working directory of the process
+	 * @param envMap environment of the process
+	 * @return the connected session
+	 * @throws IOException if sftp cannot be started or fails to connect
+	 */
+	protected SftpSession startSftpSession(int bufferSize, int requestCount, File privateKey, 
+			File tmpdir, Map<String,String> envMap) 
+	throws IOException 
+	{
+		ProcessBuilder builder = new ProcessBuilder(getSftpArguments(privateKey, "-", bufferSize, requestCount))
+				.directory(tmpdir);
+		builder.environment().putAll(envMap);
+		return SftpSession.start(builder, PROCESS_TIMEOUT, verbose ? System.out : null);
+	}
+	
+	/**
+	 * Same as {@link #runSftp(List, int, int, File, File, Map)} but always
+	 * opens a fresh connection, even while a control master is running.
+	 */
+	private long runSftpWithoutMultiplexing(List<File> batchFiles, int bufferSize, int requestCount, File privateKey, 
+			File tmpdir, Map<String,String> envMap) 
+	throws RemoteDataException, IOException, InterruptedException 
+	{
+		File socket = controlSocket;
+		controlSocket = null;
+		try {
+			return runSftp(batchFiles, bufferSize, requestCount, privateKey, tmpdir, envMap);
+		}
+		finally {
+			controlSocket = socket;
+		}
+	}
+	
+	/**
+	 * Opens an OpenSSH control master connection in the background. Every 
+	 * native tool started afterwards runs its session over this connection
+	 * instead of doing its own key exchange and authentication, until 
+	 * {@link #stopControlMaster(File)} is called.
+	 * 
+	 * @param privateKey the key file for key based auth
+	 * @param tmpdir where to create the control socket
+	 * @param envMap environment of the process
+	 * @return how long the connection took to authenticate, in nanoseconds
+	 * @throws RemoteDataException if the connection fails
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	protected long startControlMaster(File privateKey, File tmpdir, Map<String,String> envMap) 
+	throws RemoteDataException, IOException, InterruptedException 
+	{
+		// socket paths are limited to about 100 characters, so keep it short
+		File socket = new File(tmpdir, "cm");
+		List<String> args = newCommand("ssh");
+		args.addAll(Arrays.asList("-p", String.valueOf(system.getStorageConfig().getPort())));
+		args.addAll(getSshOptions(privateKey));
+		// -f returns as soon as the connection is authenticated
+		args.addAll(Arrays.asList("-M", "-S", socket.getAbsolutePath(), "-o", "ControlPersist=yes", "-N", "-f", getRemoteLogin()));
+		
+		File logFile = new File(tmpdir, "control-master.log");
+		long elapsed = runProcesses(Arrays.asList(newProcess(args, tmpdir, envMap, logFile)), Arrays.asList(logFile));
+		controlSocket = socket;
+		return elapsed;
+	}
+	
+	/**
+	 * Closes the control master opened by {@link #startControlMaster(File, File, Map)},
+	 * if any. Failures are ignored.
+	 * 
+	 * @param tmpdir working directory of the process
+	 */
+	protected void stopControlMaster(File tmpdir) {
+		if (controlSocket == null) return;
+		
+		File socket = controlSocket;
+		controlSocket = null;
+		try {
+			new ProcessBuilder("ssh", "-S", socket.getAbsolutePath(), "-O", "exit", getRemoteLogin())
+					.directory(tmpdir)
+					.redirectErrorStream(true)
+					.redirectOutput(new File(tmpdir, "control-master.log"))
+					.start()
+					.waitFor();
+		}
+		catch (Exception e) {
+			if (verbose) System.out.println("Unable to close the control master: " + e.getMessage());
+		}
+	}
+	
+	/**
+	 * Generates a table comparing the mean time of a transfer over a fresh
+	 * connection with the same transfer over the control master, for 
+	 * every sftp setting. The time saved is the connection setup paid by 
+	 * every transfer without multiplexing.
+	 * 
+	 * @param handshake time taken to open the control master, in nanoseconds
+	 * @param settings the -B and -R value of each result, 0 for the default
+	 * @param fresh the transfers over fresh connections
+	 * @param multiplexed the transfers over the control master
+	 * @return the formatted table
+	 */
+	protected String formatMultiplexing(long handshake, List<int[]> settings, 
+			List<TransferStatistics> fresh, List<TransferStatistics> multiplexed) 
+	{
+		StringBuilder sb = new StringBuilder();
+		sb.append("Control master handshake: " + formatMillis(handshake) + "ms\n");
+		sb.append(formatOutput(MULTIPLEX_TABLE_HEADER) + "\n");
+		for (int i=0; i<settings.size(); i++) {
+			String bufferSize = settings.get(i)[0] > 0 ? String.valueOf(settings.get(i)[0]) : "default";
+			String requestCount = settings.get(i)[1] > 0 ? String.valueOf(settings.get(i)[1]) : "default";
+			if (fresh.get(i).getUploadTimes().getTotalCount() > 0) {
+				sb.append(formatMultiplexing(bufferSize, requestCount, "upload", 
+						fresh.get(i).getUploadTimes().getMean(), multiplexed.get(i).getUploadTimes().getMean()) + "\n");
+			}
+			if (fresh.get(i).getDownloadTimes().getTotalCount() > 0) {
+				sb.append(formatMultiplexing(bufferSize, requestCount, "download", 
+						fresh.get(i).getDownloadTimes().getMean(), multiplexed.get(i).getDownloadTimes().getMean()) + "\n");
+			}
+		}
+		return sb.toString();
+	}
+	
+	private String formatMultiplexing(String bufferSize, String requestCount, String direction, double fresh, double multiplexed) {
+		return formatOutput(new String[] {
+				bufferSize,
+				requestCount,
+				direction,
+				formatMillis(fresh),
+				formatMillis(multiplexed),
+				formatMillis(fresh - multiplexed),
+				String.format("%.1f%%", fresh == 0 ? 0 : (fresh - multiplexed) * 100 / fresh)});
+	}
+	
+	/**
+	 * Starts every process at once and waits for all of them. The time 
+	 * covers starting the first process until the last one exits, so it 
+	 * includes the ssh handshake of every process, as a user running the 
+	 * same commands would see. Processes still running after 
+	 * {@link #PROCESS_TIMEOUT} are killed.
+	 * 
+	 * @param builders the processes to run
+	 * @param logFiles where the output of each process goes when not verbose
+	 * @return the wall clock time in nanoseconds
+	 * @throws RemoteDataException if any process fails or times out
+	 * @throws IOException if a process cannot be started
+	 * @throws InterruptedException
+	 */
+	protected long runProcesses(List<ProcessBuilder> builders, List<File> logFiles) 
+	throws RemoteDataException, IOException, InterruptedException 
+	{
+		final List<Process> processes = new ArrayList<Process>();
+		Timer watchdog = new Timer("native-watchdog", true);
+		try {
+			long t0 = System.nanoTime();
+			for (ProcessBuilder builder: builders) {
+				processes.add(builder.start());
+			}
+			
+			watchdog.schedule(new TimerTask() {
+				@Override
+				public void run() {
+					for (Process process: processes) process.destroy();
+				}
+			}, PROCESS_TIMEOUT);
+			
+			int failed = -1;
+			int failedExitValue = 0;
+			for (int i=0; i<processes.size(); i++) {
+				int exitValue = processes.get(i).waitFor();
+				if (exitValue != 0 && failed < 0) {
+					failed = i;
+					failedExitValue = exitValue;
+				}
+			}
+			long elapsed = System.nanoTime() - t0;
+			
+			if (failed >= 0) {
+				File log = logFiles.get(failed);
+				throw new RemoteDataException(builders.get(failed).command().get(0) + " exited with " + failedExitValue + 
+						" running " + StringUtils.collectionToDelimitedString(builders.get(failed).command(), " ") + 
+						(log.exists() ? "\n" + FileUtils.readFileToString(log) : ""));
+			}
+			return elapsed;
+		}
+		finally {
+			watchdog.cancel();
+			for (Process process: processes) process.destroy();
+		}
+	}
+	
+	/**
+	 * Creates a native tool process. Output goes to the console in verbose
+	 * mode and to {@code logFile} otherwise.
+	 * 
+	 * @param command the command and its arguments
+	 * @param tmpdir working directory of the process
+	 * @param envMap environment of the process
+	 * @param logFile where the output goes when not verbose
+	 * @return the process, ready to start
+	 */
+	protected ProcessBuilder newProcess(List<String> command, File tmpdir, Map<String,String> envMap, File logFile) {
+		ProcessBuilder pb = new ProcessBuilder(command)
+				.directory(tmpdir)
+				.redirectErrorStream(true);
+		if (verbose) {
+			pb.redirectOutput(ProcessBuilder.Redirect.INHERIT);
+		}
+		else {
+			pb.redirectOutput(logFile);
+		}
+		pb.environment().putAll(envMap);
+		return pb;
+	}
+	
+	private File getLogFile(File batchFile) {
+		return new File(batchFile.getParentFile(), batchFile.getName() + ".log");
+	}
+	
+	/**
+	 * @return true if the system authenticates with a password rather 
+	 * than a key
+	 */
+	private boolean isPasswordAuth() {
+		return system.getStorageConfig().getDefaultAuthConfig().getType() == AuthConfigType.PASSWORD;
+	}
+	
+	/**
+	 * Starts a command line for one of the ssh based tools. Password 
+	 * systems go through sshpass, which reads the password from the 
+	 * SSHPASS variable.
+	 * 
+	 * @param tool the tool to run, ie. sftp
+	 * @return the command line so far
+	 */
+	private List<String> newCommand(String tool) {
+		List<String> args = new ArrayList<String>();
+		if (isPasswordAuth()) {
+			args.addAll(Arrays.asList("sshpass", "-e"));
+		}
+		args.add(tool);
+		return args;
+	}
+	
+	/**
+	 * @param privateKey the key file for key based auth
+	 * @return the ssh options shared by every tool, excluding the port
+	 */
+	protected List<String> getSshOptions(File privateKey) {
+		List<String> args = new ArrayList<String>();
+		if (!isPasswordAuth()) {
+			args.addAll(Arrays.asList("-i", privateKey.getAbsolutePath()));
+		}
+		args.addAll(Arrays.asList(
+				"-o", "UserKnownHostsFile=/dev/null", 
+				"-o", "StrictHostKeyChecking=false"));
+		if (controlSocket != null) {
+			args.addAll(Arrays.asList("-o", "ControlMaster=no", "-o", "ControlPath=" + controlSocket.getAbsolutePath()));
+		}
+		if (isPasswordAuth()) {
+			// sftp -b adds BatchMode=yes after the options given before it, 
+			// and the first value wins
+			args.addAll(Arrays.asList("-o", "BatchMode=no"));
+		}
+		return args;
+	}
+	
+	/**
+	 * @return the remote login, ie. user@host
+	 */
+	private String getRemoteLogin() {
+		return system.getStorageConfig().getDefaultAuthConfig().getUsername() + "@" + system.getStorageConfig().getHost();
+	}
+	
+	/**
+	 * Builds the sftp command line for a batch file.
+	 * 
+	 * @param privateKey the key file for key based auth
+	 * @param batchFile the batch file to run
+	 * @param bufferSize the sftp -B value, or 0 for the default
+	 * @param requestCount the sftp -R value, or 0 for the default
+	 * @return the command and its arguments
+	 */
+	protected List<String> getSftpArguments(File privateKey, File batchFile, int bufferSize, int requestCount) {
+		return getSftpArguments(privateKey, batchFile.getAbsolutePath(), bufferSize, requestCount);
+	}
+	
+	/**
+	 * @param batch path of the batch file, or - to read it from stdin
+	 */
+	private List<String> getSftpArguments(File privateKey, String batch, int bufferSize, int requestCount) {
+		List<String> args = newCommand("sftp");
+		args.addAll(Arrays.asList("-P", String.valueOf(system.getStorageConfig().getPort())));
+		args.addAll(getSshOptions(privateKey));
+		if (bufferSize > 0) {
+			args.addAll(Arrays.asList("-B", String.valueOf(bufferSize)));
+		}
+		if (requestCount > 0) {
+			args.addAll(Arrays.asList("-R", String.valueOf(requestCount)));
+		}
+		args.addAll(Arrays.asList("-b", batch, getRemoteLogin()));
+		return args;
+	}
+	
+	/**
+	 * @return the environment needed for the auth of the native tools
+	 */
+	private Map<String,String> getSshEnvironment(File askpassFile) 
+	throws EncryptionException 
+	{
+		Map<String,String> envMap = new HashMap<String,String>();
+		if (system.getStorageConfig().getDefaultAuthConfig().getType() == AuthConfigType.PASSWORD) {
+			envMap.put("SSHPASS",system.getStorageConfig().getDefaultAuthConfig().getClearTextPassword(getSystemSalt()));
+		}
+		envMap.put("SSH_ASKPASS",askpassFile.getAbsolutePath());
+		envMap.put("DISPLAY",":");
+		envMap.put("PATH", "/usr/bin:/bin:/usr/sbin:/sbin:/usr/local/bin");
+		envMap.put("HOME", System.getProperty("user.home"));
+		envMap.put("SHELL", "/bin/bash");
+		return envMap;
+	}
+	
+	/**
+	 * Generates a table with the aggregate rate of every sftp setting 
+	 * tried, marking the best combined rate.
+	 * 
+	 * @param processes number of parallel processes
+	 * @param split how the work was shared
+	 * @param settings the -B and -R value of each result, 0 for the default
+	 * @param results the transfers of each setting
+	 * @return the formatted table
+	 */
+	protected String formatSftpSweep(int processes, String split, List<int[]> settings, List<TransferStatistics> results) {
+		float[][] rates = new float[results.size()][];
+		int best = 0;
+		for (int i=0; i<results.size(); i++) {
+			rates[i] = getAggregateRates(results.get(i));
+			if (rates[i][2] > rates[best][2]) best = i;
+		}
+		
+		StringBuilder sb = new StringBuilder();
+		sb.append(formatOutput(SFTP_SWEEP_TABLE_HEADER) + "\n");
+		for (int i=0; i<results.size(); i++) {
+			sb.append(formatOutput(new String[] {
+					String.valueOf(processes),
+					split,
+					settings.get(i)[0] > 0 ? String.valueOf(settings.get(i)[0]) : "default",
+					settings.get(i)[1] > 0 ? String.valueOf(settings.get(i)[1]) : "default",
+					String.valueOf(rates[i][0]),
+					String.valueOf(rates[i][1]),
+					String.valueOf(rates[i][2]),
+					i == best ? "<- best" : ""}) + "\n");
+		}
+		return sb.toString();
+	}
+	
+	/**
+	 * @param statistics the transfers of one setting or tool
+	 * @return the upload, download and combined rate in kB/s, each the 
+	 * total bytes moved over the total transfer time
+	 */
+	protected float[] getAggregateRates(TransferStatistics statistics) {
+		float upload = calculateRate(statistics.getUploadBytes(), 
+				Math.round(statistics.getUploadTimes().getMean() * statistics.getUploadTimes().getTotalCount()));
+		float download = calculateRate(statistics.getDownloadBytes(), 
+				Math.round(statistics.getDownloadTimes().getMean() * statistics.getDownloadTimes().getTotalCount()));
+		int directions = (statistics.getUploadBytes() > 0 ? 1 : 0) + (statistics.getDownloadBytes() > 0 ? 1 : 0);
+		return new float[] { upload, download, directions == 0 ? 0 : (upload + download) / directions };
+	}
+	
+	/**
+	 * Checks the system can be reached with the native sftp client and 
+	 * loads passphrase protected keys into the local ssh agent.
+	 */
+	private void checkSftpAuth(File privateKey, File pubKey) 
+	throws RemoteDataException, EncryptionException, IOException, PermissionException 
+	{
+		if (system.getStorageConfig().getProtocol() != StorageProtocolType.SFTP) {
+			throw new RemoteDataException("The native test only supports SFTP systems. " + 
+					system.getSystemId() + " uses " + system.getStorageConfig().getProtocol());
+		}
+		
+		if (system.getStorageConfig().getDefaultAuthConfig().getType() == AuthConfigType.SSHKEYS) {
+			
+			// if we have password protected keys, we need the ssh-agent to handle the prompt
+			if ( ! StringUtils.isEmpty(system.getStorageConfig().getDefaultAuthConfig().getPassword()) ) {
+				String decryptedPassword = system.getStorageConfig().getDefaultAuthConfig().getClearTextPassword(getSystemSalt());
+				installSshKeys(privateKey, pubKey, decryptedPassword);
+			}
+		}
+		// no idea what else this could be
+		else if (system.getStorageConfig().getDefaultAuthConfig().getType() != AuthConfigType.PASSWORD) {
+			throw new RemoteDataException("Unknown auth type for SFTP: " + system.getStorageConfig().getDefaultAuthConfig().getType());
+		}
+	}
 
+	/**
+	 * Writes the keys of key based systems to disk, readable by the 
+	 * current user only, for the native tools to use.
+	 */
+	private void writeKeyFiles(File privateKey, File pubKey) 
+	throws EncryptionException, IOException 
+	{
+		String salt = getSystemSalt();
+		
+		if (system.getStorageConfig().getDefaultAuthConfig().getType() == AuthConfigType.SSHKEYS) {
+			IOUtil.writeText(system.getStorageConfig().getDefaultAuthConfig().getClearTextPublicKey(salt), pubKey);
+			IOUtil.writeText(system.getStorageConfig().getDefaultAuthConfig().getClearTextPrivateKey(salt), privateKey);
+			privateKey.setReadable(false, false);
+			privateKey.setWritable(false, false);
+			privateKey.setExecutable(false, false);
+			
+			privateKey.setReadable(true, true);
+			privateKey.setWritable(true, true);
+			privateKey.setExecutable(false, true);
+		}
+	}
+	
 	private File createAskPassFile(File tempdir, RemoteSystem system) 
 	throws EncryptionException, IOException 
 	{
@@ -363,80 +1209,6 @@ public class NativeSystemsSpeedtestCommand<RemoteDataClient> extends SpeedtestCo
 		return askpassFile;
 	}
 
-	private CommandLine getSFTPCommandLine(File privateKey, File pubKey, RemoteSystem system, File sftpCommandFile) 
-	throws RemoteDataException, EncryptionException, IOException, PermissionException 
-	{
-		
-		CommandLine cmdLine = null;
-		
-		if (system.getStorageConfig().getProtocol() == StorageProtocolType.SFTP) {
-			
-			if (system.getStorageConfig().getDefaultAuthConfig().getType() == AuthConfigType.SSHKEYS) {
-				
-				// if we have password protected keys, we need the ssh-agent to handle the prompt
-				if ( ! StringUtils.isEmpty(system.getStorageConfig().getDefaultAuthConfig().getPassword()) ) {
-					String decryptedPassword = system.getStorageConfig().getDefaultAuthConfig().getClearTextPassword(getSystemSalt());
-					installSshKeys(privateKey, pubKey, decryptedPassword);
-				}
-				
-//				cmdLine = new CommandLine("sftp");
-//				cmdLine.addArgument("${key}");
-				
-//				cmdLine = new CommandLine("sh");
-//				cmdLine.addArgument("-l");
-//				cmdLine.addArgument("-c");
-				
-				cmdLine = CommandLine.parse(String.format("sftp -i %s -P %d -o UserKnownHostsFile=/dev/null -o StrictHostKeyChecking=false -b %s %s@%s",
-						privateKey.getAbsolutePath(),
-						system.getStorageConfig().getPort(),
-						sftpCommandFile.getAbsolutePath(),
-						system.getStorageConfig().getDefaultAuthConfig().getUsername(),
-						system.getStorageConfig().getHost()));
-//				cmdLine = CommandLine.parse("sh -l -c \"env\"");
-			}
-			// otherwise we're using password login, so we need to 
-			else if (system.getStorageConfig().getDefaultAuthConfig().getType() == AuthConfigType.PASSWORD) {
-//				cmdLine = CommandLine.parse(String.format("/usr/local/bin/sshpass -e sftp"));
-				
-//				cmdLine = new CommandLine("sh");
-//				cmdLine.addArgument("-l");
-//				cmdLine.addArgument("-c");
-//				cmdLine.addArgument(String.format("/usr/local/bin/sshpass -e sftp -v -i %s -P %d -o UserKnownHostsFile=/dev/null -o StrictHostKeyChecking=false -b %s %s@%s",
-//						privateKey.getAbsolutePath(),
-//						system.getStorageConfig().getPort(),
-//						sftpCommandFile.getAbsolutePath(),
-//						system.getStorageConfig().getDefaultAuthConfig().getUsername(),
-//						system.getStorageConfig().getHost()));
-			}
-			// no idea what else this could be
-			else {
-				throw new RemoteDataException("Unknown auth type for SFTP: " + system.getStorageConfig().getDefaultAuthConfig().getType());
-			}
-		}
-//		cmdLine.addArgument("-v");
-//		cmdLine.addArgument("-P");
-//		cmdLine.addArgument("${port}");
-//		cmdLine.addArgument("-o");
-//		cmdLine.addArgument("UserKnownHostsFile=/dev/null");
-//		cmdLine.addArgument("-o");
-//		cmdLine.addArgument("StrictHostKeyChecking=false");
-		
-//		cmdLine.addArgument("-b");
-//		cmdLine.addArgument("${uploadFile}");
-//		cmdLine.addArgument("${username}@${hostname}");
-//		HashMap<String,String> map = new HashMap<String,String>();
-//		map.put("port", String.valueOf(system.getStorageConfig().getPort()));
-//		map.put("uploadFile", sftpCommandFile.getAbsolutePath());
-//		map.put("username", system.getStorageConfig().getDefaultAuthConfig().getUsername());
-//		map.put("hostname", system.getStorageConfig().getHost());
-//		if (system.getStorageConfig().getDefaultAuthConfig().getType() == AuthConfigType.SSHKEYS) {
-//			map.put("key", privateKey.getAbsolutePath());
-//		}
-//		cmdLine.setSubstitutionMap(map);
-		
-		return cmdLine;
-	}
-
 	private String getSystemSalt() {
 		return system.getSystemId() + 
 				system.getStorageConfig().getHost() + 
@@ -596,10 +1368,65 @@ public class NativeSystemsSpeedtestCommand<RemoteDataClient> extends SpeedtestCo
 
 	
 
+	/**
+	 * Reads the username and tenant from the agave cache file on disk, 
+	 * sets the tenancy of the current thread and looks up the system to 
+	 * test, falling back on the default storage system of the user.
+	 * 
+	 * @throws AuthenticationException if the cache file is missing or 
+	 * invalid, or the system cannot be found
+	 */
 	@Override
 	protected void authenticate() throws AuthenticationException {
-		// TODO Auto-generated method stub
-		
+		try {
+			String cacheDirectory = System.getenv("AGAVE_CACHE_DIR");
+			if (StringUtils.isEmpty(cacheDirectory)) {
+				cacheDirectory = System.getProperty("agave.cache.dir");
+				if (StringUtils.isEmpty(cacheDirectory)) {
+					cacheDirectory = System.getProperty("user.home") + "/.agave";
+				}
+			}
+			
+			File agaveCacheFile = new File(cacheDirectory, "current");
+			if (!agaveCacheFile.exists()) {
+				throw new FileNotFoundException("No agave config file found at " + agaveCacheFile.getAbsolutePath());
+			}
+			
+			JsonNode cache = mapper.readTree(agaveCacheFile);
+			username = cache.get("username").asText();
+			if (StringUtils.isEmpty(username)) {
+				throw new AuthenticationException("No username found in agave config file at " + agaveCacheFile.getAbsolutePath());
+			}
+			
+			String tenantCode = cache.get("tenantid").asText();
+			if (StringUtils.isEmpty(tenantCode) || !new TenantDao().exists(tenantCode)) {
+				throw new TenantException("No tenant found matching " + tenantCode);
+			}
+			TenancyHelper.setCurrentTenantId(tenantCode);
+			TenancyHelper.setCurrentEndUser(username);
+			
+			if (!StringUtils.isEmpty(getSystemId())) {
+				system = systemDao.findBySystemId(getSystemId());
+				if (system == null) {
+					throw new SystemUnknownException("No system found for id " + getSystemId());
+				}
+			}
+			else {
+				system = new SystemManager().getUserDefaultStorageSystem(username, RemoteSystemType.STORAGE);
+				if (system == null) {
+					throw new SystemUnknownException("No default system found for user. Please specify a system");
+				}
+			}
+		}
+		catch (AuthenticationException e) {
+			throw e;
+		}
+		catch (SystemUnknownException | TenantException e) {
+			throw new AuthenticationException(e);
+		}
+		catch (Exception e) {
+			throw new AuthenticationException("Unable to authenticate to " + getSystemId(), e);
+		}
 	}
 
 	@Override
@@ -2,14 +2,23 @@ package org.agaveapi.ops.speedtest.cli.commands;
 
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.math.BigDecimal;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.UUID;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import org.agaveapi.ops.speedtest.cli.io.HistoryRecord;
+import org.agaveapi.ops.speedtest.cli.io.ResultHistory;
+import org.agaveapi.ops.speedtest.cli.io.SampleWriter;
+import org.agaveapi.ops.speedtest.cli.io.TestDataGenerator;
+import org.agaveapi.ops.speedtest.cli.stats.Histogram;
+import org.agaveapi.ops.speedtest.cli.stats.LinearFit;
+import org.agaveapi.ops.speedtest.cli.stats.TransferStatistics;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang.math.NumberUtils;
@@ -18,10 +27,25 @@ import org.iplantc.service.transfer.exceptions.RemoteDataException;
 import org.springframework.shell.core.CommandMarker;
 import org.springframework.shell.core.annotation.CliOption;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+
 public abstract class SpeedtestCommand<T> implements CommandMarker {
 
 	public final static String[] RESULT_TABLE_HEADER = new String[]{"File Size", "Upload time(ms)", "Upload Rate(kB/s)","Download time(ms)","Download Rate(kB/s)"};
 	
+	/**
+	 * Minimum relative throughput gain needed for the next load step to 
+	 * count as an improvement when looking for the knee of a curve.
+	 */
+	public final static float KNEE_GAIN_THRESHOLD = 0.10f;
+	
+	public final static double NANOS_PER_MILLI = 1000000d;
+	public final static double NANOS_PER_SECOND = 1000000000d;
+	
+	public final static String[] TRANSFER_MODEL_TABLE_HEADER = new String[]{"Direction", "Fixed Overhead(ms)", "Bandwidth(kB/s)", "Half-perf Size", "R^2"};
+	
+	public final static String[] DISTRIBUTION_TABLE_HEADER = new String[]{"Metric", "Samples", "Min", "Mean", "p50", "p90", "p99", "Max", "StdDev", "95% CI"};
+	
 	private String username = null;
 	private String hostname = null;
 	private int bufferSize = 0;
@@ -33,6 +57,10 @@ public abstract class SpeedtestCommand<T> implements CommandMarker {
 	private boolean debug = false;
 	private boolean inMemory = false;
 	private boolean streaming = false;
+	private long seed = TestDataGenerator.DEFAULT_SEED;
+	private TestDataGenerator testDataGenerator = null;
+	private SampleWriter sampleWriter = null;
+	private ResultHistory resultHistory = null;
 	private T client = null;
 	
 	public SpeedtestCommand() {
@@ -195,6 +223,20 @@ public abstract class SpeedtestCommand<T> implements CommandMarker {
 		this.streaming = streaming;
 	}
 
+	/**
+	 * @return the seed used to generate test data
+	 */
+	public long getSeed() {
+		return seed;
+	}
+
+	/**
+	 * @param seed the seed used to generate test data
+	 */
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+
 	/**
 	 * @param client the client to set
 	 */
@@ -270,8 +312,12 @@ public abstract class SpeedtestCommand<T> implements CommandMarker {
 	}
 
 	/**
-	 * Creates test data us use in the io tests.
-	 * @param testFilename
+	 * Creates test data us use in the io tests. When no file name is given,
+	 * a dataset of the requested size is taken from the local test data 
+	 * cache, generating it on first use. Cached datasets are shared across 
+	 * runs and must not be deleted or written to by the caller.
+	 * 
+	 * @param testFilename optional path of the file to use or create
 	 * @param fileSize the human readable size of the file to generate
 	 * @return the generated test file to use
 	 * @throws IOException
@@ -283,24 +329,20 @@ public abstract class SpeedtestCommand<T> implements CommandMarker {
 		// if in memory, skip creating test data.
 		if (isInMemory()) return new File("/dev/zero");
 		
+		long bytes = parseHumanReadableNumber(fileSize);
+		
 		/**
-		 * Generate a temporary file for uploading/downloading if not 
-		 * provided by the user
+		 * Use a cached dataset if the user did not provide a file
 		 */
-		File testFile = null;
 		if (StringUtils.isEmpty(testFilename)) {
-			testFile = new File(System.getProperty("user.home"), "sftp-file");
-		}
-		else {
-			testFile = new File(testFilename);
+			return getTestDataGenerator().getCachedFile(bytes, getSeed());
 		}
 		
-	
 		/**
 		 * Generate test data if the file does not exist or the 
 		 * file is not of the size specified by the user.
 		 */
-		long bytes = parseHumanReadableNumber(fileSize);
+		File testFile = new File(testFilename);
 		if (testFile.exists()) {
 			if (testFile.length() != bytes) {
 				throw new IOException("Test file " + testFile.getAbsolutePath() + " does not match the given test file size.");
@@ -308,49 +350,382 @@ public abstract class SpeedtestCommand<T> implements CommandMarker {
 		}
 		// create the file data
 		else { 
-			java.util.Random rnd = new java.util.Random();
+			getTestDataGenerator().generate(testFile, bytes, getSeed());
+		}
+		return testFile;
+	}
+	
+	/**
+	 * Returns the generator used to create and cache test data. The cache 
+	 * directory is read from the SPEEDTEST_CACHE_DIR environment variable, 
+	 * then the speedtest.cache.dir system property, and defaults to 
+	 * $HOME/.agave/speedtest-data.
+	 * 
+	 * @return the test data generator
+	 */
+	protected synchronized TestDataGenerator getTestDataGenerator() {
+		if (testDataGenerator == null) {
+			String cacheDirectory = System.getenv("SPEEDTEST_CACHE_DIR");
+			
+			if (StringUtils.isEmpty(cacheDirectory)) {
+				cacheDirectory = System.getProperty("speedtest.cache.dir");
+				
+				if (StringUtils.isEmpty(cacheDirectory)) {
+					cacheDirectory = System.getProperty("user.home") + "/.agave/speedtest-data";
+				}
+			}
+			
+			testDataGenerator = new TestDataGenerator(new File(cacheDirectory), Runtime.getRuntime().availableProcessors());
+		}
+		return testDataGenerator;
+	}
 	
-			FileOutputStream out = new FileOutputStream(testFile);
-			byte[] buf = new byte[4096];
-			for (int i = 0; i < Math.ceil(bytes/4096); i++) {
-				rnd.nextBytes(buf);
-				out.write(buf);
+	/**
+	 * Returns the store every run is recorded in. The history file is read 
+	 * from the SPEEDTEST_HISTORY environment variable, then the 
+	 * speedtest.history system property, and defaults to 
+	 * $HOME/.agave/speedtest-history.jsonl.
+	 * 
+	 * @return the result history
+	 */
+	protected synchronized ResultHistory getResultHistory() {
+		if (resultHistory == null) {
+			String historyFile = System.getenv("SPEEDTEST_HISTORY");
+			
+			if (StringUtils.isEmpty(historyFile)) {
+				historyFile = System.getProperty("speedtest.history");
+				
+				if (StringUtils.isEmpty(historyFile)) {
+					historyFile = System.getProperty("user.home") + "/.agave/speedtest-history.jsonl";
+				}
 			}
-			out.close();
+			
+			resultHistory = new ResultHistory(new File(historyFile), new ObjectMapper());
 		}
-		return testFile;
+		return resultHistory;
+	}
+	
+	/**
+	 * Adds a finished run to the result history. A history that cannot be
+	 * written never fails the benchmark itself.
+	 * 
+	 * @param record the run to add
+	 */
+	protected void recordHistory(HistoryRecord record) {
+		try {
+			getResultHistory().append(record);
+		}
+		catch (IOException e) {
+			System.err.println("Unable to record run in " + getResultHistory().getFile().getAbsolutePath() + ": " + e.getMessage());
+		}
+	}
+	
+	/**
+	 * Returns the local file to download the test file into. Downloads never
+	 * overwrite the test file itself, which may be a shared cached dataset.
+	 * 
+	 * @param testFile the local test file
+	 * @return a sibling of the test file
+	 */
+	protected File getDownloadFile(File testFile) {
+		return new File(testFile.getAbsolutePath() + ".download");
 	}
 
 	/**
-	 * Generates a tab delimited line specifying the file size, upload time, upload rate, download time, download rate
-	 * given the timestamps and file length. 
-	 * @param uend
-	 * @param ustart
-	 * @param dend
-	 * @param dstart
-	 * @param length
-	 * @return
+	 * Starts writing samples in the given format. Nothing is opened for 
+	 * the table format, which is only produced at the end of a run.
+	 * 
+	 * @param format the output format
+	 * @param out file to append the samples to, or null for stdout
+	 * @param mapper used to serialize json samples
+	 * @throws IOException if the output file cannot be opened
 	 */
-	protected String calculateTime(long uend, long ustart, long dend, long dstart, long length) {
-		long ue = uend - ustart;
-		float ukbs = 0;
-		if (ue >= 1) {
-			ukbs = ((float) length / 1024) / ((float) ue / 1000);
+	protected void openSampleWriter(SampleWriter.Format format, String out, ObjectMapper mapper) 
+	throws IOException 
+	{
+		closeSampleWriter();
+		if (format != SampleWriter.Format.TABLE) {
+			sampleWriter = SampleWriter.open(format, StringUtils.isEmpty(out) ? null : new File(out), mapper);
+			sampleWriter.setContext("run", UUID.randomUUID().toString());
 		}
-		
-		long de = dend - dstart;
-		float dkbs = 0;
-		if (de >= 1) {
-			dkbs = ((float) length / 1024) / ((float) de / 1000);
+	}
+	
+	/**
+	 * @return the writer receiving samples for the current run, or null 
+	 * if samples are not being written
+	 */
+	protected SampleWriter getSampleWriter() {
+		return sampleWriter;
+	}
+	
+	/**
+	 * Flushes and closes the sample writer of the current run, if any.
+	 */
+	protected void closeSampleWriter() {
+		if (sampleWriter != null) {
+			sampleWriter.close();
+			sampleWriter = null;
+		}
+	}
+	
+	/**
+	 * Returns what the command should print at the end of a run. In table 
+	 * format that is the table, which is also appended to {@code out} when
+	 * given. In json and csv format the samples have already been written,
+	 * so the table is only printed when the samples went to a file rather
+	 * than to the console.
+	 * 
+	 * @param table the formatted results of the run
+	 * @param format the output format
+	 * @param out the output file, or null
+	 * @return the text to print
+	 * @throws IOException if the table cannot be written to {@code out}
+	 */
+	protected String formatResult(String table, SampleWriter.Format format, String out) 
+	throws IOException 
+	{
+		if (format == SampleWriter.Format.TABLE) {
+			if (!StringUtils.isEmpty(out)) {
+				FileUtils.writeStringToFile(new File(out), table, true);
+			}
+			return table;
+		}
+		else {
+			return StringUtils.isEmpty(out) ? "" : table;
+		}
+	}
+	
+	/**
+	 * Ends a run that completed but must still fail, ie. because transfers
+	 * were corrupted. The report is printed as normal output and the 
+	 * failure is raised with a short message, so the shell does not show
+	 * the whole report as an exception and batch mode exits non-zero.
+	 * 
+	 * @param report what the command would have returned
+	 * @param message why the run failed
+	 * @throws RemoteDataException always
+	 */
+	protected void failWithReport(String report, String message) 
+	throws RemoteDataException 
+	{
+		if (!StringUtils.isEmpty(report)) {
+			System.out.println(report);
+			System.out.flush();
 		}
+		throw new RemoteDataException(message);
+	}
+
+	/**
+	 * Generates a line specifying the file size, mean upload time, upload rate, 
+	 * mean download time and download rate over every recorded iteration. 
+	 * Rates are the total bytes moved over the total transfer time.
+	 * 
+	 * @param statistics the per-iteration samples of the run
+	 * @param length the test file size
+	 * @return
+	 */
+	protected String calculateTime(TransferStatistics statistics, long length) {
+		Histogram uploads = statistics.getUploadTimes();
+		float ukbs = calculateRate(statistics.getUploadBytes(), Math.round(uploads.getMean() * uploads.getTotalCount()));
+		
+		Histogram downloads = statistics.getDownloadTimes();
+		float dkbs = calculateRate(statistics.getDownloadBytes(), Math.round(downloads.getMean() * downloads.getTotalCount()));
 		
 		return formatOutput(new String[] {
 				String.valueOf(length),
-				String.valueOf(ue), 
+				formatMillis(uploads.getMean()), 
 				String.valueOf(ukbs),
-				String.valueOf(de), 
+				formatMillis(downloads.getMean()), 
 				String.valueOf(dkbs)});
 	}
+	
+	/**
+	 * Generates a table with the distribution of the upload and download 
+	 * durations and rates over every recorded iteration.
+	 * 
+	 * @param statistics the per-iteration samples of the run
+	 * @return the formatted table
+	 */
+	protected String formatStatistics(TransferStatistics statistics) {
+		StringBuilder sb = new StringBuilder();
+		sb.append(formatOutput(DISTRIBUTION_TABLE_HEADER) + "\n");
+		if (statistics.getUploadTimes().getTotalCount() > 0) {
+			sb.append(formatDistribution("Upload time(ms)", statistics.getUploadTimes(), NANOS_PER_MILLI) + "\n");
+			sb.append(formatDistribution("Upload Rate(kB/s)", statistics.getUploadRates(), 1) + "\n");
+		}
+		if (statistics.getDownloadTimes().getTotalCount() > 0) {
+			sb.append(formatDistribution("Download time(ms)", statistics.getDownloadTimes(), NANOS_PER_MILLI) + "\n");
+			sb.append(formatDistribution("Download Rate(kB/s)", statistics.getDownloadRates(), 1) + "\n");
+		}
+		return sb.toString();
+	}
+	
+	/**
+	 * Formats a single row of the distribution table.
+	 * 
+	 * @param label the name of the metric
+	 * @param histogram the recorded values of the metric
+	 * @param scale divisor applied to every value before printing, ie. 
+	 * {@link #NANOS_PER_MILLI} to print nanosecond samples in milliseconds
+	 * @return
+	 */
+	protected String formatDistribution(String label, Histogram histogram, double scale) {
+		return formatOutput(new String[] {
+				label,
+				String.valueOf(histogram.getTotalCount()),
+				String.format("%.3f", histogram.getMin() / scale),
+				String.format("%.3f", histogram.getMean() / scale),
+				String.format("%.3f", histogram.getValueAtPercentile(50) / scale),
+				String.format("%.3f", histogram.getValueAtPercentile(90) / scale),
+				String.format("%.3f", histogram.getValueAtPercentile(99) / scale),
+				String.format("%.3f", histogram.getMax() / scale),
+				String.format("%.3f", histogram.getStdDeviation() / scale),
+				String.format("+/-%.3f", histogram.getConfidenceInterval95() / scale)});
+	}
+	
+	/**
+	 * Formats a nanosecond duration as fractional milliseconds.
+	 * 
+	 * @param nanos the duration in nanoseconds
+	 * @return the duration in milliseconds with microsecond precision
+	 */
+	protected String formatMillis(double nanos) {
+		return String.format("%.3f", nanos / NANOS_PER_MILLI);
+	}
+
+	/**
+	 * Calculates the transfer rate in kB/s of moving {@code length} bytes 
+	 * in {@code elapsed} nanoseconds.
+	 * 
+	 * @param length number of bytes transferred
+	 * @param elapsed transfer time in nanoseconds
+	 * @return the rate in kB/s or 0 if no measurable time elapsed
+	 */
+	protected float calculateRate(long length, long elapsed) {
+		if (elapsed < 1) {
+			return 0;
+		}
+		return (float)(((double) length / 1024) / ((double) elapsed / NANOS_PER_SECOND));
+	}
+
+	/**
+	 * Finds the knee of a throughput curve measured at increasing load. The
+	 * knee is the first point after which the next step improves throughput
+	 * by less than {@link #KNEE_GAIN_THRESHOLD}, or makes it worse.
+	 * 
+	 * @param throughput the measured throughput at each load level, in order
+	 * @return index of the knee, or the last index if throughput never levels off
+	 */
+	protected int findKnee(float[] throughput) {
+		for (int i=0; i<throughput.length - 1; i++) {
+			if (throughput[i+1] < throughput[i] * (1 + KNEE_GAIN_THRESHOLD)) {
+				return i;
+			}
+		}
+		return throughput.length - 1;
+	}
+
+	/**
+	 * Fits {@code time = fixedOverhead + size / bandwidth} to the mean 
+	 * transfer time measured at each file size and formats the model 
+	 * parameters. The fit minimizes relative error so small and large 
+	 * sizes carry equal weight. The half-performance size is the transfer 
+	 * size at which half of the asymptotic bandwidth is reached, which is 
+	 * where the fixed overhead equals the time spent moving data.
+	 * 
+	 * @param direction label for the row
+	 * @param sizes the file sizes tested, in bytes
+	 * @param meanTimes the mean transfer time at each size, in nanoseconds
+	 * @return the formatted model row, with n/a for the bandwidth and 
+	 * half-performance size when the time does not grow with the size
+	 */
+	protected String formatTransferModel(String direction, long[] sizes, double[] meanTimes) {
+		double[] x = new double[sizes.length];
+		double[] w = new double[sizes.length];
+		for (int i=0; i<sizes.length; i++) {
+			x[i] = sizes[i];
+			w[i] = meanTimes[i] > 0 ? 1 / (meanTimes[i] * meanTimes[i]) : 0;
+		}
+		
+		LinearFit fit = null;
+		try {
+			fit = LinearFit.fit(x, meanTimes, w);
+		}
+		catch (IllegalArgumentException e) {
+			return formatOutput(new String[] { direction, "n/a", "n/a", "n/a", "n/a" });
+		}
+		
+		double overhead = Math.max(0, fit.getIntercept());
+		String rSquared = Double.isNaN(fit.getRSquared()) ? "n/a" : String.format("%.4f", fit.getRSquared());
+		
+		// time that does not grow with size has no bandwidth to report
+		if (!(fit.getSlope() > 0) || Double.isInfinite(fit.getSlope()) || Double.isNaN(overhead)) {
+			return formatOutput(new String[] { 
+					direction, 
+					Double.isNaN(overhead) ? "n/a" : formatMillis(overhead), 
+					"n/a", "n/a", rSquared });
+		}
+		double bytesPerNano = 1 / fit.getSlope();
+		
+		return formatOutput(new String[] {
+				direction,
+				formatMillis(overhead),
+				String.valueOf((float)(bytesPerNano * NANOS_PER_SECOND / 1024)),
+				String.valueOf(Math.round(overhead * bytesPerNano)),
+				rSquared });
+	}
+	
+	/**
+	 * Parses a list of file sizes. Accepts either a comma separated list of
+	 * human readable sizes, ie. 4KB,1MB,1GB, or a range such as 4KB..8GB 
+	 * which is expanded on a log scale by multiplying by {@code factor} 
+	 * until the upper bound is reached. The upper bound is always included.
+	 * 
+	 * @param sizes the size list or range
+	 * @param factor multiplier between consecutive sizes of a range
+	 * @return the sizes in bytes
+	 * @throws NumberFormatException
+	 */
+	public long[] parseSizes(String sizes, double factor) 
+	throws NumberFormatException 
+	{
+		List<Long> values = new ArrayList<Long>();
+		if (sizes.contains("..")) {
+			if (factor <= 1) {
+				throw new NumberFormatException("Size factor must be greater than 1.");
+			}
+			String[] bounds = sizes.split("\\.\\.");
+			long from = parseHumanReadableNumber(bounds[0]);
+			long to = parseHumanReadableNumber(bounds[1]);
+			if (from < 1) {
+				throw new NumberFormatException("The smallest size of a range must be at least 1 byte.");
+			}
+			else if (from > to) {
+				throw new NumberFormatException("The smallest size of a range must not be larger than the largest.");
+			}
+			for (double size = from; size < to; size *= factor) {
+				// small sizes round to the same byte count more than once
+				long rounded = Math.round(size);
+				if (values.isEmpty() || values.get(values.size() - 1) != rounded) {
+					values.add(rounded);
+				}
+			}
+			if (values.isEmpty() || values.get(values.size() - 1) != to) {
+				values.add(to);
+			}
+		}
+		else {
+			for (String size: sizes.split(",")) {
+				values.add(parseHumanReadableNumber(size));
+			}
+		}
+		
+		long[] result = new long[values.size()];
+		for (int i=0; i<result.length; i++) {
+			result[i] = values.get(i);
+		}
+		return result;
+	}
 
 	/**
 	 * Converts a human readable number to a byte integer value.
@@ -370,7 +745,7 @@ public abstract class SpeedtestCommand<T> implements CommandMarker {
 				.replaceAll(" ", "");
 		
 		long returnValue = -1;
-	    Pattern patt = Pattern.compile("([\\d.-]+)([XPTGMK]B)", Pattern.CASE_INSENSITIVE);
+	    Pattern patt = Pattern.compile("([\\d.-]+)([XPTGMK]?B)", Pattern.CASE_INSENSITIVE);
 	    Matcher matcher = patt.matcher(formattedValue);
 	    Map<String, Integer> powerMap = new HashMap<String, Integer>();
 	    powerMap.put("XB", 6);
@@ -0,0 +1,106 @@
+package org.agaveapi.ops.speedtest.cli.io;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Pool of transfer buffers keyed by capacity. Transfers borrow their 
+ * copy buffers from here and hand them back when done, so repeated 
+ * iterations reuse the same memory instead of leaving a trail of large 
+ * arrays and direct buffers for the collector.
+ * 
+ * Acquiring and releasing a buffer of a size that has been seen before 
+ * does not allocate, so the pool can be used on measured paths.
+ * 
+ * @author dooley
+ *
+ */
+public class BufferPool {
+
+	private final List<Slot> slots = new ArrayList<Slot>();
+	
+	public BufferPool() {}
+	
+	/**
+	 * Borrows a cleared direct buffer of exactly {@code capacity} bytes, 
+	 * allocating a new one if none is free.
+	 * 
+	 * @param capacity size of the buffer in bytes
+	 * @return a cleared direct buffer
+	 */
+	public synchronized ByteBuffer acquireDirect(int capacity) {
+		ByteBuffer buffer = getSlot(capacity).directBuffers.poll();
+		if (buffer == null) {
+			buffer = ByteBuffer.allocateDirect(capacity);
+		}
+		buffer.clear();
+		return buffer;
+	}
+	
+	/**
+	 * Borrows a heap array of exactly {@code length} bytes, allocating a 
+	 * new one if none is free. The content is not cleared.
+	 * 
+	 * @param length size of the array in bytes
+	 * @return a heap array
+	 */
+	public synchronized byte[] acquireArray(int length) {
+		byte[] array = getSlot(length).arrays.poll();
+		if (array == null) {
+			array = new byte[length];
+		}
+		return array;
+	}
+	
+	/**
+	 * Returns a buffer obtained from {@link #acquireDirect(int)} to the 
+	 * pool. Null and heap buffers are ignored.
+	 * 
+	 * @param buffer the buffer to return
+	 */
+	public synchronized void release(ByteBuffer buffer) {
+		if (buffer != null && buffer.isDirect()) {
+			getSlot(buffer.capacity()).directBuffers.offer(buffer);
+		}
+	}
+	
+	/**
+	 * Returns an array obtained from {@link #acquireArray(int)} to the 
+	 * pool. Null is ignored.
+	 * 
+	 * @param array the array to return
+	 */
+	public synchronized void release(byte[] array) {
+		if (array != null) {
+			getSlot(array.length).arrays.offer(array);
+		}
+	}
+	
+	/**
+	 * Finds the slot for the given capacity. Only a handful of sizes are 
+	 * used in a run, so a linear scan beats a map and avoids boxing the key.
+	 */
+	private Slot getSlot(int capacity) {
+		for (int i=0; i<slots.size(); i++) {
+			Slot slot = slots.get(i);
+			if (slot.capacity == capacity) {
+				return slot;
+			}
+		}
+		Slot slot = new Slot(capacity);
+		slots.add(slot);
+		return slot;
+	}
+	
+	private static class Slot {
+		private final int capacity;
+		private final ArrayDeque<ByteBuffer> directBuffers = new ArrayDeque<ByteBuffer>();
+		private final ArrayDeque<byte[]> arrays = new ArrayDeque<byte[]>();
+		
+		private Slot(int capacity) {
+			this.capacity = capacity;
+		}
+	}
+}
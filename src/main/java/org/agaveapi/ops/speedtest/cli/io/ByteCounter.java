@@ -0,0 +1,16 @@
+package org.agaveapi.ops.speedtest.cli.io;
+
+/**
+ * A stream that counts the bytes passing through it. The count may be 
+ * read from any thread while the stream is in use.
+ * 
+ * @author dooley
+ *
+ */
+public interface ByteCounter {
+	
+	/**
+	 * @return number of bytes read or written so far
+	 */
+	public long getCount();
+}
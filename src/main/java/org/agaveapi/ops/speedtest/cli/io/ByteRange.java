@@ -0,0 +1,78 @@
+package org.agaveapi.ops.speedtest.cli.io;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A contiguous slice of a test file. Used to split a single transfer
+ * into multiple parallel streams.
+ * 
+ * @author dooley
+ *
+ */
+public class ByteRange {
+
+	private final int index;
+	private final long offset;
+	private final long length;
+	
+	public ByteRange(int index, long offset, long length) {
+		this.index = index;
+		this.offset = offset;
+		this.length = length;
+	}
+	
+	/**
+	 * Splits {@code totalLength} bytes into {@code parts} contiguous ranges. 
+	 * The remainder is spread over the first ranges so no two ranges differ
+	 * by more than one byte.
+	 * 
+	 * @param totalLength number of bytes to split
+	 * @param parts number of ranges to create
+	 * @return the ordered list of ranges covering the full length
+	 */
+	public static List<ByteRange> split(long totalLength, int parts) {
+		if (parts < 1) {
+			throw new IllegalArgumentException("Cannot split into fewer than one range.");
+		}
+		
+		List<ByteRange> ranges = new ArrayList<ByteRange>(parts);
+		long base = totalLength / parts;
+		long remainder = totalLength % parts;
+		long offset = 0;
+		for (int i=0; i<parts; i++) {
+			long length = base + (i < remainder ? 1 : 0);
+			ranges.add(new ByteRange(i, offset, length));
+			offset += length;
+		}
+		return ranges;
+	}
+
+	/**
+	 * @return the index
+	 */
+	public int getIndex() {
+		return index;
+	}
+
+	/**
+	 * @return the offset
+	 */
+	public long getOffset() {
+		return offset;
+	}
+
+	/**
+	 * @return the length
+	 */
+	public long getLength() {
+		return length;
+	}
+	
+	/**
+	 * @return the offset of the first byte past this range
+	 */
+	public long getEnd() {
+		return offset + length;
+	}
+}
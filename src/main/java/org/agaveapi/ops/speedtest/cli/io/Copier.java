@@ -0,0 +1,145 @@
+package org.agaveapi.ops.speedtest.cli.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.Checksum;
+
+/**
+ * The copy loops behind every streaming transfer. They are kept free of
+ * any adaptor or command state so they can be benchmarked against local 
+ * files on their own. None of them allocate; buffers are supplied by the 
+ * caller, usually from a {@link BufferPool}.
+ * 
+ * @author dooley
+ *
+ */
+public class Copier {
+
+	private Copier() {}
+	
+	/**
+	 * Copies exactly {@code length} bytes from one stream to the other, 
+	 * updating {@code checksum} with each chunk while it is still in the 
+	 * buffer so verification needs no second pass over the data.
+	 * 
+	 * @param in the stream to read from
+	 * @param out the stream to write to
+	 * @param buf the copy buffer
+	 * @param length number of bytes to copy
+	 * @param checksum the checksum to update, or null
+	 * @return the {@link System#nanoTime()} at which the first read returned 
+	 * data, or the time the copy started if nothing was copied.
+	 * @throws IOException if the input ends before {@code length} bytes were read
+	 */
+	public static long copy(InputStream in, OutputStream out, byte[] buf, long length, Checksum checksum) 
+	throws IOException 
+	{
+		long firstByte = System.nanoTime();
+		boolean first = true;
+		long remaining = length;
+		while (remaining > 0) {
+			int bytesRead = in.read(buf, 0, (int)Math.min(buf.length, remaining));
+			if (bytesRead == -1) {
+				throw new IOException("Stream ended " + remaining + " bytes before the expected " + length + " bytes were read.");
+			}
+			if (first) {
+				firstByte = System.nanoTime();
+				first = false;
+			}
+			if (checksum != null) {
+				checksum.update(buf, 0, bytesRead);
+			}
+			out.write(buf, 0, bytesRead);
+			remaining -= bytesRead;
+		}
+		return firstByte;
+	}
+
+	/**
+	 * Copies exactly {@code length} bytes from a channel to a stream, 
+	 * reading into the direct {@code buffer} and passing each chunk to the
+	 * stream through {@code buf}.
+	 * 
+	 * @param in the channel to read from
+	 * @param out the stream to write to
+	 * @param buffer direct buffer to read into
+	 * @param buf heap array used to hand the data to the stream
+	 * @param length number of bytes to copy
+	 * @param checksum the checksum to update, or null
+	 * @throws IOException if the channel ends before {@code length} bytes were read
+	 */
+	public static void copyFromChannel(FileChannel in, OutputStream out, ByteBuffer buffer, byte[] buf, 
+			long length, Checksum checksum) 
+	throws IOException 
+	{
+		long remaining = length;
+		while (remaining > 0) {
+			buffer.clear();
+			buffer.limit((int)Math.min(Math.min(buffer.capacity(), buf.length), remaining));
+			int bytesRead = in.read(buffer);
+			if (bytesRead == -1) {
+				throw new IOException("Channel ended " + remaining + " bytes before the expected " + length + " bytes were read.");
+			}
+			buffer.flip();
+			buffer.get(buf, 0, bytesRead);
+			if (checksum != null) {
+				checksum.update(buf, 0, bytesRead);
+			}
+			out.write(buf, 0, bytesRead);
+			remaining -= bytesRead;
+		}
+	}
+
+	/**
+	 * Copies exactly {@code length} bytes from a stream to a channel. 
+	 * Reads are collected in the direct {@code buffer} and written out 
+	 * each time it fills, so small reads from the adaptor do not turn 
+	 * into small writes.
+	 * 
+	 * @param in the stream to read from
+	 * @param out the channel to write to
+	 * @param buffer direct buffer to collect the data in
+	 * @param buf heap array the stream reads into
+	 * @param length number of bytes to copy
+	 * @param checksum the checksum to update, or null
+	 * @return the {@link System#nanoTime()} at which the first read returned 
+	 * data, or the time the copy started if nothing was copied.
+	 * @throws IOException if the stream ends before {@code length} bytes were read
+	 */
+	public static long copyToChannel(InputStream in, FileChannel out, ByteBuffer buffer, byte[] buf, 
+			long length, Checksum checksum) 
+	throws IOException 
+	{
+		long firstByte = System.nanoTime();
+		boolean first = true;
+		long remaining = length;
+		buffer.clear();
+		while (remaining > 0) {
+			int bytesRead = in.read(buf, 0, (int)Math.min(Math.min(buf.length, buffer.remaining()), remaining));
+			if (bytesRead == -1) {
+				throw new IOException("Stream ended " + remaining + " bytes before the expected " + length + " bytes were read.");
+			}
+			if (first) {
+				firstByte = System.nanoTime();
+				first = false;
+			}
+			if (checksum != null) {
+				checksum.update(buf, 0, bytesRead);
+			}
+			buffer.put(buf, 0, bytesRead);
+			remaining -= bytesRead;
+			
+			if (!buffer.hasRemaining() || remaining == 0) {
+				buffer.flip();
+				while (buffer.hasRemaining()) {
+					out.write(buffer);
+				}
+				buffer.clear();
+			}
+		}
+		return firstByte;
+	}
+}
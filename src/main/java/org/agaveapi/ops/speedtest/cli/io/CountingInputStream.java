@@ -0,0 +1,52 @@
+package org.agaveapi.ops.speedtest.cli.io;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Counts the bytes read from, or skipped in, the wrapped stream.
+ * 
+ * @author dooley
+ *
+ */
+public class CountingInputStream extends FilterInputStream implements ByteCounter {
+	
+	// single reader, read by the sampling thread
+	private volatile long count = 0;
+	
+	public CountingInputStream(InputStream in) {
+		super(in);
+	}
+	
+	@Override
+	public int read() throws IOException {
+		int b = in.read();
+		if (b >= 0) count++;
+		return b;
+	}
+	
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		int n = in.read(b, off, len);
+		if (n > 0) count += n;
+		return n;
+	}
+	
+	@Override
+	public long skip(long n) throws IOException {
+		long skipped = in.skip(n);
+		count += skipped;
+		return skipped;
+	}
+	
+	@Override
+	public boolean markSupported() {
+		return false;
+	}
+	
+	@Override
+	public long getCount() {
+		return count;
+	}
+}
@@ -0,0 +1,40 @@
+package org.agaveapi.ops.speedtest.cli.io;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Counts the bytes written to the wrapped stream. Writes are passed 
+ * through unchanged, including bulk writes, which {@link FilterOutputStream}
+ * would otherwise split into single bytes.
+ * 
+ * @author dooley
+ *
+ */
+public class CountingOutputStream extends FilterOutputStream implements ByteCounter {
+	
+	// single writer, read by the sampling thread
+	private volatile long count = 0;
+	
+	public CountingOutputStream(OutputStream out) {
+		super(out);
+	}
+	
+	@Override
+	public void write(int b) throws IOException {
+		out.write(b);
+		count++;
+	}
+	
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		out.write(b, off, len);
+		count += len;
+	}
+	
+	@Override
+	public long getCount() {
+		return count;
+	}
+}
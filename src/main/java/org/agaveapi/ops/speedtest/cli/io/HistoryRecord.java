@@ -0,0 +1,171 @@
+package org.agaveapi.ops.speedtest.cli.io;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.agaveapi.ops.speedtest.cli.stats.SampleListener;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+/**
+ * The samples of one benchmark run as kept in the {@link ResultHistory}.
+ * Runs are grouped by their {@link #getKey() key}, so only runs of the
+ * same system, protocol, mode, file size and buffer size are compared.
+ *
+ * Samples are kept per metric, named after the direction followed by
+ * either {@code rate(kB/s)} for whole transfers or the phase label in
+ * milliseconds, ie. {@code upload rate(kB/s)} or {@code setup auth(ms)}.
+ *
+ * @author dooley
+ *
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class HistoryRecord implements SampleListener {
+	
+	public final static String RATE_SUFFIX = " rate(kB/s)";
+	public final static String MILLIS_SUFFIX = "(ms)";
+	
+	private long timestamp = System.currentTimeMillis();
+	private String command;
+	private String system;
+	private String protocol;
+	private String mode;
+	private long fileSize;
+	private int bufferSize;
+	private Map<String, List<Double>> samples = new LinkedHashMap<String, List<Double>>();
+	
+	public HistoryRecord() {}
+	
+	/**
+	 * @param command the command that produced the run, ie. agave or native
+	 * @param system the system id
+	 * @param protocol the storage protocol of the system
+	 * @param mode the transfer path used
+	 * @param fileSize number of bytes per transfer
+	 * @param bufferSize the copy buffer size, or 0 for the default
+	 */
+	public HistoryRecord(String command, String system, String protocol, String mode, long fileSize, int bufferSize) {
+		this.command = command;
+		this.system = system;
+		this.protocol = protocol;
+		this.mode = mode;
+		this.fileSize = fileSize;
+		this.bufferSize = bufferSize;
+	}
+	
+	@Override
+	public synchronized void onSample(String direction, String metric, long elapsed, long length) {
+		if (TRANSFER.equals(metric)) {
+			if (elapsed > 0) {
+				addSample(direction + RATE_SUFFIX, (length / 1024d) / (elapsed / 1000000000d));
+			}
+		}
+		else {
+			addSample(direction + " " + metric + MILLIS_SUFFIX, elapsed / 1000000d);
+		}
+	}
+	
+	/**
+	 * @param metric the metric name
+	 * @param value the sample value
+	 */
+	public synchronized void addSample(String metric, double value) {
+		List<Double> values = samples.get(metric);
+		if (values == null) {
+			values = new ArrayList<Double>();
+			samples.put(metric, values);
+		}
+		values.add(value);
+	}
+	
+	/**
+	 * @param metric the metric name
+	 * @return true if larger values of the metric are better
+	 */
+	public static boolean isHigherBetter(String metric) {
+		return metric.endsWith(RATE_SUFFIX);
+	}
+	
+	/**
+	 * @return the settings that must match for two runs to be comparable
+	 */
+	@JsonIgnore
+	public String getKey() {
+		return system + "/" + protocol + "/" + mode + "/" + fileSize + "/" + bufferSize;
+	}
+	
+	/**
+	 * @return true if no samples were recorded
+	 */
+	@JsonIgnore
+	public boolean isEmpty() {
+		return samples.isEmpty();
+	}
+	
+	public long getTimestamp() {
+		return timestamp;
+	}
+	
+	public void setTimestamp(long timestamp) {
+		this.timestamp = timestamp;
+	}
+	
+	public String getCommand() {
+		return command;
+	}
+	
+	public void setCommand(String command) {
+		this.command = command;
+	}
+	
+	public String getSystem() {
+		return system;
+	}
+	
+	public void setSystem(String system) {
+		this.system = system;
+	}
+	
+	public String getProtocol() {
+		return protocol;
+	}
+	
+	public void setProtocol(String protocol) {
+		this.protocol = protocol;
+	}
+	
+	public String getMode() {
+		return mode;
+	}
+	
+	public void setMode(String mode) {
+		this.mode = mode;
+	}
+	
+	public long getFileSize() {
+		return fileSize;
+	}
+	
+	public void setFileSize(long fileSize) {
+		this.fileSize = fileSize;
+	}
+	
+	public int getBufferSize() {
+		return bufferSize;
+	}
+	
+	public void setBufferSize(int bufferSize) {
+		this.bufferSize = bufferSize;
+	}
+	
+	public Map<String, List<Double>> getSamples() {
+		return samples;
+	}
+	
+	public void setSamples(Map<String, List<Double>> samples) {
+		this.samples = samples;
+	}
+}
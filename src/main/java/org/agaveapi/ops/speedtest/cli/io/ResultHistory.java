@@ -0,0 +1,118 @@
+package org.agaveapi.ops.speedtest.cli.io;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.io.IOUtils;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Append-only store of past benchmark runs, kept as one JSON
+ * {@link HistoryRecord} per line. Every record is written with a single
+ * append so concurrent shells do not interleave partial lines, and lines
+ * that cannot be parsed, ie. from a run killed mid write, are skipped
+ * when reading.
+ *
+ * @author dooley
+ *
+ */
+public class ResultHistory {
+	
+	private final File file;
+	private final ObjectMapper mapper;
+	
+	/**
+	 * @param file the history file. It is created on the first append.
+	 * @param mapper used to serialize the records
+	 */
+	public ResultHistory(File file, ObjectMapper mapper) {
+		this.file = file;
+		this.mapper = mapper;
+	}
+	
+	/**
+	 * Adds a run to the end of the history. Runs without samples are
+	 * ignored.
+	 *
+	 * @param record the run to add
+	 * @throws IOException if the history file cannot be written
+	 */
+	public synchronized void append(HistoryRecord record) throws IOException {
+		if (record.isEmpty()) return;
+		
+		File parent = file.getAbsoluteFile().getParentFile();
+		if (parent != null && !parent.exists() && !parent.mkdirs()) {
+			throw new IOException("Unable to create history directory " + parent.getAbsolutePath());
+		}
+		
+		byte[] line = (mapper.writeValueAsString(record) + "\n").getBytes("UTF-8");
+		OutputStream out = new FileOutputStream(file, true);
+		try {
+			out.write(line);
+		}
+		finally {
+			IOUtils.closeQuietly(out);
+		}
+	}
+	
+	/**
+	 * Returns the recorded runs matching every given filter, oldest first.
+	 *
+	 * @param system the system id, or null for any
+	 * @param protocol the protocol, or null for any
+	 * @param mode the transfer mode, or null for any
+	 * @param fileSize the file size, or null for any
+	 * @param bufferSize the buffer size, or null for any
+	 * @return the matching runs
+	 * @throws IOException if the history file cannot be read
+	 */
+	public synchronized List<HistoryRecord> find(String system, String protocol, String mode, Long fileSize, Integer bufferSize)
+	throws IOException
+	{
+		List<HistoryRecord> records = new ArrayList<HistoryRecord>();
+		if (!file.exists()) return records;
+		
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.trim().isEmpty()) continue;
+				
+				HistoryRecord record;
+				try {
+					record = mapper.readValue(line, HistoryRecord.class);
+				}
+				catch (IOException e) {
+					continue;
+				}
+				
+				if ((system == null || system.equals(record.getSystem())) &&
+						(protocol == null || protocol.equalsIgnoreCase(record.getProtocol())) &&
+						(mode == null || mode.equalsIgnoreCase(record.getMode())) &&
+						(fileSize == null || fileSize == record.getFileSize()) &&
+						(bufferSize == null || bufferSize == record.getBufferSize())) {
+					records.add(record);
+				}
+			}
+		}
+		finally {
+			IOUtils.closeQuietly(reader);
+		}
+		return records;
+	}
+	
+	/**
+	 * @return the history file
+	 */
+	public File getFile() {
+		return file;
+	}
+}
@@ -0,0 +1,199 @@
+package org.agaveapi.ops.speedtest.cli.io;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.agaveapi.ops.speedtest.cli.stats.SampleListener;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Writes every sample of a run as one record the moment it is measured, 
+ * either as newline delimited JSON or as CSV. Each record is flushed 
+ * before the next transfer starts, so a run that dies part way through 
+ * still leaves its completed samples behind.
+ * 
+ * Every record carries the context of the run (system, mode, buffer 
+ * size, ...) followed by the sample itself. Phase samples are numbered 
+ * with the iteration they belong to; setup phases are iteration 0.
+ * 
+ * @author dooley
+ *
+ */
+public class SampleWriter implements SampleListener, Closeable {
+
+	public enum Format { 
+		TABLE, JSON, CSV;
+		
+		/**
+		 * @param format case insensitive name of the format
+		 * @throws IllegalArgumentException if the format is unknown
+		 */
+		public static Format parse(String format) {
+			for (Format f: values()) {
+				if (f.name().equalsIgnoreCase(format)) return f;
+			}
+			throw new IllegalArgumentException("Unknown output format " + format + ". Valid values are table, json and csv.");
+		}
+	}
+	
+	private final Format format;
+	private final ObjectMapper mapper;
+	private final PrintWriter writer;
+	private final boolean closeOutput;
+	private final Map<String, Object> context = new LinkedHashMap<String, Object>();
+	private boolean headerWritten = false;
+	private int uploads = 0;
+	private int downloads = 0;
+	private IOException failure = null;
+	
+	/**
+	 * @param format {@link Format#JSON} or {@link Format#CSV}
+	 * @param out where to write the records
+	 * @param closeOutput whether {@link #close()} also closes {@code out}
+	 * @param mapper used to serialize JSON records
+	 */
+	public SampleWriter(Format format, OutputStream out, boolean closeOutput, ObjectMapper mapper) {
+		if (format == Format.TABLE) {
+			throw new IllegalArgumentException("Samples can only be written as json or csv.");
+		}
+		this.format = format;
+		this.mapper = mapper;
+		this.writer = new PrintWriter(new OutputStreamWriter(out));
+		this.closeOutput = closeOutput;
+	}
+	
+	/**
+	 * Opens a writer appending to {@code file}, or writing to stdout if 
+	 * {@code file} is null.
+	 */
+	public static SampleWriter open(Format format, File file, ObjectMapper mapper) 
+	throws IOException 
+	{
+		if (file == null) {
+			return new SampleWriter(format, System.out, false, mapper);
+		}
+		boolean append = file.exists() && file.length() > 0;
+		SampleWriter sampleWriter = new SampleWriter(format, new FileOutputStream(file, true), true, mapper);
+		// csv headers are only written to new files
+		sampleWriter.headerWritten = append;
+		return sampleWriter;
+	}
+	
+	/**
+	 * Adds a field written with every following record.
+	 * 
+	 * @param name field name
+	 * @param value field value
+	 */
+	public void setContext(String name, Object value) {
+		context.put(name, value);
+	}
+	
+	/**
+	 * Restarts iteration numbering, ie. when a sweep moves on to the next
+	 * configuration.
+	 */
+	public synchronized void resetIterations() {
+		uploads = 0;
+		downloads = 0;
+	}
+	
+	@Override
+	public synchronized void onSample(String direction, String metric, long elapsed, long length) {
+		int iteration = 0;
+		boolean transfer = TRANSFER.equals(metric);
+		if (UPLOAD.equals(direction)) {
+			iteration = transfer ? ++uploads : uploads + 1;
+		}
+		else if (DOWNLOAD.equals(direction)) {
+			iteration = transfer ? ++downloads : downloads + 1;
+		}
+		
+		ObjectNode record = mapper.createObjectNode();
+		record.put("timestamp", System.currentTimeMillis());
+		for (Entry<String, Object> entry: context.entrySet()) {
+			record.set(entry.getKey(), mapper.valueToTree(entry.getValue()));
+		}
+		record.put("direction", direction);
+		record.put("iteration", iteration);
+		record.put("metric", metric);
+		record.put("bytes", length);
+		record.put("elapsedMs", elapsed / 1000000d);
+		record.put("rateKBps", (transfer || INTERVAL.equals(metric)) && elapsed > 0 ? (length / 1024d) / (elapsed / 1000000000d) : 0);
+		
+		write(record);
+	}
+	
+	/**
+	 * Writes a single record and flushes it.
+	 * 
+	 * @param record the record to write
+	 */
+	public synchronized void write(ObjectNode record) {
+		try {
+			if (format == Format.JSON) {
+				writer.println(mapper.writeValueAsString(record));
+			}
+			else {
+				if (!headerWritten) {
+					writer.println(toCsv(record, true));
+					headerWritten = true;
+				}
+				writer.println(toCsv(record, false));
+			}
+			writer.flush();
+			if (writer.checkError() && failure == null) {
+				failure = new IOException("Failed to write sample");
+				System.err.println("Unable to write samples: " + failure.getMessage());
+			}
+		}
+		catch (IOException e) {
+			if (failure == null) {
+				failure = e;
+				System.err.println("Unable to write samples: " + e.getMessage());
+			}
+		}
+	}
+	
+	private String toCsv(ObjectNode record, boolean header) {
+		StringBuilder sb = new StringBuilder();
+		Iterator<Entry<String, JsonNode>> fields = record.fields();
+		while (fields.hasNext()) {
+			Entry<String, JsonNode> field = fields.next();
+			String value = header ? field.getKey() : field.getValue().asText();
+			if (value.indexOf(',') >= 0 || value.indexOf('"') >= 0 || value.indexOf('\n') >= 0) {
+				value = "\"" + value.replace("\"", "\"\"") + "\"";
+			}
+			if (sb.length() > 0) sb.append(',');
+			sb.append(value);
+		}
+		return sb.toString();
+	}
+	
+	/**
+	 * @return the first error hit writing samples, or null
+	 */
+	public IOException getFailure() {
+		return failure;
+	}
+	
+	@Override
+	public void close() {
+		writer.flush();
+		if (closeOutput) {
+			writer.close();
+		}
+	}
+}
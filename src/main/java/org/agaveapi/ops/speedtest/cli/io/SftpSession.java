@@ -0,0 +1,160 @@
+package org.agaveapi.ops.speedtest.cli.io;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.util.Timer;
+import java.util.TimerTask;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * A single sftp process kept open for many operations. Commands are fed
+ * over stdin, as with {@code sftp -b -}, and each one is followed by an
+ * {@code lpwd}. The local command needs no round trip to the server and
+ * sftp runs commands in order, so its reply marks the end of the
+ * operation before it. Every operation then costs only its own data
+ * movement, not a process start, key exchange and authentication.
+ *
+ * In batch mode sftp exits on the first failed command, so a failure
+ * shows up as the end of the output before the marker.
+ *
+ * @author dooley
+ *
+ */
+public class SftpSession implements Closeable {
+
+	public static final String MARKER_COMMAND = "lpwd";
+	public static final String MARKER_REPLY = "Local working directory:";
+
+	private final Process process;
+	private final BufferedReader reader;
+	private final Writer writer;
+	private final PrintStream echo;
+	private final long timeout;
+	private final Timer watchdog = new Timer("sftp-session-watchdog", true);
+	private final StringBuilder transcript = new StringBuilder();
+	private long handshakeTime = 0;
+
+	private SftpSession(Process process, PrintStream echo, long timeout) throws IOException {
+		this.process = process;
+		this.reader = new BufferedReader(new InputStreamReader(process.getInputStream(), "UTF-8"));
+		this.writer = new OutputStreamWriter(process.getOutputStream(), "UTF-8");
+		this.echo = echo;
+		this.timeout = timeout;
+	}
+
+	/**
+	 * Starts the sftp process and waits until it is connected.
+	 *
+	 * @param builder the sftp command, reading its batch from stdin
+	 * @param timeout milliseconds after which a single operation is killed
+	 * @param echo where to copy the sftp output as it arrives, or null
+	 * @return the connected session
+	 * @throws IOException if sftp cannot be started or fails to connect
+	 */
+	public static SftpSession start(ProcessBuilder builder, long timeout, PrintStream echo) throws IOException {
+		long t0 = System.nanoTime();
+		SftpSession session = new SftpSession(builder.redirectErrorStream(true).start(), echo, timeout);
+		try {
+			// the first marker comes back once the connection is authenticated
+			session.execute(null);
+			session.handshakeTime = System.nanoTime() - t0;
+			return session;
+		}
+		catch (IOException e) {
+			session.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Runs one sftp command, ie. a put or get, and waits for it to finish.
+	 *
+	 * @param command the sftp command
+	 * @return the time from sending the command to its completion, in nanoseconds
+	 * @throws IOException if the command fails, times out or sftp exits
+	 */
+	public long execute(String command) throws IOException {
+		TimerTask kill = new TimerTask() {
+			@Override
+			public void run() {
+				process.destroy();
+			}
+		};
+		watchdog.schedule(kill, timeout);
+		try {
+			long t0 = System.nanoTime();
+			writer.write((command == null ? "" : command + "\n") + MARKER_COMMAND + "\n");
+			writer.flush();
+
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.startsWith(MARKER_REPLY)) {
+					return System.nanoTime() - t0;
+				}
+				transcript.append(line).append("\n");
+				if (echo != null) echo.println(line);
+			}
+
+			throw new IOException("sftp exited with " + waitFor() +
+					(command == null ? " while connecting" : " running " + command) + "\n" + transcript);
+		}
+		finally {
+			kill.cancel();
+		}
+	}
+
+	/**
+	 * @return the time from starting the process to the first completed
+	 * command, ie. the process start, key exchange and authentication, in
+	 * nanoseconds
+	 */
+	public long getHandshakeTime() {
+		return handshakeTime;
+	}
+
+	/**
+	 * Sends {@code quit} and waits for sftp to exit. The process is killed
+	 * if it has not exited within the timeout.
+	 */
+	@Override
+	public void close() {
+		TimerTask kill = new TimerTask() {
+			@Override
+			public void run() {
+				process.destroy();
+			}
+		};
+		watchdog.schedule(kill, timeout);
+		try {
+			writer.write("quit\n");
+			writer.flush();
+		}
+		catch (IOException e) {
+			// already exited
+		}
+		finally {
+			IOUtils.closeQuietly(writer);
+			waitFor();
+			kill.cancel();
+			watchdog.cancel();
+			IOUtils.closeQuietly(reader);
+			process.destroy();
+		}
+	}
+
+	private int waitFor() {
+		try {
+			return process.waitFor();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return -1;
+		}
+	}
+}
@@ -0,0 +1,275 @@
+package org.agaveapi.ops.speedtest.cli.io;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Generates pseudo-random test files of an exact size. The file is 
+ * preallocated and split into fixed size blocks which are filled in 
+ * parallel with a SplitMix64 generator seeded from the block index, so 
+ * the content only depends on the size and seed, never on the number of 
+ * threads used.
+ * 
+ * Generated datasets are kept in a local cache directory keyed by size 
+ * and seed, with a sidecar file holding the checksum, so repeated runs 
+ * can reuse them without regenerating.
+ * 
+ * @author dooley
+ *
+ */
+public class TestDataGenerator {
+
+	public static final int BLOCK_SIZE = 4 * 1024 * 1024;
+	public static final long DEFAULT_SEED = 0x5EED5EEDL;
+	public static final String CHECKSUM_SUFFIX = ".crc";
+	
+	private final File cacheDirectory;
+	private final int threads;
+	
+	/**
+	 * @param cacheDirectory directory in which to keep generated datasets
+	 * @param threads number of threads to generate data with
+	 */
+	public TestDataGenerator(File cacheDirectory, int threads) {
+		this.cacheDirectory = cacheDirectory;
+		this.threads = Math.max(1, threads);
+	}
+	
+	/**
+	 * Returns the cached dataset of the given size and seed, generating 
+	 * it first if it is not in the cache or the cached copy does not 
+	 * match its checksum sidecar's size.
+	 * 
+	 * @param size number of bytes in the dataset
+	 * @param seed the random seed
+	 * @return the cached file
+	 * @throws IOException
+	 */
+	public File getCachedFile(long size, long seed) throws IOException {
+		File file = new File(cacheDirectory, String.format("data-%d-%x.bin", size, seed));
+		File sidecar = new File(file.getAbsolutePath() + CHECKSUM_SUFFIX);
+		
+		if (file.exists() && sidecar.exists() && file.length() == size) {
+			Properties props = readSidecar(sidecar);
+			if (String.valueOf(size).equals(props.getProperty("size")) && 
+					String.valueOf(seed).equals(props.getProperty("seed"))) {
+				return file;
+			}
+		}
+		
+		if (!cacheDirectory.exists() && !cacheDirectory.mkdirs()) {
+			throw new IOException("Unable to create test data cache directory " + cacheDirectory.getAbsolutePath());
+		}
+		
+		// generate into a temp file and move into place so an interrupted
+		// run never leaves a partial dataset that looks valid.
+		FileUtils.deleteQuietly(sidecar);
+		File tmp = new File(cacheDirectory, file.getName() + ".tmp");
+		String checksum = generate(tmp, size, seed);
+		FileUtils.deleteQuietly(file);
+		if (!tmp.renameTo(file)) {
+			FileUtils.deleteQuietly(tmp);
+			throw new IOException("Unable to move generated test data to " + file.getAbsolutePath());
+		}
+		
+		Properties props = new Properties();
+		props.setProperty("size", String.valueOf(size));
+		props.setProperty("seed", String.valueOf(seed));
+		props.setProperty("blockSize", String.valueOf(BLOCK_SIZE));
+		props.setProperty("checksum", checksum);
+		OutputStream out = new FileOutputStream(sidecar);
+		try {
+			props.store(out, "speedtest dataset");
+		} finally {
+			out.close();
+		}
+		
+		return file;
+	}
+	
+	/**
+	 * Reads the checksum recorded for a cached dataset.
+	 * 
+	 * @param file a file returned by {@link #getCachedFile(long, long)}
+	 * @return the checksum or null if there is no sidecar
+	 * @throws IOException
+	 */
+	public String getChecksum(File file) throws IOException {
+		File sidecar = new File(file.getAbsolutePath() + CHECKSUM_SUFFIX);
+		return sidecar.exists() ? readSidecar(sidecar).getProperty("checksum") : null;
+	}
+	
+	/**
+	 * Writes exactly {@code size} pseudo-random bytes to {@code target}, 
+	 * overwriting any existing content.
+	 * 
+	 * @param target the file to write
+	 * @param size number of bytes to write
+	 * @param seed the random seed
+	 * @return checksum of the generated content: the CRC32 of the 
+	 * sequence of per-block CRC32 values, as hex
+	 * @throws IOException
+	 */
+	public String generate(File target, long size, final long seed) throws IOException {
+		final int blocks = (int)((size + BLOCK_SIZE - 1) / BLOCK_SIZE);
+		final long[] blockChecksums = new long[blocks];
+		final long totalSize = size;
+		
+		RandomAccessFile raf = new RandomAccessFile(target, "rw");
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, Math.max(1, blocks)));
+		try {
+			raf.setLength(size);
+			final FileChannel channel = raf.getChannel();
+			
+			// each worker fills a contiguous run of blocks with its own buffer
+			int workers = Math.min(threads, Math.max(1, blocks));
+			List<Future<Void>> futures = new ArrayList<Future<Void>>(workers);
+			for (int w=0; w<workers; w++) {
+				final int first = (int)((long)blocks * w / workers);
+				final int last = (int)((long)blocks * (w + 1) / workers);
+				futures.add(executor.submit(new Callable<Void>() {
+					@Override
+					public Void call() throws Exception {
+						ByteBuffer buf = ByteBuffer.allocate(BLOCK_SIZE);
+						CRC32 crc = new CRC32();
+						for (int block=first; block<last; block++) {
+							long position = (long)block * BLOCK_SIZE;
+							int length = (int)Math.min(BLOCK_SIZE, totalSize - position);
+							fillBlock(buf, length, seed, block);
+							
+							crc.reset();
+							crc.update(buf.array(), 0, length);
+							blockChecksums[block] = crc.getValue();
+							
+							while (buf.hasRemaining()) {
+								position += channel.write(buf, position);
+							}
+						}
+						return null;
+					}
+				}));
+			}
+			
+			for (Future<Void> future: futures) {
+				future.get();
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while generating test data", e);
+		}
+		catch (ExecutionException e) {
+			throw new IOException("Failed to generate test data at " + target.getAbsolutePath(), e.getCause());
+		}
+		finally {
+			executor.shutdownNow();
+			raf.close();
+		}
+		
+		CRC32 crc = new CRC32();
+		ByteBuffer value = ByteBuffer.allocate(8);
+		for (long blockChecksum: blockChecksums) {
+			value.clear();
+			value.putLong(blockChecksum);
+			crc.update(value.array(), 0, 8);
+		}
+		return Long.toHexString(crc.getValue());
+	}
+	
+	/**
+	 * Writes exactly {@code size} pseudo-random bytes to {@code target} on
+	 * the calling thread, without a checksum sidecar. Meant for the many 
+	 * small files of a workload, where starting the parallel generator 
+	 * for every file would cost more than writing it. Give every file its
+	 * own seed so no two files share content.
+	 * 
+	 * @param target the file to write
+	 * @param size number of bytes to write
+	 * @param seed the random seed
+	 * @throws IOException
+	 */
+	public static void write(File target, long size, long seed) throws IOException {
+		ByteBuffer buf = ByteBuffer.allocate((int)Math.min(BLOCK_SIZE, Math.max(1, size)));
+		FileOutputStream out = new FileOutputStream(target);
+		try {
+			FileChannel channel = out.getChannel();
+			long blocks = (size + BLOCK_SIZE - 1) / BLOCK_SIZE;
+			for (long block=0; block<blocks; block++) {
+				fillBlock(buf, (int)Math.min(BLOCK_SIZE, size - block * BLOCK_SIZE), seed, block);
+				while (buf.hasRemaining()) {
+					channel.write(buf);
+				}
+			}
+		}
+		finally {
+			out.close();
+		}
+	}
+	
+	/**
+	 * Fills the first {@code length} bytes of the buffer with the content 
+	 * of the given block and flips it for writing.
+	 */
+	static void fillBlock(ByteBuffer buf, int length, long seed, long block) {
+		buf.clear();
+		long state = mix(seed ^ (block * 0x9E3779B97F4A7C15L));
+		int words = length >>> 3;
+		for (int i=0; i<words; i++) {
+			state += 0x9E3779B97F4A7C15L;
+			buf.putLong(mix(state));
+		}
+		if ((length & 7) != 0) {
+			state += 0x9E3779B97F4A7C15L;
+			long tail = mix(state);
+			for (int i=0; i<(length & 7); i++) {
+				buf.put((byte)(tail >>> (i * 8)));
+			}
+		}
+		buf.flip();
+	}
+	
+	/**
+	 * SplitMix64 finalizer.
+	 */
+	private static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+	
+	private Properties readSidecar(File sidecar) throws IOException {
+		Properties props = new Properties();
+		InputStream in = new FileInputStream(sidecar);
+		try {
+			props.load(in);
+		} finally {
+			in.close();
+		}
+		return props;
+	}
+
+	/**
+	 * @return the cacheDirectory
+	 */
+	public File getCacheDirectory() {
+		return cacheDirectory;
+	}
+}
@@ -0,0 +1,137 @@
+package org.agaveapi.ops.speedtest.cli.io;
+
+import java.io.PrintStream;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.agaveapi.ops.speedtest.cli.stats.SampleListener;
+import org.agaveapi.ops.speedtest.cli.stats.ThroughputSeries;
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Samples the bytes moved by a {@link ByteCounter} at a fixed interval 
+ * while a transfer runs, recording each interval in a 
+ * {@link ThroughputSeries}. Sampling happens on a daemon thread so the 
+ * transfer itself is never slowed down by it. Each interval can also be 
+ * passed to a {@link SampleListener} as it is measured and shown on a 
+ * live progress line.
+ * 
+ * @author dooley
+ *
+ */
+public class ThroughputMonitor implements Runnable {
+	
+	private final ByteCounter counter;
+	private final ThroughputSeries series;
+	private final long length;
+	private final SampleListener listener;
+	private final PrintStream progress;
+	private final ScheduledExecutorService sampler;
+	private final long start;
+	private long lastTime;
+	private long lastCount = 0;
+	private boolean stopped = false;
+	
+	private ThroughputMonitor(ByteCounter counter, ThroughputSeries series, long length, 
+			SampleListener listener, PrintStream progress) 
+	{
+		this.counter = counter;
+		this.series = series;
+		this.length = length;
+		this.listener = listener;
+		this.progress = progress;
+		this.sampler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "throughput-sampler");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		this.start = System.nanoTime();
+		this.lastTime = start;
+	}
+	
+	/**
+	 * Starts sampling {@code counter}.
+	 * 
+	 * @param counter the stream of the transfer
+	 * @param series where to record the intervals
+	 * @param length expected size of the transfer, used for the progress line
+	 * @param interval milliseconds between samples
+	 * @param listener receives every interval as {@link SampleListener#INTERVAL}, or null
+	 * @param progress where to print a live progress line, or null
+	 * @return the running monitor
+	 */
+	public static ThroughputMonitor start(ByteCounter counter, ThroughputSeries series, long length, 
+			long interval, SampleListener listener, PrintStream progress) 
+	{
+		ThroughputMonitor monitor = new ThroughputMonitor(counter, series, length, listener, progress);
+		monitor.sampler.scheduleAtFixedRate(monitor, interval, interval, TimeUnit.MILLISECONDS);
+		return monitor;
+	}
+	
+	@Override
+	public void run() {
+		sample();
+	}
+	
+	/**
+	 * Records the bytes moved since the previous sample.
+	 */
+	private synchronized void sample() {
+		if (stopped) return;
+		
+		long now = System.nanoTime();
+		long count = counter.getCount();
+		if (now == lastTime) return;
+		
+		series.record(now - start, now - lastTime, count - lastCount);
+		if (listener != null) {
+			listener.onSample(series.getDirection(), SampleListener.INTERVAL, now - lastTime, count - lastCount);
+		}
+		if (progress != null) {
+			double rate = ((count - lastCount) / 1024d) / ((now - lastTime) / 1000000000d);
+			progress.print(String.format("\r%s %d: %s of %s, %.1f%%, %.0f kB/s   ", 
+					series.getDirection(), 
+					series.getIteration(),
+					FileUtils.byteCountToDisplaySize(count), 
+					FileUtils.byteCountToDisplaySize(length),
+					length > 0 ? 100d * count / length : 100d,
+					rate));
+			progress.flush();
+		}
+		lastTime = now;
+		lastCount = count;
+	}
+	
+	/**
+	 * Stops sampling, recording the final partial interval. Calling it 
+	 * again has no effect.
+	 * 
+	 * @return the recorded series
+	 */
+	public ThroughputSeries stop() {
+		sampler.shutdownNow();
+		try {
+			sampler.awaitTermination(1, TimeUnit.SECONDS);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		
+		synchronized (this) {
+			if (!stopped) {
+				sample();
+				stopped = true;
+				if (progress != null) {
+					progress.print("\r");
+					progress.flush();
+				}
+			}
+		}
+		return series;
+	}
+}
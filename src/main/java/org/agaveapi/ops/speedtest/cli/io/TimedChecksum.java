@@ -0,0 +1,98 @@
+package org.agaveapi.ops.speedtest.cli.io;
+
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Checksum;
+
+/**
+ * {@link Checksum} decorator that keeps track of the time spent updating
+ * the checksum, so the cost of verifying data inline with a transfer can 
+ * be separated from the transfer itself.
+ * 
+ * @author dooley
+ *
+ */
+public class TimedChecksum implements Checksum {
+
+	public static final String CRC32 = "crc32";
+	public static final String ADLER32 = "adler32";
+	
+	private final String algorithm;
+	private final Checksum checksum;
+	private long elapsed = 0;
+	private long bytes = 0;
+	
+	/**
+	 * @param algorithm one of {@link #CRC32} or {@link #ADLER32}
+	 * @throws IllegalArgumentException if the algorithm is not supported
+	 */
+	public TimedChecksum(String algorithm) {
+		if (CRC32.equalsIgnoreCase(algorithm)) {
+			this.checksum = new CRC32();
+		}
+		else if (ADLER32.equalsIgnoreCase(algorithm)) {
+			this.checksum = new Adler32();
+		}
+		else {
+			throw new IllegalArgumentException("Unsupported checksum algorithm " + algorithm + 
+					". Valid values are " + CRC32 + " and " + ADLER32 + ".");
+		}
+		this.algorithm = algorithm.toLowerCase();
+	}
+	
+	@Override
+	public void update(int b) {
+		long t0 = System.nanoTime();
+		checksum.update(b);
+		elapsed += System.nanoTime() - t0;
+		bytes++;
+	}
+
+	@Override
+	public void update(byte[] b, int off, int len) {
+		long t0 = System.nanoTime();
+		checksum.update(b, off, len);
+		elapsed += System.nanoTime() - t0;
+		bytes += len;
+	}
+
+	@Override
+	public long getValue() {
+		return checksum.getValue();
+	}
+
+	@Override
+	public void reset() {
+		checksum.reset();
+		elapsed = 0;
+		bytes = 0;
+	}
+
+	/**
+	 * @return the name of the checksum algorithm
+	 */
+	public String getAlgorithm() {
+		return algorithm;
+	}
+
+	/**
+	 * @return time spent updating the checksum in nanoseconds
+	 */
+	public long getElapsed() {
+		return elapsed;
+	}
+
+	/**
+	 * @return number of bytes added to the checksum
+	 */
+	public long getBytes() {
+		return bytes;
+	}
+	
+	/**
+	 * @return the checksum value as hex
+	 */
+	public String toHexString() {
+		return Long.toHexString(getValue());
+	}
+}
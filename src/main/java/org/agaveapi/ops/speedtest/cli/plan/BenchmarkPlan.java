@@ -0,0 +1,263 @@
+package org.agaveapi.ops.speedtest.cli.plan;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.exc.UnrecognizedPropertyException;
+
+/**
+ * A benchmark campaign read from a JSON plan file. Every combination of 
+ * system, mode, size, buffer size and concurrency is one {@link PlanCase},
+ * and the whole matrix is run {@code rounds} times. For example:
+ * 
+ * <pre>
+ * {
+ *   "systems": ["sftp.example.com", "irods.example.com"],
+ *   "modes": ["streaming", "nio", "native"],
+ *   "sizes": ["1MB", "64MB"],
+ *   "bufferSizes": [32768, 1048576],
+ *   "concurrency": [1, 4],
+ *   "iterations": 3,
+ *   "rounds": 4
+ * }
+ * </pre>
+ * 
+ * Unknown keys are rejected rather than ignored, so a misspelled key 
+ * cannot silently fall back to its default.
+ * 
+ * @author dooley
+ *
+ */
+public class BenchmarkPlan {
+	
+	public static final List<String> MODES = Arrays.asList("put-get", "streaming", "nio", "mmap", "inMemory", "native");
+	
+	private List<String> systems = new ArrayList<String>();
+	private List<String> modes = new ArrayList<String>(Arrays.asList("streaming"));
+	private List<String> sizes = new ArrayList<String>(Arrays.asList("2MB"));
+	private List<Integer> bufferSizes = new ArrayList<Integer>(Arrays.asList(32768));
+	private List<Integer> concurrency = new ArrayList<Integer>(Arrays.asList(1));
+	private int iterations = 1;
+	private int rounds = 1;
+	private boolean upload = true;
+	private boolean download = true;
+	
+	public BenchmarkPlan() {}
+	
+	/**
+	 * Reads and validates a plan file.
+	 * 
+	 * @param file the JSON plan
+	 * @param mapper used to parse the plan
+	 * @return the plan
+	 * @throws IOException if the file cannot be read or parsed
+	 * @throws IllegalArgumentException if the plan has an unknown key or 
+	 * is not valid
+	 */
+	public static BenchmarkPlan load(File file, ObjectMapper mapper) throws IOException {
+		String name = file.getName().toLowerCase();
+		if (name.endsWith(".yml") || name.endsWith(".yaml")) {
+			throw new IllegalArgumentException("Plans are read as JSON. Please convert " + file.getName() + " to JSON.");
+		}
+		BenchmarkPlan plan;
+		try {
+			plan = mapper.reader(BenchmarkPlan.class)
+					.with(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES)
+					.readValue(file);
+		}
+		catch (UnrecognizedPropertyException e) {
+			throw new IllegalArgumentException("Unknown key \"" + e.getPropertyName() + "\" in plan " + 
+					file.getName() + ". Valid keys are " + e.getKnownPropertyIds(), e);
+		}
+		plan.validate();
+		return plan;
+	}
+	
+	/**
+	 * @throws IllegalArgumentException if the plan is empty or has unknown 
+	 * modes or values out of range
+	 */
+	public void validate() {
+		if (systems.isEmpty()) {
+			throw new IllegalArgumentException("A plan needs at least one system.");
+		}
+		if (modes.isEmpty() || sizes.isEmpty() || bufferSizes.isEmpty() || concurrency.isEmpty()) {
+			throw new IllegalArgumentException("Modes, sizes, buffer sizes and concurrency cannot be empty.");
+		}
+		for (String mode: modes) {
+			if (!MODES.contains(mode)) {
+				throw new IllegalArgumentException("Unknown mode " + mode + ". Valid modes are " + MODES);
+			}
+		}
+		for (int bufferSize: bufferSizes) {
+			if (bufferSize < 1) throw new IllegalArgumentException("Buffer sizes must be positive.");
+		}
+		for (int clients: concurrency) {
+			if (clients < 1) throw new IllegalArgumentException("Concurrency levels must be positive.");
+		}
+		if (iterations < 1 || rounds < 1) {
+			throw new IllegalArgumentException("Iterations and rounds must be positive.");
+		}
+		if (!upload && !download) {
+			throw new IllegalArgumentException("A plan must include uploads, downloads or both.");
+		}
+	}
+	
+	/**
+	 * Returns every case of a single round in plan order. The native 
+	 * utilities pick their own buffers and use a single connection, so 
+	 * native cases are only expanded by size.
+	 * 
+	 * @return the cases of one round
+	 */
+	public List<PlanCase> expand() {
+		List<PlanCase> cases = new ArrayList<PlanCase>();
+		for (String system: systems) {
+			for (String mode: modes) {
+				for (String size: sizes) {
+					if ("native".equals(mode)) {
+						cases.add(new PlanCase(0, system, mode, size, 0, 1));
+						continue;
+					}
+					for (int bufferSize: bufferSizes) {
+						for (int clients: concurrency) {
+							cases.add(new PlanCase(0, system, mode, size, bufferSize, clients));
+						}
+					}
+				}
+			}
+		}
+		return cases;
+	}
+	
+	/**
+	 * @return the ids of the systems to test
+	 */
+	public List<String> getSystems() {
+		return systems;
+	}
+	
+	/**
+	 * @param systems the ids of the systems to test
+	 */
+	public void setSystems(List<String> systems) {
+		this.systems = systems;
+	}
+	
+	/**
+	 * @return the transfer modes, one of {@link #MODES}
+	 */
+	public List<String> getModes() {
+		return modes;
+	}
+	
+	/**
+	 * @param modes the transfer modes, one of {@link #MODES}
+	 */
+	public void setModes(List<String> modes) {
+		this.modes = modes;
+	}
+	
+	/**
+	 * @return the test file sizes, ie. 2MB
+	 */
+	public List<String> getSizes() {
+		return sizes;
+	}
+	
+	/**
+	 * @param sizes the test file sizes, ie. 2MB
+	 */
+	public void setSizes(List<String> sizes) {
+		this.sizes = sizes;
+	}
+	
+	/**
+	 * @return the buffer sizes in bytes
+	 */
+	public List<Integer> getBufferSizes() {
+		return bufferSizes;
+	}
+	
+	/**
+	 * @param bufferSizes the buffer sizes in bytes
+	 */
+	public void setBufferSizes(List<Integer> bufferSizes) {
+		this.bufferSizes = bufferSizes;
+	}
+	
+	/**
+	 * @return the numbers of concurrent clients
+	 */
+	public List<Integer> getConcurrency() {
+		return concurrency;
+	}
+	
+	/**
+	 * @param concurrency the numbers of concurrent clients
+	 */
+	public void setConcurrency(List<Integer> concurrency) {
+		this.concurrency = concurrency;
+	}
+	
+	/**
+	 * @return the iterations of every case per round
+	 */
+	public int getIterations() {
+		return iterations;
+	}
+	
+	/**
+	 * @param iterations the iterations of every case per round
+	 */
+	public void setIterations(int iterations) {
+		this.iterations = iterations;
+	}
+	
+	/**
+	 * @return the number of times the whole matrix is run
+	 */
+	public int getRounds() {
+		return rounds;
+	}
+	
+	/**
+	 * @param rounds the number of times the whole matrix is run
+	 */
+	public void setRounds(int rounds) {
+		this.rounds = rounds;
+	}
+	
+	/**
+	 * @return whether uploads are tested
+	 */
+	public boolean isUpload() {
+		return upload;
+	}
+	
+	/**
+	 * @param upload whether uploads are tested
+	 */
+	public void setUpload(boolean upload) {
+		this.upload = upload;
+	}
+	
+	/**
+	 * @return whether downloads are tested
+	 */
+	public boolean isDownload() {
+		return download;
+	}
+	
+	/**
+	 * @param download whether downloads are tested
+	 */
+	public void setDownload(boolean download) {
+		this.download = download;
+	}
+}
@@ -0,0 +1,87 @@
+package org.agaveapi.ops.speedtest.cli.plan;
+
+/**
+ * One combination of settings from a {@link BenchmarkPlan}, run once per
+ * round.
+ * 
+ * @author dooley
+ *
+ */
+public class PlanCase {
+	
+	private final int round;
+	private final String system;
+	private final String mode;
+	private final String size;
+	private final int bufferSize;
+	private final int concurrency;
+	
+	/**
+	 * @param round the round the case is run in, starting at 0
+	 * @param system the system id
+	 * @param mode the transfer mode, one of {@link BenchmarkPlan#MODES}
+	 * @param size the human readable file size
+	 * @param bufferSize the copy buffer size
+	 * @param concurrency the number of concurrent clients
+	 */
+	public PlanCase(int round, String system, String mode, String size, int bufferSize, int concurrency) {
+		this.round = round;
+		this.system = system;
+		this.mode = mode;
+		this.size = size;
+		this.bufferSize = bufferSize;
+		this.concurrency = concurrency;
+	}
+	
+	/**
+	 * @param round the round to run the case in
+	 * @return a copy of this case in the given round
+	 */
+	public PlanCase inRound(int round) {
+		return new PlanCase(round, system, mode, size, bufferSize, concurrency);
+	}
+	
+	/**
+	 * @return an id unique within a plan, used to track completed cases
+	 */
+	public String getId() {
+		return round + "/" + system + "/" + mode + "/" + size + "/" + bufferSize + "/" + concurrency;
+	}
+	
+	/**
+	 * @return true if the case runs through the native utilities rather 
+	 * than the service adaptors
+	 */
+	public boolean isNative() {
+		return "native".equals(mode);
+	}
+	
+	public int getRound() {
+		return round;
+	}
+	
+	public String getSystem() {
+		return system;
+	}
+	
+	public String getMode() {
+		return mode;
+	}
+	
+	public String getSize() {
+		return size;
+	}
+	
+	public int getBufferSize() {
+		return bufferSize;
+	}
+	
+	public int getConcurrency() {
+		return concurrency;
+	}
+	
+	@Override
+	public String toString() {
+		return getId();
+	}
+}
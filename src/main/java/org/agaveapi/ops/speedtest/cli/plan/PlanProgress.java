@@ -0,0 +1,87 @@
+package org.agaveapi.ops.speedtest.cli.plan;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Tracks which cases of a plan have completed, so an interrupted campaign
+ * can resume where it stopped. The id of every completed case is appended
+ * to the progress file as soon as the case finishes.
+ * 
+ * @author dooley
+ *
+ */
+public class PlanProgress {
+	
+	public static final String PROGRESS_SUFFIX = ".progress";
+	
+	private final File file;
+	private final Set<String> completed = new HashSet<String>();
+	
+	/**
+	 * @param file the progress file
+	 * @throws IOException if an existing progress file cannot be read
+	 */
+	public PlanProgress(File file) throws IOException {
+		this.file = file;
+		if (file.exists()) {
+			for (String line: FileUtils.readLines(file, "UTF-8")) {
+				if (!line.trim().isEmpty()) completed.add(line.trim());
+			}
+		}
+	}
+	
+	/**
+	 * @param plan the plan file
+	 * @return the progress file kept next to the plan
+	 */
+	public static File getProgressFile(File plan) {
+		return new File(plan.getAbsolutePath() + PROGRESS_SUFFIX);
+	}
+	
+	/**
+	 * @param planCase the case to check
+	 * @return true if the case completed in an earlier run
+	 */
+	public boolean isDone(PlanCase planCase) {
+		return completed.contains(planCase.getId());
+	}
+	
+	/**
+	 * Records a completed case.
+	 * 
+	 * @param planCase the case that completed
+	 * @throws IOException if the progress file cannot be written
+	 */
+	public void markDone(PlanCase planCase) throws IOException {
+		FileUtils.writeStringToFile(file, planCase.getId() + "\n", "UTF-8", true);
+		completed.add(planCase.getId());
+	}
+	
+	/**
+	 * Forgets every completed case, ie. to run a plan again from the start.
+	 */
+	public void reset() {
+		FileUtils.deleteQuietly(file);
+		completed.clear();
+	}
+	
+	/**
+	 * @return the ids of the completed cases
+	 */
+	public Set<String> getCompleted() {
+		return Collections.unmodifiableSet(completed);
+	}
+	
+	/**
+	 * @return the progress file
+	 */
+	public File getFile() {
+		return file;
+	}
+}
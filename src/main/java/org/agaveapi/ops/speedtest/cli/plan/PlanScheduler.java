@@ -0,0 +1,62 @@
+package org.agaveapi.ops.speedtest.cli.plan;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Orders the cases of a {@link BenchmarkPlan} for execution. 
+ * 
+ * All cases of a system run back to back within a round, so the harness 
+ * connects to each system once per round rather than once per case. 
+ * Every round the order of the systems, and of the cases within each 
+ * system, is rotated by one, so each case is measured at a different 
+ * point of the campaign, and at a different distance from the connect,
+ * in every round. Repeating rounds then spreads every case over the time 
+ * the campaign runs instead of measuring it in one burst.
+ * 
+ * @author dooley
+ *
+ */
+public class PlanScheduler {
+	
+	private PlanScheduler() {}
+	
+	/**
+	 * @param plan the plan to schedule
+	 * @return every case of every round in the order to run them
+	 */
+	public static List<PlanCase> schedule(BenchmarkPlan plan) {
+		Map<String, List<PlanCase>> bySystem = new LinkedHashMap<String, List<PlanCase>>();
+		for (PlanCase planCase: plan.expand()) {
+			List<PlanCase> cases = bySystem.get(planCase.getSystem());
+			if (cases == null) {
+				cases = new ArrayList<PlanCase>();
+				bySystem.put(planCase.getSystem(), cases);
+			}
+			cases.add(planCase);
+		}
+		
+		List<String> systems = new ArrayList<String>(bySystem.keySet());
+		List<PlanCase> schedule = new ArrayList<PlanCase>();
+		for (int round=0; round<plan.getRounds(); round++) {
+			for (String system: rotate(systems, round)) {
+				for (PlanCase planCase: rotate(bySystem.get(system), round)) {
+					schedule.add(planCase.inRound(round));
+				}
+			}
+		}
+		return schedule;
+	}
+	
+	/**
+	 * @return a copy of {@code values} rotated left by {@code distance}
+	 */
+	private static <T> List<T> rotate(List<T> values, int distance) {
+		List<T> rotated = new ArrayList<T>(values);
+		Collections.rotate(rotated, -(distance % Math.max(1, values.size())));
+		return rotated;
+	}
+}
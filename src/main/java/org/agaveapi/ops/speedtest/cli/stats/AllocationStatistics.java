@@ -0,0 +1,128 @@
+package org.agaveapi.ops.speedtest.cli.stats;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Distribution of the heap bytes allocated by the transferring thread 
+ * during each upload and download. Allocation by the harness copy loop 
+ * and by the adaptor on the calling thread both show up here; threads 
+ * the adaptor starts on its own are not counted.
+ * 
+ * @author dooley
+ *
+ */
+public class AllocationStatistics {
+
+	/**
+	 * Bytes allocated by a pair of {@link #currentThreadAllocatedBytes()} 
+	 * calls themselves. Older JVMs box the thread id into an array on 
+	 * every call, which would otherwise show up in every sample.
+	 */
+	private static final long MEASUREMENT_OVERHEAD = calibrate();
+	
+	private final Histogram uploads = new Histogram();
+	private final Histogram downloads = new Histogram();
+	private long harnessUpload = -1;
+	private long harnessDownload = -1;
+	
+	public AllocationStatistics() {}
+	
+	/**
+	 * @return true if the JVM can report per thread allocation
+	 */
+	public static boolean isSupported() {
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		return threads instanceof com.sun.management.ThreadMXBean && 
+				((com.sun.management.ThreadMXBean)threads).isThreadAllocatedMemorySupported();
+	}
+	
+	/**
+	 * @return the total number of heap bytes allocated by the current 
+	 * thread so far, or 0 if the JVM cannot report it
+	 */
+	public static long currentThreadAllocatedBytes() {
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if (threads instanceof com.sun.management.ThreadMXBean) {
+			com.sun.management.ThreadMXBean sunThreads = (com.sun.management.ThreadMXBean)threads;
+			if (sunThreads.isThreadAllocatedMemorySupported()) {
+				if (!sunThreads.isThreadAllocatedMemoryEnabled()) {
+					sunThreads.setThreadAllocatedMemoryEnabled(true);
+				}
+				return Math.max(0, sunThreads.getThreadAllocatedBytes(Thread.currentThread().getId()));
+			}
+		}
+		return 0;
+	}
+	
+	/**
+	 * @param start the value of {@link #currentThreadAllocatedBytes()} at
+	 * the start of the measured code
+	 * @return heap bytes allocated by the current thread since then, net 
+	 * of the cost of measuring
+	 */
+	public static long allocatedSince(long start) {
+		return Math.max(0, currentThreadAllocatedBytes() - start - MEASUREMENT_OVERHEAD);
+	}
+	
+	private static long calibrate() {
+		long overhead = 0;
+		for (int i=0; i<3; i++) {
+			long start = currentThreadAllocatedBytes();
+			overhead = currentThreadAllocatedBytes() - start;
+		}
+		return Math.max(0, overhead);
+	}
+	
+	/**
+	 * @param allocated heap bytes allocated during one upload
+	 */
+	public void recordUpload(long allocated) {
+		uploads.record(Math.max(0, allocated));
+	}
+	
+	/**
+	 * @param allocated heap bytes allocated during one download
+	 */
+	public void recordDownload(long allocated) {
+		downloads.record(Math.max(0, allocated));
+	}
+
+	/**
+	 * @return heap bytes allocated per upload
+	 */
+	public Histogram getUploads() {
+		return uploads;
+	}
+
+	/**
+	 * @return heap bytes allocated per download
+	 */
+	public Histogram getDownloads() {
+		return downloads;
+	}
+
+	/**
+	 * @return heap bytes allocated by the harness alone for one upload, or
+	 * -1 if it was not measured
+	 */
+	public long getHarnessUpload() {
+		return harnessUpload;
+	}
+
+	public void setHarnessUpload(long harnessUpload) {
+		this.harnessUpload = harnessUpload;
+	}
+
+	/**
+	 * @return heap bytes allocated by the harness alone for one download, 
+	 * or -1 if it was not measured
+	 */
+	public long getHarnessDownload() {
+		return harnessDownload;
+	}
+
+	public void setHarnessDownload(long harnessDownload) {
+		this.harnessDownload = harnessDownload;
+	}
+}
@@ -0,0 +1,114 @@
+package org.agaveapi.ops.speedtest.cli.stats;
+
+import org.agaveapi.ops.speedtest.cli.io.TimedChecksum;
+
+/**
+ * Totals of the inline checksums computed during a benchmark run. Every 
+ * download is compared with the checksum of the most recent upload so 
+ * corrupted or truncated round trips show up next to their rates.
+ * 
+ * @author dooley
+ *
+ */
+public class ChecksumStatistics {
+
+	private final String algorithm;
+	private long uploadElapsed = 0;
+	private long uploadBytes = 0;
+	private long downloadElapsed = 0;
+	private long downloadBytes = 0;
+	private int uploads = 0;
+	private int downloads = 0;
+	private int verified = 0;
+	private int mismatched = 0;
+	
+	/**
+	 * @param algorithm name of the checksum algorithm in use
+	 */
+	public ChecksumStatistics(String algorithm) {
+		this.algorithm = algorithm;
+	}
+	
+	/**
+	 * @param checksum the checksum of the bytes sent by one upload
+	 */
+	public void recordUpload(TimedChecksum checksum) {
+		uploadElapsed += checksum.getElapsed();
+		uploadBytes += checksum.getBytes();
+		uploads++;
+	}
+	
+	/**
+	 * @param checksum the checksum of the bytes received by one download
+	 * @param expected the checksum of the uploaded data, or null if there 
+	 * is nothing to compare against
+	 * @param length the number of bytes the download should have received
+	 * @return false if the download was short or did not match the 
+	 * expected checksum
+	 */
+	public boolean recordDownload(TimedChecksum checksum, Long expected, long length) {
+		downloadElapsed += checksum.getElapsed();
+		downloadBytes += checksum.getBytes();
+		downloads++;
+		
+		if (expected == null) {
+			return true;
+		}
+		else if (checksum.getBytes() == length && expected.longValue() == checksum.getValue()) {
+			verified++;
+			return true;
+		}
+		else {
+			mismatched++;
+			return false;
+		}
+	}
+
+	public String getAlgorithm() {
+		return algorithm;
+	}
+
+	/**
+	 * @return time spent checksumming uploads in nanoseconds
+	 */
+	public long getUploadElapsed() {
+		return uploadElapsed;
+	}
+
+	public long getUploadBytes() {
+		return uploadBytes;
+	}
+
+	/**
+	 * @return time spent checksumming downloads in nanoseconds
+	 */
+	public long getDownloadElapsed() {
+		return downloadElapsed;
+	}
+
+	public long getDownloadBytes() {
+		return downloadBytes;
+	}
+
+	public int getUploads() {
+		return uploads;
+	}
+
+	public int getDownloads() {
+		return downloads;
+	}
+
+	/**
+	 * @return number of downloads that matched the uploaded checksum
+	 */
+	public int getVerified() {
+		return verified;
+	}
+
+	/**
+	 * @return number of downloads that did not match the uploaded checksum
+	 */
+	public int getMismatched() {
+		return mismatched;
+	}
+}
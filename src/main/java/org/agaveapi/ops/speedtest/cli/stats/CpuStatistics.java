@@ -0,0 +1,113 @@
+package org.agaveapi.ops.speedtest.cli.stats;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * CPU time spent moving data, both on the thread running the transfer 
+ * and across the whole JVM, so the cost of different local I/O paths can
+ * be compared per byte rather than per second. All durations are in 
+ * nanoseconds.
+ * 
+ * Thread CPU time covers the harness copy loop and whatever the adaptor 
+ * does on the calling thread. Process CPU time also includes adaptor 
+ * worker threads, the collector and anything else running in the JVM.
+ * 
+ * @author dooley
+ *
+ */
+public class CpuStatistics {
+
+	public static final double BYTES_PER_GIGABYTE = 1024d * 1024 * 1024;
+	
+	private final Histogram times = new Histogram();
+	private long bytes = 0;
+	private long threadCpuTime = 0;
+	private long processCpuTime = 0;
+	
+	public CpuStatistics() {}
+	
+	/**
+	 * Records a single transfer.
+	 * 
+	 * @param length number of bytes transferred
+	 * @param elapsed wall clock duration of the transfer
+	 * @param threadCpuTime CPU time used by the transferring thread
+	 * @param processCpuTime CPU time used by the JVM
+	 */
+	public void record(long length, long elapsed, long threadCpuTime, long processCpuTime) {
+		times.record(Math.max(0, elapsed));
+		this.bytes += length;
+		this.threadCpuTime += Math.max(0, threadCpuTime);
+		this.processCpuTime += Math.max(0, processCpuTime);
+	}
+	
+	/**
+	 * @return the CPU time of the current thread, or 0 if the JVM does not 
+	 * support measuring it
+	 */
+	public static long currentThreadCpuTime() {
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if (!threads.isCurrentThreadCpuTimeSupported()) {
+			return 0;
+		}
+		if (!threads.isThreadCpuTimeEnabled()) {
+			threads.setThreadCpuTimeEnabled(true);
+		}
+		return threads.getCurrentThreadCpuTime();
+	}
+	
+	/**
+	 * @return the CPU time of the whole JVM, or 0 if the JVM does not 
+	 * support measuring it
+	 */
+	public static long processCpuTime() {
+		OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+		if (os instanceof com.sun.management.OperatingSystemMXBean) {
+			return Math.max(0, ((com.sun.management.OperatingSystemMXBean)os).getProcessCpuTime());
+		}
+		return 0;
+	}
+
+	/**
+	 * @return the wall clock durations of the recorded transfers
+	 */
+	public Histogram getTimes() {
+		return times;
+	}
+
+	public long getBytes() {
+		return bytes;
+	}
+
+	public long getThreadCpuTime() {
+		return threadCpuTime;
+	}
+
+	public long getProcessCpuTime() {
+		return processCpuTime;
+	}
+	
+	/**
+	 * @return thread CPU time per GB transferred
+	 */
+	public double getThreadCpuTimePerGigabyte() {
+		return bytes == 0 ? 0 : threadCpuTime * BYTES_PER_GIGABYTE / bytes;
+	}
+	
+	/**
+	 * @return process CPU time per GB transferred
+	 */
+	public double getProcessCpuTimePerGigabyte() {
+		return bytes == 0 ? 0 : processCpuTime * BYTES_PER_GIGABYTE / bytes;
+	}
+	
+	/**
+	 * @return average number of cores kept busy by the JVM while transferring
+	 */
+	public double getUtilization() {
+		double wall = times.getMean() * times.getTotalCount();
+		return wall == 0 ? 0 : processCpuTime / wall;
+	}
+}
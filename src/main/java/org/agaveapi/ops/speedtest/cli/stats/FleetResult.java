@@ -0,0 +1,110 @@
+package org.agaveapi.ops.speedtest.cli.stats;
+
+/**
+ * Outcome of probing one system during a fleet sweep. Results sort with
+ * failed systems first, followed by the rest from the slowest to the
+ * fastest combined transfer rate.
+ *
+ * @author dooley
+ *
+ */
+public class FleetResult implements Comparable<FleetResult> {
+	
+	private final String systemId;
+	private final String host;
+	private final String protocol;
+	private final TransferStatistics statistics = new TransferStatistics();
+	private final PhaseStatistics phases = new PhaseStatistics();
+	private String error = null;
+	
+	/**
+	 * @param systemId the system id
+	 * @param host the storage host of the system
+	 * @param protocol the storage protocol of the system
+	 */
+	public FleetResult(String systemId, String host, String protocol) {
+		this.systemId = systemId;
+		this.host = host;
+		this.protocol = protocol;
+	}
+	
+	/**
+	 * @return the mean upload rate in kB/s, or 0 if nothing was uploaded
+	 */
+	public double getUploadRate() {
+		return statistics.getUploadRates().getTotalCount() == 0 ? 0 : statistics.getUploadRates().getMean();
+	}
+	
+	/**
+	 * @return the mean download rate in kB/s, or 0 if nothing was downloaded
+	 */
+	public double getDownloadRate() {
+		return statistics.getDownloadRates().getTotalCount() == 0 ? 0 : statistics.getDownloadRates().getMean();
+	}
+	
+	/**
+	 * @return the mean of the upload and download rates that were measured
+	 */
+	public double getCombinedRate() {
+		int directions = 0;
+		if (statistics.getUploadRates().getTotalCount() > 0) directions++;
+		if (statistics.getDownloadRates().getTotalCount() > 0) directions++;
+		return directions == 0 ? 0 : (getUploadRate() + getDownloadRate()) / directions;
+	}
+	
+	/**
+	 * @return true if the system could not be tested
+	 */
+	public boolean isFailed() {
+		return error != null;
+	}
+	
+	@Override
+	public int compareTo(FleetResult other) {
+		if (isFailed() != other.isFailed()) {
+			return isFailed() ? -1 : 1;
+		}
+		int byRate = Double.compare(getCombinedRate(), other.getCombinedRate());
+		return byRate != 0 ? byRate : systemId.compareTo(other.systemId);
+	}
+	
+	public String getSystemId() {
+		return systemId;
+	}
+	
+	public String getHost() {
+		return host;
+	}
+	
+	public String getProtocol() {
+		return protocol;
+	}
+	
+	/**
+	 * @return the transfers of the probe
+	 */
+	public TransferStatistics getStatistics() {
+		return statistics;
+	}
+	
+	/**
+	 * @return the setup and transfer phases of the probe
+	 */
+	public PhaseStatistics getPhases() {
+		return phases;
+	}
+	
+	/**
+	 * @return why the system could not be tested, or null
+	 */
+	public String getError() {
+		return error;
+	}
+	
+	/**
+	 * @param error why the system could not be tested
+	 */
+	public void setError(String error) {
+		this.error = error;
+	}
+}
@@ -0,0 +1,184 @@
+package org.agaveapi.ops.speedtest.cli.stats;
+
+/**
+ * Constant memory histogram of non-negative long values. Values are 
+ * recorded into log-linear buckets in the style of HdrHistogram, so 
+ * every recorded value is reproduced to within 1/128th of its magnitude 
+ * no matter how many samples are taken. Exact min, max, mean and 
+ * standard deviation are tracked alongside the buckets.
+ * 
+ * This class is not thread safe.
+ * 
+ * @author dooley
+ *
+ */
+public class Histogram {
+	
+	/**
+	 * Two-sided 95% t-distribution critical values for 1 to 30 degrees of freedom.
+	 */
+	private static final double[] T_95 = new double[] {
+		12.706, 4.303, 3.182, 2.776, 2.571, 2.447, 2.365, 2.306, 2.262, 2.228,
+		2.201, 2.179, 2.160, 2.145, 2.131, 2.120, 2.110, 2.101, 2.093, 2.086,
+		2.080, 2.074, 2.069, 2.064, 2.060, 2.056, 2.052, 2.048, 2.045, 2.042 };
+	
+	private static final int SUB_BUCKET_BITS = 8;
+	private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+	private static final int SUB_BUCKET_HALF_COUNT_MAGNITUDE = SUB_BUCKET_BITS - 1;
+	private static final int SUB_BUCKET_HALF_COUNT = 1 << SUB_BUCKET_HALF_COUNT_MAGNITUDE;
+	private static final long SUB_BUCKET_MASK = SUB_BUCKET_COUNT - 1;
+	private static final int BUCKET_COUNT = 64 - SUB_BUCKET_BITS + 1;
+	
+	private final long[] counts = new long[(BUCKET_COUNT + 1) * SUB_BUCKET_HALF_COUNT];
+	private long totalCount = 0;
+	private long min = Long.MAX_VALUE;
+	private long max = 0;
+	private double mean = 0;
+	private double m2 = 0;
+	
+	public Histogram() {}
+	
+	/**
+	 * Records a single value.
+	 * 
+	 * @param value the value to record. Must not be negative.
+	 */
+	public void record(long value) {
+		if (value < 0) {
+			throw new IllegalArgumentException("Histogram values cannot be negative: " + value);
+		}
+		
+		counts[countsIndex(value)]++;
+		totalCount++;
+		min = Math.min(min, value);
+		max = Math.max(max, value);
+		
+		// Welford's running variance
+		double delta = value - mean;
+		mean += delta / totalCount;
+		m2 += delta * (value - mean);
+	}
+	
+	/**
+	 * Adds all the values recorded in another histogram to this one.
+	 * 
+	 * @param other histogram to merge into this one
+	 */
+	public void add(Histogram other) {
+		if (other.totalCount == 0) return;
+		
+		for (int i=0; i<counts.length; i++) {
+			counts[i] += other.counts[i];
+		}
+		
+		// Chan's parallel variance combination
+		long n = totalCount + other.totalCount;
+		double delta = other.mean - mean;
+		m2 += other.m2 + delta * delta * ((double) totalCount * other.totalCount / n);
+		mean += delta * other.totalCount / n;
+		totalCount = n;
+		min = Math.min(min, other.min);
+		max = Math.max(max, other.max);
+	}
+	
+	/**
+	 * Clears all recorded values.
+	 */
+	public void reset() {
+		java.util.Arrays.fill(counts, 0);
+		totalCount = 0;
+		min = Long.MAX_VALUE;
+		max = 0;
+		mean = 0;
+		m2 = 0;
+	}
+	
+	/**
+	 * Returns the value at the given percentile. The result is the highest 
+	 * value equivalent to the bucket holding the percentile, capped at the 
+	 * recorded maximum.
+	 * 
+	 * @param percentile between 0 and 100
+	 * @return the value at the percentile or 0 if nothing was recorded
+	 */
+	public long getValueAtPercentile(double percentile) {
+		if (totalCount == 0) return 0;
+		
+		double p = Math.min(Math.max(percentile, 0), 100);
+		long target = Math.max(1, (long)Math.ceil(p / 100 * totalCount));
+		long cumulative = 0;
+		for (int i=0; i<counts.length; i++) {
+			cumulative += counts[i];
+			if (cumulative >= target) {
+				return Math.max(min, Math.min(max, highestEquivalentValue(i)));
+			}
+		}
+		return max;
+	}
+	
+	/**
+	 * @return the number of recorded values
+	 */
+	public long getTotalCount() {
+		return totalCount;
+	}
+	
+	/**
+	 * @return the smallest recorded value or 0 if nothing was recorded
+	 */
+	public long getMin() {
+		return totalCount == 0 ? 0 : min;
+	}
+	
+	/**
+	 * @return the largest recorded value
+	 */
+	public long getMax() {
+		return max;
+	}
+	
+	/**
+	 * @return the exact mean of the recorded values
+	 */
+	public double getMean() {
+		return mean;
+	}
+	
+	/**
+	 * @return the sample standard deviation of the recorded values
+	 */
+	public double getStdDeviation() {
+		return totalCount < 2 ? 0 : Math.sqrt(m2 / (totalCount - 1));
+	}
+	
+	/**
+	 * Half width of the 95% confidence interval of the mean, using the 
+	 * t-distribution for small sample counts.
+	 * 
+	 * @return the half width, so the interval is mean +/- this value
+	 */
+	public double getConfidenceInterval95() {
+		if (totalCount < 2) return 0;
+		
+		long df = totalCount - 1;
+		double t = df <= T_95.length ? T_95[(int)df - 1] : 1.96;
+		return t * getStdDeviation() / Math.sqrt(totalCount);
+	}
+	
+	private int countsIndex(long value) {
+		int bucketIndex = (64 - Long.numberOfLeadingZeros(value | SUB_BUCKET_MASK)) - SUB_BUCKET_BITS;
+		int subBucketIndex = (int)(value >>> bucketIndex);
+		return ((bucketIndex + 1) << SUB_BUCKET_HALF_COUNT_MAGNITUDE) + (subBucketIndex - SUB_BUCKET_HALF_COUNT);
+	}
+	
+	private long highestEquivalentValue(int index) {
+		int bucketIndex = (index >> SUB_BUCKET_HALF_COUNT_MAGNITUDE) - 1;
+		int subBucketIndex = (index & (SUB_BUCKET_HALF_COUNT - 1)) + SUB_BUCKET_HALF_COUNT;
+		if (bucketIndex < 0) {
+			// the first half bucket holds exact values
+			return index;
+		}
+		long lowest = ((long)subBucketIndex) << bucketIndex;
+		return lowest + (1L << bucketIndex) - 1;
+	}
+}
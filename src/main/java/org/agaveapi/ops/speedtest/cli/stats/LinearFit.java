@@ -0,0 +1,88 @@
+package org.agaveapi.ops.speedtest.cli.stats;
+
+/**
+ * Weighted least squares fit of {@code y = intercept + slope * x}.
+ * 
+ * @author dooley
+ *
+ */
+public class LinearFit {
+
+	private final double intercept;
+	private final double slope;
+	private final double rSquared;
+	
+	private LinearFit(double intercept, double slope, double rSquared) {
+		this.intercept = intercept;
+		this.slope = slope;
+		this.rSquared = rSquared;
+	}
+	
+	/**
+	 * Fits a line through the given points.
+	 * 
+	 * @param x the independent values
+	 * @param y the dependent values
+	 * @param weights the weight of each point. Use 1/y^2 to minimize the
+	 * relative rather than the absolute error when y spans several orders
+	 * of magnitude.
+	 * @return the fitted line
+	 * @throws IllegalArgumentException if fewer than two distinct x values are given
+	 */
+	public static LinearFit fit(double[] x, double[] y, double[] weights) {
+		if (x.length != y.length || x.length != weights.length) {
+			throw new IllegalArgumentException("Values and weights must be the same length.");
+		}
+		
+		double sw = 0, swx = 0, swy = 0;
+		for (int i=0; i<x.length; i++) {
+			sw += weights[i];
+			swx += weights[i] * x[i];
+			swy += weights[i] * y[i];
+		}
+		if (sw <= 0) {
+			throw new IllegalArgumentException("At least one point must have a positive weight.");
+		}
+		
+		double meanX = swx / sw;
+		double meanY = swy / sw;
+		double sxx = 0, sxy = 0, syy = 0;
+		for (int i=0; i<x.length; i++) {
+			double dx = x[i] - meanX;
+			double dy = y[i] - meanY;
+			sxx += weights[i] * dx * dx;
+			sxy += weights[i] * dx * dy;
+			syy += weights[i] * dy * dy;
+		}
+		if (sxx == 0) {
+			throw new IllegalArgumentException("At least two distinct x values are needed to fit a line.");
+		}
+		
+		double slope = sxy / sxx;
+		double intercept = meanY - slope * meanX;
+		double rSquared = syy == 0 ? 1 : (sxy * sxy) / (sxx * syy);
+		
+		return new LinearFit(intercept, slope, rSquared);
+	}
+
+	/**
+	 * @return the value of y at x = 0
+	 */
+	public double getIntercept() {
+		return intercept;
+	}
+
+	/**
+	 * @return the change in y per unit of x
+	 */
+	public double getSlope() {
+		return slope;
+	}
+
+	/**
+	 * @return the weighted coefficient of determination of the fit
+	 */
+	public double getRSquared() {
+		return rSquared;
+	}
+}
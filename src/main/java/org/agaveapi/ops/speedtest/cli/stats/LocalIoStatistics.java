@@ -0,0 +1,108 @@
+package org.agaveapi.ops.speedtest.cli.stats;
+
+/**
+ * Splits the body of memory mapped streaming transfers into the time 
+ * spent touching the mapped file and the time spent in the adaptor 
+ * stream. Page faults on the mapping are paid in the local time, so when
+ * it dominates, the page cache or the disk behind it is limiting 
+ * throughput rather than the network. All durations are in nanoseconds.
+ * 
+ * @author dooley
+ *
+ */
+public class LocalIoStatistics {
+
+	private final Totals upload = new Totals();
+	private final Totals download = new Totals();
+	
+	public LocalIoStatistics() {}
+	
+	/**
+	 * @return totals of the mapped uploads
+	 */
+	public Totals getUpload() {
+		return upload;
+	}
+
+	/**
+	 * @return totals of the mapped downloads
+	 */
+	public Totals getDownload() {
+		return download;
+	}
+
+	/**
+	 * Running totals for one transfer direction.
+	 */
+	public static class Totals {
+		
+		private int transfers = 0;
+		private long bytes = 0;
+		private int windows = 0;
+		private int residentWindows = 0;
+		private long localTime = 0;
+		private long remoteTime = 0;
+		
+		/**
+		 * @param length number of bytes moved by a completed transfer
+		 */
+		public void addTransfer(long length) {
+			transfers++;
+			bytes += length;
+		}
+		
+		/**
+		 * @param resident true if the window was already in memory when mapped
+		 */
+		public void addWindow(boolean resident) {
+			windows++;
+			if (resident) residentWindows++;
+		}
+		
+		/**
+		 * @param elapsed time spent mapping or copying to or from the mapping
+		 */
+		public void addLocalTime(long elapsed) {
+			localTime += Math.max(0, elapsed);
+		}
+		
+		/**
+		 * @param elapsed time spent reading or writing the adaptor stream
+		 */
+		public void addRemoteTime(long elapsed) {
+			remoteTime += Math.max(0, elapsed);
+		}
+
+		public int getTransfers() {
+			return transfers;
+		}
+
+		public long getBytes() {
+			return bytes;
+		}
+
+		public int getWindows() {
+			return windows;
+		}
+
+		public int getResidentWindows() {
+			return residentWindows;
+		}
+
+		public long getLocalTime() {
+			return localTime;
+		}
+
+		public long getRemoteTime() {
+			return remoteTime;
+		}
+		
+		/**
+		 * @return fraction of the transfer body spent on the local file
+		 */
+		public double getLocalShare() {
+			long total = localTime + remoteTime;
+			return total == 0 ? 0 : (double) localTime / total;
+		}
+	}
+}
@@ -0,0 +1,121 @@
+package org.agaveapi.ops.speedtest.cli.stats;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Mann-Whitney U test of whether two independent samples come from the
+ * same distribution. The test only uses the ranks of the values, so it
+ * holds up against the long tails and outliers typical of transfer times,
+ * where a t-test would not. The p-value uses the normal approximation
+ * with tie and continuity corrections, which is adequate from about
+ * 5 values per sample.
+ *
+ * @author dooley
+ *
+ */
+public class MannWhitney {
+	
+	private final double u;
+	private final double z;
+	private final double pValue;
+	
+	private MannWhitney(double u, double z, double pValue) {
+		this.u = u;
+		this.z = z;
+		this.pValue = pValue;
+	}
+	
+	/**
+	 * Compares two samples.
+	 *
+	 * @param x the first sample, ie. the baseline
+	 * @param y the second sample, ie. the latest run
+	 * @return the result of the two-sided test
+	 * @throws IllegalArgumentException if either sample is empty
+	 */
+	public static MannWhitney test(final double[] x, final double[] y) {
+		if (x.length == 0 || y.length == 0) {
+			throw new IllegalArgumentException("Both samples need at least one value.");
+		}
+		
+		final double[] pooled = new double[x.length + y.length];
+		System.arraycopy(x, 0, pooled, 0, x.length);
+		System.arraycopy(y, 0, pooled, x.length, y.length);
+		
+		Integer[] order = new Integer[pooled.length];
+		for (int i=0; i<order.length; i++) order[i] = i;
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return Double.compare(pooled[a], pooled[b]);
+			}
+		});
+		
+		// tied values share the average of the ranks they span
+		double[] ranks = new double[pooled.length];
+		double tieCorrection = 0;
+		for (int i=0; i<order.length; ) {
+			int j = i;
+			while (j + 1 < order.length && pooled[order[j + 1]] == pooled[order[i]]) j++;
+			double rank = (i + j) / 2d + 1;
+			for (int k=i; k<=j; k++) ranks[order[k]] = rank;
+			double t = j - i + 1;
+			tieCorrection += t * t * t - t;
+			i = j + 1;
+		}
+		
+		double rankSumX = 0;
+		for (int i=0; i<x.length; i++) rankSumX += ranks[i];
+		
+		double n1 = x.length, n2 = y.length, n = n1 + n2;
+		double u = rankSumX - n1 * (n1 + 1) / 2;
+		double mean = n1 * n2 / 2;
+		double variance = n1 * n2 / 12 * ((n + 1) - tieCorrection / (n * (n - 1)));
+		
+		if (variance <= 0) {
+			// every value is identical
+			return new MannWhitney(u, 0, 1);
+		}
+		
+		double delta = u - mean;
+		double z = (Math.abs(delta) - 0.5) <= 0 ? 0 : Math.signum(delta) * (Math.abs(delta) - 0.5) / Math.sqrt(variance);
+		double pValue = Math.min(1, erfc(Math.abs(z) / Math.sqrt(2)));
+		
+		return new MannWhitney(u, z, pValue);
+	}
+	
+	/**
+	 * Complementary error function, accurate to about 1.2e-7.
+	 * See Numerical Recipes, 2nd ed., section 6.2.
+	 */
+	static double erfc(double x) {
+		double t = 1 / (1 + 0.5 * Math.abs(x));
+		double r = t * Math.exp(-x * x - 1.26551223 + t * (1.00002368 + t * (0.37409196 + t * (0.09678418
+				+ t * (-0.18628806 + t * (0.27886807 + t * (-1.13520398 + t * (1.48851587
+				+ t * (-0.82215223 + t * 0.17087277)))))))));
+		return x >= 0 ? r : 2 - r;
+	}
+	
+	/**
+	 * @return the U statistic of the first sample
+	 */
+	public double getU() {
+		return u;
+	}
+	
+	/**
+	 * @return the standardized U statistic. Negative when the first sample
+	 * tends to be smaller than the second.
+	 */
+	public double getZ() {
+		return z;
+	}
+	
+	/**
+	 * @return the two-sided p-value
+	 */
+	public double getPValue() {
+		return pValue;
+	}
+}
@@ -0,0 +1,104 @@
+package org.agaveapi.ops.speedtest.cli.stats;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Relative overhead of one way of doing a transfer over a reference way,
+ * measured as pairs of runs done back to back. The overhead is the total
+ * time of the subject over the total time of the reference, minus one,
+ * so +0.25 means the subject took 25% longer. Its confidence interval is
+ * a percentile bootstrap over whole pairs, which keeps the pairing that
+ * cancels out drift in the network or the remote system and makes no
+ * assumption about the shape of the transfer times.
+ *
+ * @author dooley
+ *
+ */
+public class PairedOverhead {
+	
+	public static final int RESAMPLES = 2000;
+	
+	private final List<long[]> pairs = new ArrayList<long[]>();
+	
+	/**
+	 * @param subject time of the subject run, in nanoseconds
+	 * @param reference time of the reference run it is paired with, in nanoseconds
+	 */
+	public synchronized void record(long subject, long reference) {
+		pairs.add(new long[] { subject, reference });
+	}
+	
+	/**
+	 * @return the number of pairs recorded
+	 */
+	public synchronized int size() {
+		return pairs.size();
+	}
+	
+	/**
+	 * @return the mean time of the subject runs in nanoseconds
+	 */
+	public synchronized double getSubjectMean() {
+		return pairs.isEmpty() ? 0 : (double)sum(0) / pairs.size();
+	}
+	
+	/**
+	 * @return the mean time of the reference runs in nanoseconds
+	 */
+	public synchronized double getReferenceMean() {
+		return pairs.isEmpty() ? 0 : (double)sum(1) / pairs.size();
+	}
+	
+	/**
+	 * @return the relative overhead of the subject, or NaN if nothing was recorded
+	 */
+	public synchronized double getOverhead() {
+		long reference = sum(1);
+		return reference == 0 ? Double.NaN : (double)sum(0) / reference - 1;
+	}
+	
+	/**
+	 * Bootstraps the overhead by resampling the pairs with replacement.
+	 * The resampling is seeded so the same pairs always give the same
+	 * interval.
+	 *
+	 * @param level the confidence level, ie. 0.95
+	 * @return the lower and upper bound of the overhead, or NaN for both
+	 * with fewer than 2 pairs
+	 */
+	public synchronized double[] getConfidenceInterval(double level) {
+		if (level <= 0 || level >= 1) {
+			throw new IllegalArgumentException("The confidence level must be between 0 and 1.");
+		}
+		if (pairs.size() < 2) {
+			return new double[] { Double.NaN, Double.NaN };
+		}
+		
+		Random random = new Random(pairs.size());
+		double[] overheads = new double[RESAMPLES];
+		for (int r=0; r<RESAMPLES; r++) {
+			double subject = 0, reference = 0;
+			for (int i=0; i<pairs.size(); i++) {
+				long[] pair = pairs.get(random.nextInt(pairs.size()));
+				subject += pair[0];
+				reference += pair[1];
+			}
+			overheads[r] = reference == 0 ? 0 : subject / reference - 1;
+		}
+		Arrays.sort(overheads);
+		
+		double tail = (1 - level) / 2;
+		return new double[] {
+				overheads[(int)Math.floor(tail * (RESAMPLES - 1))],
+				overheads[(int)Math.ceil((1 - tail) * (RESAMPLES - 1))] };
+	}
+	
+	private long sum(int index) {
+		long total = 0;
+		for (long[] pair: pairs) total += pair[index];
+		return total;
+	}
+}
@@ -0,0 +1,43 @@
+package org.agaveapi.ops.speedtest.cli.stats;
+
+/**
+ * The individual steps of a benchmark run whose duration is measured 
+ * separately from the data transfer itself.
+ * 
+ * @author dooley
+ *
+ */
+public enum Phase {
+	
+	/** 
+	 * building the client object. No network I/O happens here, the 
+	 * adaptors only connect when they authenticate. 
+	 */
+	CLIENT_INIT("client init"),
+	/** 
+	 * authenticating the client, which includes the TCP connect, the 
+	 * SSH/GSI handshake and the login, as the adaptors do not expose the
+	 * transport connect on its own 
+	 */
+	AUTH("connect+auth"),
+	/** creating the remote test directory */
+	MKDIR("mkdir"),
+	/** opening the remote input or output stream */
+	OPEN("open"),
+	/** waiting for the first byte to arrive after the stream is open */
+	FIRST_BYTE("first byte"),
+	/** moving the data */
+	BODY("body"),
+	/** flushing and closing the streams */
+	CLOSE("close");
+	
+	private String label;
+	
+	private Phase(String label) {
+		this.label = label;
+	}
+	
+	public String getLabel() {
+		return label;
+	}
+}
@@ -0,0 +1,89 @@
+package org.agaveapi.ops.speedtest.cli.stats;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Distribution of the time spent in each {@link Phase} of a benchmark 
+ * run. Setup phases happen once per client, while transfer phases are 
+ * recorded separately for every upload and download. All durations are 
+ * in nanoseconds.
+ * 
+ * @author dooley
+ *
+ */
+public class PhaseStatistics {
+
+	private final Map<Phase, Histogram> setup = new EnumMap<Phase, Histogram>(Phase.class);
+	private final Map<Phase, Histogram> upload = new EnumMap<Phase, Histogram>(Phase.class);
+	private final Map<Phase, Histogram> download = new EnumMap<Phase, Histogram>(Phase.class);
+	private final List<SampleListener> listeners = new ArrayList<SampleListener>();
+	
+	public PhaseStatistics() {}
+	
+	/**
+	 * @param phase the setup phase
+	 * @param elapsed duration in nanoseconds
+	 */
+	public void recordSetup(Phase phase, long elapsed) {
+		record(setup, phase, elapsed);
+		for (SampleListener listener: listeners) listener.onSample(SampleListener.SETUP, phase.getLabel(), elapsed, 0);
+	}
+	
+	/**
+	 * @param phase the upload phase
+	 * @param elapsed duration in nanoseconds
+	 */
+	public void recordUpload(Phase phase, long elapsed) {
+		record(upload, phase, elapsed);
+		for (SampleListener listener: listeners) listener.onSample(SampleListener.UPLOAD, phase.getLabel(), elapsed, 0);
+	}
+	
+	/**
+	 * @param phase the download phase
+	 * @param elapsed duration in nanoseconds
+	 */
+	public void recordDownload(Phase phase, long elapsed) {
+		record(download, phase, elapsed);
+		for (SampleListener listener: listeners) listener.onSample(SampleListener.DOWNLOAD, phase.getLabel(), elapsed, 0);
+	}
+	
+	/**
+	 * @param listener notified of every phase as it is recorded
+	 */
+	public void addListener(SampleListener listener) {
+		listeners.add(listener);
+	}
+	
+	private void record(Map<Phase, Histogram> phases, Phase phase, long elapsed) {
+		Histogram histogram = phases.get(phase);
+		if (histogram == null) {
+			histogram = new Histogram();
+			phases.put(phase, histogram);
+		}
+		histogram.record(Math.max(0, elapsed));
+	}
+
+	/**
+	 * @return the recorded setup phases in {@link Phase} order
+	 */
+	public Map<Phase, Histogram> getSetup() {
+		return setup;
+	}
+
+	/**
+	 * @return the recorded upload phases in {@link Phase} order
+	 */
+	public Map<Phase, Histogram> getUpload() {
+		return upload;
+	}
+
+	/**
+	 * @return the recorded download phases in {@link Phase} order
+	 */
+	public Map<Phase, Histogram> getDownload() {
+		return download;
+	}
+}
@@ -0,0 +1,27 @@
+package org.agaveapi.ops.speedtest.cli.stats;
+
+/**
+ * Receives every sample as soon as it is recorded, so results can be 
+ * written out while a run is still in progress.
+ * 
+ * @author dooley
+ *
+ */
+public interface SampleListener {
+
+	public static final String SETUP = "setup";
+	public static final String UPLOAD = "upload";
+	public static final String DOWNLOAD = "download";
+	public static final String TRANSFER = "transfer";
+	public static final String INTERVAL = "interval";
+	
+	/**
+	 * @param direction one of {@link #SETUP}, {@link #UPLOAD} or {@link #DOWNLOAD}
+	 * @param metric {@link #TRANSFER} for a whole transfer, {@link #INTERVAL} 
+	 * for the bytes moved during one sampling interval of a transfer, 
+	 * otherwise the label of the {@link Phase}
+	 * @param elapsed duration in nanoseconds
+	 * @param length number of bytes transferred, or 0 for phases
+	 */
+	public void onSample(String direction, String metric, long elapsed, long length);
+}
@@ -0,0 +1,48 @@
+package org.agaveapi.ops.speedtest.cli.stats;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Wall clock milestones between the start of the JVM and the start of the
+ * first transfer, used to see how much of a short probe is spent starting
+ * up rather than moving data. Times are milliseconds since the epoch.
+ * 
+ * @author dooley
+ *
+ */
+public final class StartupTiming {
+	
+	private static final AtomicLong firstTransfer = new AtomicLong(Long.MAX_VALUE);
+	
+	private StartupTiming() {}
+	
+	/**
+	 * Notes a transfer that just finished. Only the earliest start time is
+	 * kept, so concurrent transfers may report in any order.
+	 * 
+	 * @param elapsed duration of the transfer in nanoseconds
+	 */
+	public static void recordTransfer(long elapsed) {
+		long start = System.currentTimeMillis() - elapsed / 1000000;
+		long current = firstTransfer.get();
+		while (start < current && !firstTransfer.compareAndSet(current, start)) {
+			current = firstTransfer.get();
+		}
+	}
+	
+	/**
+	 * @return when the first recorded transfer started, or 0 if none has
+	 */
+	public static long getFirstTransferTime() {
+		long time = firstTransfer.get();
+		return time == Long.MAX_VALUE ? 0 : time;
+	}
+	
+	/**
+	 * @return when the JVM was started
+	 */
+	public static long getJvmStartTime() {
+		return ManagementFactory.getRuntimeMXBean().getStartTime();
+	}
+}
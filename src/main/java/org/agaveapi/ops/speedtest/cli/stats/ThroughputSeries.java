@@ -0,0 +1,275 @@
+package org.agaveapi.ops.speedtest.cli.stats;
+
+import java.util.Arrays;
+
+/**
+ * Bytes moved per sampling interval over the course of one transfer. 
+ * Samples are kept in a fixed size ring buffer, so a transfer longer than
+ * {@code capacity} intervals keeps only its most recent samples and 
+ * memory stays bounded however long it runs.
+ * 
+ * The series is summarized as follows:
+ * <ul>
+ * <li>the steady state rate is the median interval rate over the second 
+ * half of the retained samples, when slow start and TCP window growth 
+ * are over.</li>
+ * <li>the transfer reaches steady state at the start of the first 
+ * {@link #WINDOW} intervals whose mean rate is at least 
+ * {@link #STEADY_STATE_FRACTION} of the steady state rate.</li>
+ * <li>a stall is a run of consecutive intervals after steady state was 
+ * reached whose rate is below {@link #STALL_FRACTION} of the steady state
+ * rate. The final, partial, interval is never counted as a stall.</li>
+ * </ul>
+ * 
+ * Samples are recorded by a single thread and the series should only be
+ * read once recording has stopped.
+ * 
+ * @author dooley
+ *
+ */
+public class ThroughputSeries {
+	
+	public static final int DEFAULT_CAPACITY = 6000;
+	public static final int WINDOW = 5;
+	public static final double STEADY_STATE_FRACTION = 0.9;
+	public static final double STALL_FRACTION = 0.1;
+	
+	private final String direction;
+	private final int iteration;
+	private final long[] offsets;
+	private final long[] durations;
+	private final long[] bytes;
+	private int next = 0;
+	private long recorded = 0;
+	private long totalBytes = 0;
+	
+	/**
+	 * @param direction {@link SampleListener#UPLOAD} or {@link SampleListener#DOWNLOAD}
+	 * @param iteration the transfer this series belongs to, starting at 1
+	 * @param capacity the most intervals to keep
+	 */
+	public ThroughputSeries(String direction, int iteration, int capacity) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("Capacity must be at least 1.");
+		}
+		this.direction = direction;
+		this.iteration = iteration;
+		this.offsets = new long[capacity];
+		this.durations = new long[capacity];
+		this.bytes = new long[capacity];
+	}
+	
+	/**
+	 * Adds an interval, overwriting the oldest one once the buffer is full.
+	 * 
+	 * @param offset nanoseconds from the start of the transfer to the end of the interval
+	 * @param duration length of the interval in nanoseconds
+	 * @param length bytes moved during the interval
+	 */
+	public void record(long offset, long duration, long length) {
+		offsets[next] = offset;
+		durations[next] = duration;
+		bytes[next] = length;
+		next = (next + 1) % offsets.length;
+		recorded++;
+		totalBytes += length;
+	}
+	
+	/**
+	 * @return number of intervals retained
+	 */
+	public int size() {
+		return (int)Math.min(recorded, offsets.length);
+	}
+	
+	/**
+	 * @return true if older intervals were overwritten, in which case the 
+	 * time to steady state and the stalls only cover the retained ones
+	 */
+	public boolean isWrapped() {
+		return recorded > offsets.length;
+	}
+	
+	/**
+	 * @param i index of a retained interval, oldest first
+	 * @return the position of the interval in the ring buffer
+	 */
+	private int slot(int i) {
+		return isWrapped() ? (next + i) % offsets.length : i;
+	}
+	
+	/**
+	 * @param i index of a retained interval, oldest first
+	 * @return nanoseconds from the start of the transfer to the end of the interval
+	 */
+	public long getOffset(int i) {
+		return offsets[slot(i)];
+	}
+	
+	/**
+	 * @param i index of a retained interval, oldest first
+	 * @return length of the interval in nanoseconds
+	 */
+	public long getDuration(int i) {
+		return durations[slot(i)];
+	}
+	
+	/**
+	 * @param i index of a retained interval, oldest first
+	 * @return bytes moved during the interval
+	 */
+	public long getBytes(int i) {
+		return bytes[slot(i)];
+	}
+	
+	/**
+	 * @param i index of a retained interval, oldest first
+	 * @return rate of the interval in kB/s
+	 */
+	public double getRate(int i) {
+		long duration = getDuration(i);
+		return duration <= 0 ? 0 : (getBytes(i) / 1024d) / (duration / 1000000000d);
+	}
+	
+	/**
+	 * @return the median rate in kB/s over the second half of the retained 
+	 * intervals, or 0 if there are none
+	 */
+	public double getSteadyStateRate() {
+		int n = size();
+		if (n == 0) return 0;
+		
+		int from = n / 2;
+		double[] rates = new double[n - from];
+		for (int i=from; i<n; i++) rates[i - from] = getRate(i);
+		Arrays.sort(rates);
+		int mid = rates.length / 2;
+		return rates.length % 2 == 1 ? rates[mid] : (rates[mid - 1] + rates[mid]) / 2;
+	}
+	
+	/**
+	 * @return milliseconds from the start of the transfer until steady 
+	 * state was reached, or -1 if it never was
+	 */
+	public double getTimeToSteadyState() {
+		int i = getSteadyStateIndex();
+		return i < 0 ? -1 : (getOffset(i) - getDuration(i)) / 1000000d;
+	}
+	
+	/**
+	 * @return index of the interval at which steady state was reached, or
+	 * -1 if it never was
+	 */
+	private int getSteadyStateIndex() {
+		int n = size();
+		double steadyRate = getSteadyStateRate();
+		if (n == 0 || steadyRate <= 0) return -1;
+		
+		int window = Math.min(WINDOW, n);
+		for (int i=0; i + window <= n; i++) {
+			long windowBytes = 0, windowDuration = 0;
+			for (int j=i; j<i + window; j++) {
+				windowBytes += getBytes(j);
+				windowDuration += getDuration(j);
+			}
+			double rate = windowDuration <= 0 ? 0 : (windowBytes / 1024d) / (windowDuration / 1000000000d);
+			if (rate >= STEADY_STATE_FRACTION * steadyRate) {
+				return i;
+			}
+		}
+		return -1;
+	}
+	
+	/**
+	 * @return the highest interval rate in kB/s, excluding the final interval
+	 * unless it is the only one
+	 */
+	public double getPeakRate() {
+		int n = size();
+		int last = n > 1 ? n - 1 : n;
+		double peak = 0;
+		for (int i=0; i<last; i++) {
+			peak = Math.max(peak, getRate(i));
+		}
+		return peak;
+	}
+	
+	/**
+	 * @return number of separate stalls
+	 */
+	public int getStallCount() {
+		return (int)stalls()[0];
+	}
+	
+	/**
+	 * @return total milliseconds spent stalled
+	 */
+	public double getStalledTime() {
+		return stalls()[1] / 1000000d;
+	}
+	
+	/**
+	 * @return the number of stalls and the nanoseconds spent in them
+	 */
+	private long[] stalls() {
+		int n = size();
+		double threshold = STALL_FRACTION * getSteadyStateRate();
+		long count = 0, stalled = 0;
+		if (threshold <= 0) return new long[] { 0, 0 };
+		
+		// connection latency and slow start are not stalls
+		int first = getSteadyStateIndex();
+		if (first < 0) return new long[] { 0, 0 };
+		
+		boolean inStall = false;
+		for (int i=first; i<n - 1; i++) {
+			if (getRate(i) < threshold) {
+				if (!inStall) count++;
+				inStall = true;
+				stalled += getDuration(i);
+			}
+			else {
+				inStall = false;
+			}
+		}
+		return new long[] { count, stalled };
+	}
+	
+	/**
+	 * Merges consecutive intervals so the series fits in at most 
+	 * {@code points} values, ie. for printing a long transfer on one line.
+	 * 
+	 * @param points the most values to return
+	 * @return the rate in kB/s of each merged interval
+	 */
+	public double[] getRates(int points) {
+		int n = size();
+		int step = Math.max(1, (n + points - 1) / points);
+		double[] rates = new double[(n + step - 1) / step];
+		for (int p=0; p<rates.length; p++) {
+			long merged = 0, duration = 0;
+			for (int i=p * step; i<Math.min(n, (p + 1) * step); i++) {
+				merged += getBytes(i);
+				duration += getDuration(i);
+			}
+			rates[p] = duration <= 0 ? 0 : (merged / 1024d) / (duration / 1000000000d);
+		}
+		return rates;
+	}
+	
+	/**
+	 * @return bytes moved across every recorded interval, including 
+	 * overwritten ones
+	 */
+	public long getTotalBytes() {
+		return totalBytes;
+	}
+	
+	public String getDirection() {
+		return direction;
+	}
+	
+	public int getIteration() {
+		return iteration;
+	}
+}
@@ -0,0 +1,117 @@
+package org.agaveapi.ops.speedtest.cli.stats;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Distribution of the upload and download durations and rates of every 
+ * iteration in a benchmark run.
+ * 
+ * @author dooley
+ *
+ */
+public class TransferStatistics {
+
+	private final Histogram uploadTimes = new Histogram();
+	private final Histogram uploadRates = new Histogram();
+	private final Histogram downloadTimes = new Histogram();
+	private final Histogram downloadRates = new Histogram();
+	private long uploadBytes = 0;
+	private long downloadBytes = 0;
+	private final List<SampleListener> listeners = new ArrayList<SampleListener>();
+	
+	public TransferStatistics() {}
+	
+	/**
+	 * Records a single upload.
+	 * 
+	 * @param elapsed duration of the transfer in nanoseconds
+	 * @param length number of bytes transferred
+	 */
+	public void recordUpload(long elapsed, long length) {
+		uploadTimes.record(elapsed);
+		uploadRates.record(rate(length, elapsed));
+		uploadBytes += length;
+		StartupTiming.recordTransfer(elapsed);
+		for (SampleListener listener: listeners) listener.onSample(SampleListener.UPLOAD, SampleListener.TRANSFER, elapsed, length);
+	}
+	
+	/**
+	 * Records a single download.
+	 * 
+	 * @param elapsed duration of the transfer in nanoseconds
+	 * @param length number of bytes transferred
+	 */
+	public void recordDownload(long elapsed, long length) {
+		downloadTimes.record(elapsed);
+		downloadRates.record(rate(length, elapsed));
+		downloadBytes += length;
+		StartupTiming.recordTransfer(elapsed);
+		for (SampleListener listener: listeners) listener.onSample(SampleListener.DOWNLOAD, SampleListener.TRANSFER, elapsed, length);
+	}
+	
+	/**
+	 * @param listener notified of every transfer as it is recorded
+	 */
+	public void addListener(SampleListener listener) {
+		listeners.add(listener);
+	}
+	
+	/**
+	 * @param listener a listener added with {@link #addListener(SampleListener)}
+	 */
+	public void removeListener(SampleListener listener) {
+		listeners.remove(listener);
+	}
+	
+	/**
+	 * Rate in kB/s, rounded to the nearest whole number so it can be 
+	 * recorded in a {@link Histogram}.
+	 */
+	private long rate(long length, long elapsed) {
+		if (elapsed < 1) return 0;
+		return Math.round(((double) length / 1024) / ((double) elapsed / 1000000000));
+	}
+
+	/**
+	 * @return upload durations in nanoseconds
+	 */
+	public Histogram getUploadTimes() {
+		return uploadTimes;
+	}
+
+	/**
+	 * @return upload rates in kB/s
+	 */
+	public Histogram getUploadRates() {
+		return uploadRates;
+	}
+
+	/**
+	 * @return download durations in nanoseconds
+	 */
+	public Histogram getDownloadTimes() {
+		return downloadTimes;
+	}
+
+	/**
+	 * @return download rates in kB/s
+	 */
+	public Histogram getDownloadRates() {
+		return downloadRates;
+	}
+
+	/**
+	 * @return total bytes uploaded across all iterations
+	 */
+	public long getUploadBytes() {
+		return uploadBytes;
+	}
+
+	/**
+	 * @return total bytes downloaded across all iterations
+	 */
+	public long getDownloadBytes() {
+		return downloadBytes;
+	}
+}
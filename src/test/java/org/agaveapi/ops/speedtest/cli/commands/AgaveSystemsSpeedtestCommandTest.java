@@ -0,0 +1,40 @@
+package org.agaveapi.ops.speedtest.cli.commands;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class AgaveSystemsSpeedtestCommandTest {
+	
+	private final AgaveSystemsSpeedtestCommand<?> command = new AgaveSystemsSpeedtestCommand();
+	
+	@Test
+	public void testConcurrencyLevelsKeepTheirOrder() {
+		int[] levels = command.parseConcurrencyLevels("1, 4,2");
+		
+		assertEquals(3, levels.length);
+		assertEquals(1, levels[0]);
+		assertEquals(4, levels[1]);
+		assertEquals(2, levels[2]);
+	}
+	
+	@Test(expected = NumberFormatException.class)
+	public void testEmptyConcurrencyIsRejected() {
+		command.parseConcurrencyLevels("");
+	}
+	
+	@Test(expected = NumberFormatException.class)
+	public void testMissingConcurrencyLevelIsRejected() {
+		command.parseConcurrencyLevels("1,,4");
+	}
+	
+	@Test(expected = NumberFormatException.class)
+	public void testZeroConcurrencyIsRejected() {
+		command.parseConcurrencyLevels("0,1");
+	}
+	
+	@Test(expected = NumberFormatException.class)
+	public void testDuplicateConcurrencyIsRejected() {
+		command.parseConcurrencyLevels("1,2,2");
+	}
+}
@@ -0,0 +1,90 @@
+package org.agaveapi.ops.speedtest.cli.commands;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class SpeedtestCommandTest {
+	
+	private final SpeedtestCommand<?> command = new NativeSystemsSpeedtestCommand();
+	
+	@Test
+	public void testRangeIncludesBothBounds() {
+		long[] sizes = command.parseSizes("1KB..1MB", 4);
+		
+		assertEquals(1024, sizes[0]);
+		assertEquals(1048576, sizes[sizes.length - 1]);
+		for (int i=1; i<sizes.length; i++) {
+			assertTrue(Arrays.toString(sizes), sizes[i] > sizes[i - 1]);
+		}
+	}
+	
+	@Test
+	public void testEqualBoundsGiveSingleSize() {
+		long[] sizes = command.parseSizes("1MB..1MB", 2);
+		
+		assertEquals(1, sizes.length);
+		assertEquals(1048576, sizes[0]);
+	}
+	
+	@Test
+	public void testSingleSize() {
+		long[] sizes = command.parseSizes("2MB", 2);
+		
+		assertEquals(1, sizes.length);
+		assertEquals(2097152, sizes[0]);
+	}
+	
+	@Test(expected = NumberFormatException.class)
+	public void testInvertedRangeIsRejected() {
+		command.parseSizes("1MB..1KB", 2);
+	}
+	
+	@Test(expected = NumberFormatException.class)
+	public void testRangeNeedsGrowingFactor() {
+		command.parseSizes("1KB..1MB", 1);
+	}
+	
+	@Test
+	public void testKneeIsWhereGainLevelsOff() {
+		assertEquals(2, command.findKnee(new float[] { 100, 200, 300, 310, 320 }));
+		assertEquals(0, command.findKnee(new float[] { 100, 90 }));
+		assertEquals(2, command.findKnee(new float[] { 100, 200, 400 }));
+		assertEquals(0, command.findKnee(new float[] { 100 }));
+	}
+	
+	@Test
+	public void testTransferModelOfConstantTimeIsNotAvailable() {
+		String row = command.formatTransferModel("upload", new long[] { 1024, 2048, 4096 }, new double[] { 5e6, 5e6, 5e6 });
+		
+		assertTrue(row, row.contains("n/a"));
+		assertFalse(row, row.contains("Infinity"));
+		assertFalse(row, row.contains("NaN"));
+	}
+	
+	@Test
+	public void testTransferModelOfSingleSizeIsNotAvailable() {
+		String row = command.formatTransferModel("upload", new long[] { 1024 }, new double[] { 5e6 });
+		
+		assertTrue(row, row.startsWith("upload"));
+		assertTrue(row, row.contains("n/a"));
+	}
+	
+	@Test
+	public void testTransferModelReportsBandwidth() {
+		// 1ms fixed overhead, then 1 byte per nanosecond
+		long[] sizes = new long[] { 1000, 1000000, 100000000 };
+		double[] times = new double[sizes.length];
+		for (int i=0; i<sizes.length; i++) times[i] = 1e6 + sizes[i];
+		
+		String row = command.formatTransferModel("download", sizes, times);
+		
+		assertFalse(row, row.contains("n/a"));
+		assertTrue(row, row.contains(String.valueOf((float)(1e9 / 1024))));
+		assertTrue(row, row.contains("1000000"));
+	}
+}
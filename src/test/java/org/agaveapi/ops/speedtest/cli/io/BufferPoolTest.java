@@ -0,0 +1,58 @@
+package org.agaveapi.ops.speedtest.cli.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+public class BufferPoolTest {
+
+	@Test
+	public void testReleasedArrayIsReused() {
+		BufferPool pool = new BufferPool();
+		
+		byte[] first = pool.acquireArray(1024);
+		pool.release(first);
+		
+		assertTrue(first == pool.acquireArray(1024));
+	}
+	
+	@Test
+	public void testArraysAreKeyedBySize() {
+		BufferPool pool = new BufferPool();
+		
+		byte[] small = pool.acquireArray(1024);
+		pool.release(small);
+		byte[] large = pool.acquireArray(4096);
+		
+		assertEquals(4096, large.length);
+		assertTrue(small == pool.acquireArray(1024));
+	}
+	
+	@Test
+	public void testDirectBufferIsClearedOnReuse() {
+		BufferPool pool = new BufferPool();
+		
+		ByteBuffer buffer = pool.acquireDirect(64);
+		buffer.put(new byte[10]).flip();
+		pool.release(buffer);
+		ByteBuffer reused = pool.acquireDirect(64);
+		
+		assertTrue(buffer == reused);
+		assertTrue(reused.isDirect());
+		assertEquals(0, reused.position());
+		assertEquals(64, reused.limit());
+	}
+	
+	@Test
+	public void testHeapBuffersAreNotPooled() {
+		BufferPool pool = new BufferPool();
+		
+		ByteBuffer heap = ByteBuffer.allocate(64);
+		pool.release(heap);
+		
+		assertTrue(heap != pool.acquireDirect(64));
+	}
+}
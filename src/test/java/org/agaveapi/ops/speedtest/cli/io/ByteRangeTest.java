@@ -0,0 +1,55 @@
+package org.agaveapi.ops.speedtest.cli.io;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.List;
+
+import org.junit.Test;
+
+public class ByteRangeTest {
+	
+	private void assertCovers(long length, List<ByteRange> ranges) {
+		long offset = 0;
+		for (int i=0; i<ranges.size(); i++) {
+			assertEquals(i, ranges.get(i).getIndex());
+			assertEquals(offset, ranges.get(i).getOffset());
+			offset = ranges.get(i).getEnd();
+		}
+		assertEquals(length, offset);
+	}
+	
+	@Test
+	public void testRemainderGoesToFirstRanges() {
+		List<ByteRange> ranges = ByteRange.split(10, 3);
+		
+		assertCovers(10, ranges);
+		assertEquals(4, ranges.get(0).getLength());
+		assertEquals(3, ranges.get(1).getLength());
+		assertEquals(3, ranges.get(2).getLength());
+	}
+	
+	@Test
+	public void testMorePartsThanBytes() {
+		List<ByteRange> ranges = ByteRange.split(2, 5);
+		
+		assertEquals(5, ranges.size());
+		assertCovers(2, ranges);
+		assertEquals(1, ranges.get(1).getLength());
+		assertEquals(0, ranges.get(2).getLength());
+		assertEquals(0, ranges.get(4).getLength());
+	}
+	
+	@Test
+	public void testSinglePartIsWholeFile() {
+		List<ByteRange> ranges = ByteRange.split(12345, 1);
+		
+		assertEquals(1, ranges.size());
+		assertEquals(0, ranges.get(0).getOffset());
+		assertEquals(12345, ranges.get(0).getLength());
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testZeroPartsIsRejected() {
+		ByteRange.split(10, 0);
+	}
+}
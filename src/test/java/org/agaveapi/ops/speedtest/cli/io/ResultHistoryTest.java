@@ -0,0 +1,66 @@
+package org.agaveapi.ops.speedtest.cli.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.UUID;
+
+import org.agaveapi.ops.speedtest.cli.stats.SampleListener;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class ResultHistoryTest {
+
+	private File file;
+	
+	@Before
+	public void setUp() {
+		file = new File(System.getProperty("java.io.tmpdir"), "speedtest-history-" + UUID.randomUUID().toString() + "/history.jsonl");
+	}
+	
+	@After
+	public void tearDown() {
+		FileUtils.deleteQuietly(file.getParentFile());
+	}
+	
+	@Test
+	public void testRecordsRoundTrip() throws IOException {
+		ResultHistory history = new ResultHistory(file, new ObjectMapper());
+		HistoryRecord record = new HistoryRecord("agave", "sftp.example.com", "sftp", "streaming", 1048576, 32768);
+		record.onSample(SampleListener.UPLOAD, SampleListener.TRANSFER, 1000000000L, 1048576);
+		record.onSample(SampleListener.UPLOAD, "open", 2000000L, 0);
+		history.append(record);
+		
+		List<HistoryRecord> records = history.find("sftp.example.com", null, null, null, null);
+		
+		assertEquals(1, records.size());
+		assertEquals(record.getKey(), records.get(0).getKey());
+		assertEquals(1024, records.get(0).getSamples().get("upload" + HistoryRecord.RATE_SUFFIX).get(0), 0.0001);
+		assertEquals(2, records.get(0).getSamples().get("upload open" + HistoryRecord.MILLIS_SUFFIX).get(0), 0.0001);
+	}
+	
+	@Test
+	public void testFiltersAndSkipsMalformedLines() throws IOException {
+		ResultHistory history = new ResultHistory(file, new ObjectMapper());
+		HistoryRecord streaming = new HistoryRecord("agave", "a", "sftp", "streaming", 1024, 0);
+		streaming.addSample("upload" + HistoryRecord.RATE_SUFFIX, 1);
+		HistoryRecord nio = new HistoryRecord("agave", "a", "sftp", "nio", 1024, 0);
+		nio.addSample("upload" + HistoryRecord.RATE_SUFFIX, 2);
+		
+		history.append(streaming);
+		FileUtils.writeStringToFile(file, "{\"system\":\"a\",\"samp\n", true);
+		history.append(nio);
+		history.append(new HistoryRecord("agave", "a", "sftp", "nio", 1024, 0));
+		
+		assertEquals(2, history.find("a", null, null, null, null).size());
+		assertEquals(1, history.find("a", "SFTP", "nio", 1024L, 0).size());
+		assertTrue(history.find("b", null, null, null, null).isEmpty());
+	}
+}
@@ -0,0 +1,65 @@
+package org.agaveapi.ops.speedtest.cli.io;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+
+import org.agaveapi.ops.speedtest.cli.stats.SampleListener;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class SampleWriterTest {
+
+	private ObjectMapper mapper = new ObjectMapper();
+	
+	@Test
+	public void testJsonWritesOneRecordPerLine() throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		SampleWriter writer = new SampleWriter(SampleWriter.Format.JSON, out, false, mapper);
+		writer.setContext("system", "sftp.example.com");
+		
+		writer.onSample(SampleListener.UPLOAD, "open", 1000000, 0);
+		writer.onSample(SampleListener.UPLOAD, SampleListener.TRANSFER, 1000000000, 1024 * 1024);
+		
+		String[] lines = out.toString().split("\n");
+		assertEquals(2, lines.length);
+		
+		JsonNode phase = mapper.readTree(lines[0]);
+		assertEquals("sftp.example.com", phase.get("system").asText());
+		assertEquals(1, phase.get("iteration").asInt());
+		assertEquals("open", phase.get("metric").asText());
+		
+		JsonNode transfer = mapper.readTree(lines[1]);
+		assertEquals(1, transfer.get("iteration").asInt());
+		assertEquals(1024, transfer.get("rateKBps").asDouble(), 0.001);
+		assertEquals(1000, transfer.get("elapsedMs").asDouble(), 0.001);
+	}
+	
+	@Test
+	public void testCsvWritesHeaderOnce() throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		SampleWriter writer = new SampleWriter(SampleWriter.Format.CSV, out, false, mapper);
+		writer.setContext("system", "a,b");
+		
+		writer.onSample(SampleListener.DOWNLOAD, SampleListener.TRANSFER, 1000, 10);
+		writer.onSample(SampleListener.DOWNLOAD, SampleListener.TRANSFER, 1000, 10);
+		
+		String[] lines = out.toString().split("\n");
+		assertEquals(3, lines.length);
+		assertEquals("timestamp,system,direction,iteration,metric,bytes,elapsedMs,rateKBps", lines[0]);
+		assertEquals(true, lines[1].contains(",\"a,b\",download,1,transfer,10,"));
+		assertEquals(true, lines[2].contains(",\"a,b\",download,2,transfer,10,"));
+	}
+	
+	@Test
+	public void testSetupPhasesAreIterationZero() throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		SampleWriter writer = new SampleWriter(SampleWriter.Format.JSON, out, false, mapper);
+		
+		writer.onSample(SampleListener.SETUP, "connect", 1000, 0);
+		
+		assertEquals(0, mapper.readTree(out.toString()).get("iteration").asInt());
+	}
+}
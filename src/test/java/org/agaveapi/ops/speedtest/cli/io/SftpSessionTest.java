@@ -0,0 +1,58 @@
+package org.agaveapi.ops.speedtest.cli.io;
+
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+
+import org.junit.Test;
+
+public class SftpSessionTest {
+	
+	/**
+	 * Stands in for sftp -b -: answers lpwd, exits on quit and fails on
+	 * any command starting with fail.
+	 */
+	private static final String FAKE_SFTP =
+			"while read line; do " +
+			"case \"$line\" in " +
+			"lpwd) echo \"Local working directory: /tmp\";; " +
+			"quit) exit 0;; " +
+			"fail*) echo \"$line: No such file\" >&2; exit 1;; " +
+			"*) echo \"sftp> $line\";; " +
+			"esac; done";
+	
+	private SftpSession start() throws IOException {
+		return SftpSession.start(new ProcessBuilder("sh", "-c", FAKE_SFTP), 10000, null);
+	}
+	
+	@Test
+	public void testEveryCommandWaitsForItsMarker() throws IOException {
+		SftpSession session = start();
+		try {
+			assertTrue(session.getHandshakeTime() > 0);
+			for (int i=0; i<5; i++) {
+				assertTrue(session.execute("put a b") > 0);
+			}
+		}
+		finally {
+			session.close();
+		}
+	}
+	
+	@Test
+	public void testFailedCommandIncludesOutput() throws IOException {
+		SftpSession session = start();
+		try {
+			session.execute("put a b");
+			session.execute("fail c d");
+			assertTrue("the failed command should throw", false);
+		}
+		catch (IOException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("exited with 1 running fail c d"));
+			assertTrue(e.getMessage(), e.getMessage().contains("No such file"));
+		}
+		finally {
+			session.close();
+		}
+	}
+}
@@ -0,0 +1,104 @@
+package org.agaveapi.ops.speedtest.cli.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.UUID;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestDataGeneratorTest {
+
+	private File cacheDirectory;
+	
+	@Before
+	public void setUp() {
+		cacheDirectory = new File(System.getProperty("java.io.tmpdir"), "speedtest-cache-" + UUID.randomUUID().toString());
+	}
+	
+	@After
+	public void tearDown() {
+		FileUtils.deleteQuietly(cacheDirectory);
+	}
+	
+	@Test
+	public void testGeneratesExactSize() throws IOException {
+		TestDataGenerator generator = new TestDataGenerator(cacheDirectory, 4);
+		long size = 3L * TestDataGenerator.BLOCK_SIZE + 4097;
+		
+		File file = generator.getCachedFile(size, 42);
+		
+		assertEquals(size, file.length());
+	}
+	
+	@Test
+	public void testContentIndependentOfThreadCount() throws IOException {
+		long size = 2L * TestDataGenerator.BLOCK_SIZE + 13;
+		cacheDirectory.mkdirs();
+		
+		File single = new File(cacheDirectory, "single");
+		File parallel = new File(cacheDirectory, "parallel");
+		String singleChecksum = new TestDataGenerator(cacheDirectory, 1).generate(single, size, 7);
+		String parallelChecksum = new TestDataGenerator(cacheDirectory, 3).generate(parallel, size, 7);
+		
+		assertEquals(singleChecksum, parallelChecksum);
+		assertTrue(FileUtils.contentEquals(single, parallel));
+	}
+	
+	@Test
+	public void testDifferentSeedsDiffer() throws IOException {
+		TestDataGenerator generator = new TestDataGenerator(cacheDirectory, 2);
+		
+		File a = generator.getCachedFile(8192, 1);
+		File b = generator.getCachedFile(8192, 2);
+		
+		assertFalse(a.equals(b));
+		assertFalse(FileUtils.contentEquals(a, b));
+	}
+	
+	@Test
+	public void testCachedFileIsReused() throws IOException {
+		TestDataGenerator generator = new TestDataGenerator(cacheDirectory, 2);
+		
+		File first = generator.getCachedFile(10000, 3);
+		long modified = first.lastModified();
+		String checksum = generator.getChecksum(first);
+		File second = generator.getCachedFile(10000, 3);
+		
+		assertEquals(first, second);
+		assertEquals(modified, second.lastModified());
+		assertEquals(checksum, generator.getChecksum(second));
+	}
+	
+	@Test
+	public void testTruncatedCacheEntryIsRegenerated() throws IOException {
+		TestDataGenerator generator = new TestDataGenerator(cacheDirectory, 2);
+		
+		File file = generator.getCachedFile(10000, 3);
+		new RandomAccessFile(file, "rw").getChannel().truncate(100).close();
+		
+		assertEquals(10000, generator.getCachedFile(10000, 3).length());
+	}
+	
+	@Test
+	public void testSmallFilesDifferBySeed() throws IOException {
+		cacheDirectory.mkdirs();
+		File first = new File(cacheDirectory, "file-0");
+		File second = new File(cacheDirectory, "file-1");
+		
+		TestDataGenerator.write(first, 4099, 1);
+		TestDataGenerator.write(second, 4099, 2);
+		
+		assertEquals(4099, first.length());
+		assertEquals(4099, second.length());
+		assertFalse(FileUtils.contentEquals(first, second));
+		assertFalse(new File(cacheDirectory, "file-0" + TestDataGenerator.CHECKSUM_SUFFIX).exists());
+	}
+}
@@ -0,0 +1,111 @@
+package org.agaveapi.ops.speedtest.cli.plan;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class PlanSchedulerTest {
+
+	private BenchmarkPlan newPlan() {
+		BenchmarkPlan plan = new BenchmarkPlan();
+		plan.setSystems(Arrays.asList("a", "b"));
+		plan.setModes(Arrays.asList("streaming", "nio", "native"));
+		plan.setSizes(Arrays.asList("1MB", "8MB"));
+		plan.setBufferSizes(Arrays.asList(32768, 65536));
+		plan.setRounds(3);
+		plan.validate();
+		return plan;
+	}
+	
+	@Test
+	public void testExpandsEveryCombinationOnce() {
+		BenchmarkPlan plan = newPlan();
+		
+		List<PlanCase> schedule = PlanScheduler.schedule(plan);
+		
+		// per system: 2 adaptor modes x 2 sizes x 2 buffers + 2 native sizes
+		assertEquals(2 * (8 + 2) * 3, schedule.size());
+		Set<String> ids = new HashSet<String>();
+		for (PlanCase planCase: schedule) {
+			assertTrue("duplicate case " + planCase, ids.add(planCase.getId()));
+		}
+	}
+	
+	@Test
+	public void testSystemsRunBackToBackEachRound() {
+		List<PlanCase> schedule = PlanScheduler.schedule(newPlan());
+		
+		int switches = 0;
+		for (int i=1; i<schedule.size(); i++) {
+			if (!schedule.get(i).getSystem().equals(schedule.get(i - 1).getSystem())) switches++;
+		}
+		// a b | b a | a b: rotating rounds lets a visit run on into the next round
+		assertEquals(3, switches);
+	}
+	
+	@Test
+	public void testRoundsRotateTheOrder() {
+		List<PlanCase> schedule = PlanScheduler.schedule(newPlan());
+		int perRound = schedule.size() / 3;
+		
+		assertEquals("a", schedule.get(0).getSystem());
+		assertEquals("b", schedule.get(perRound).getSystem());
+		// the cases of a system start two places later in round 2
+		assertEquals(schedule.get(2).inRound(2).getId(), schedule.get(2 * perRound).getId());
+	}
+	
+	@Test
+	public void testProgressSurvivesRestart() throws IOException {
+		File file = new File(System.getProperty("java.io.tmpdir"), "plan-" + UUID.randomUUID().toString() + PlanProgress.PROGRESS_SUFFIX);
+		try {
+			List<PlanCase> schedule = PlanScheduler.schedule(newPlan());
+			new PlanProgress(file).markDone(schedule.get(0));
+			
+			PlanProgress progress = new PlanProgress(file);
+			assertTrue(progress.isDone(schedule.get(0)));
+			assertFalse(progress.isDone(schedule.get(1)));
+			
+			progress.reset();
+			assertFalse(new PlanProgress(file).isDone(schedule.get(0)));
+		}
+		finally {
+			FileUtils.deleteQuietly(file);
+		}
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testUnknownModeIsRejected() {
+		BenchmarkPlan plan = newPlan();
+		plan.setModes(Arrays.asList("ftp"));
+		plan.validate();
+	}
+	
+	@Test
+	public void testUnknownKeyIsNamed() throws IOException {
+		File file = new File(System.getProperty("java.io.tmpdir"), "plan-" + UUID.randomUUID().toString() + ".json");
+		try {
+			FileUtils.writeStringToFile(file, "{\"systems\": [\"a\"], \"iteration\": 3}", "UTF-8");
+			BenchmarkPlan.load(file, new ObjectMapper());
+			assertTrue("the misspelled key should be rejected", false);
+		}
+		catch (IllegalArgumentException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("\"iteration\""));
+		}
+		finally {
+			FileUtils.deleteQuietly(file);
+		}
+	}
+}
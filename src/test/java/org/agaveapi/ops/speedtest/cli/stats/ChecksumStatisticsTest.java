@@ -0,0 +1,110 @@
+package org.agaveapi.ops.speedtest.cli.stats;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.UUID;
+
+import org.agaveapi.ops.speedtest.cli.io.Copier;
+import org.agaveapi.ops.speedtest.cli.io.TestDataGenerator;
+import org.agaveapi.ops.speedtest.cli.io.TimedChecksum;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.output.NullOutputStream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ChecksumStatisticsTest {
+	
+	private static final long LENGTH = 100000;
+	
+	private File directory;
+	private File original;
+	
+	@Before
+	public void setUp() throws IOException {
+		directory = new File(System.getProperty("java.io.tmpdir"), "checksums-" + UUID.randomUUID().toString());
+		directory.mkdirs();
+		original = new File(directory, "original.bin");
+		TestDataGenerator.write(original, LENGTH, TestDataGenerator.DEFAULT_SEED);
+	}
+	
+	@After
+	public void tearDown() {
+		FileUtils.deleteQuietly(directory);
+	}
+	
+	private TimedChecksum read(File file) throws IOException {
+		TimedChecksum checksum = new TimedChecksum(TimedChecksum.CRC32);
+		InputStream in = new FileInputStream(file);
+		try {
+			Copier.copy(in, new NullOutputStream(), new byte[8192], file.length(), checksum);
+		}
+		finally {
+			in.close();
+		}
+		return checksum;
+	}
+	
+	@Test
+	public void testIdenticalDownloadIsVerified() throws IOException {
+		ChecksumStatistics statistics = new ChecksumStatistics(TimedChecksum.CRC32);
+		TimedChecksum upload = read(original);
+		statistics.recordUpload(upload);
+		
+		assertTrue(statistics.recordDownload(read(original), upload.getValue(), LENGTH));
+		assertEquals(1, statistics.getVerified());
+		assertEquals(0, statistics.getMismatched());
+		assertEquals(LENGTH, statistics.getDownloadBytes());
+	}
+	
+	@Test
+	public void testCorruptedDownloadIsMismatched() throws IOException {
+		File corrupted = new File(directory, "corrupted.bin");
+		FileUtils.copyFile(original, corrupted);
+		RandomAccessFile raf = new RandomAccessFile(corrupted, "rw");
+		try {
+			raf.seek(LENGTH / 2);
+			int b = raf.read();
+			raf.seek(LENGTH / 2);
+			raf.write(b ^ 0x01);
+		}
+		finally {
+			raf.close();
+		}
+		
+		ChecksumStatistics statistics = new ChecksumStatistics(TimedChecksum.CRC32);
+		
+		assertFalse(statistics.recordDownload(read(corrupted), read(original).getValue(), LENGTH));
+		assertEquals(0, statistics.getVerified());
+		assertEquals(1, statistics.getMismatched());
+	}
+	
+	@Test
+	public void testTruncatedDownloadIsMismatched() throws IOException {
+		File truncated = new File(directory, "truncated.bin");
+		TestDataGenerator.write(truncated, LENGTH - 1, TestDataGenerator.DEFAULT_SEED);
+		
+		ChecksumStatistics statistics = new ChecksumStatistics(TimedChecksum.CRC32);
+		
+		assertFalse(statistics.recordDownload(read(truncated), read(original).getValue(), LENGTH));
+		assertEquals(1, statistics.getMismatched());
+		assertEquals(LENGTH - 1, statistics.getDownloadBytes());
+	}
+	
+	@Test
+	public void testNothingToCompareIsNotCounted() throws IOException {
+		ChecksumStatistics statistics = new ChecksumStatistics(TimedChecksum.CRC32);
+		
+		assertTrue(statistics.recordDownload(read(original), null, LENGTH));
+		assertEquals(0, statistics.getVerified());
+		assertEquals(0, statistics.getMismatched());
+		assertEquals(1, statistics.getDownloads());
+	}
+}
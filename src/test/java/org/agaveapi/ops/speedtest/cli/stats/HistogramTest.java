@@ -0,0 +1,82 @@
+package org.agaveapi.ops.speedtest.cli.stats;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class HistogramTest {
+
+	@Test
+	public void testSmallValuesAreExact() {
+		Histogram histogram = new Histogram();
+		for (int i=1; i<=100; i++) {
+			histogram.record(i);
+		}
+		
+		assertEquals(100, histogram.getTotalCount());
+		assertEquals(1, histogram.getMin());
+		assertEquals(100, histogram.getMax());
+		assertEquals(50.5, histogram.getMean(), 0.0001);
+		assertEquals(50, histogram.getValueAtPercentile(50));
+		assertEquals(90, histogram.getValueAtPercentile(90));
+		assertEquals(99, histogram.getValueAtPercentile(99));
+		assertEquals(100, histogram.getValueAtPercentile(100));
+	}
+	
+	@Test
+	public void testLargeValuesWithinPrecision() {
+		Histogram histogram = new Histogram();
+		for (long i=1; i<=10000; i++) {
+			histogram.record(i * 1000000);
+		}
+		
+		long p50 = histogram.getValueAtPercentile(50);
+		assertTrue("p50 " + p50 + " outside precision", Math.abs(p50 - 5000000000L) <= 5000000000L / 128);
+		
+		long p99 = histogram.getValueAtPercentile(99);
+		assertTrue("p99 " + p99 + " outside precision", Math.abs(p99 - 9900000000L) <= 9900000000L / 128);
+		
+		assertEquals(10000000000L, histogram.getMax());
+	}
+	
+	@Test
+	public void testStdDeviationAndConfidenceInterval() {
+		Histogram histogram = new Histogram();
+		long[] values = new long[] { 2, 4, 4, 4, 5, 5, 7, 9 };
+		for (long value: values) {
+			histogram.record(value);
+		}
+		
+		assertEquals(5.0, histogram.getMean(), 0.0001);
+		assertEquals(Math.sqrt(32.0 / 7), histogram.getStdDeviation(), 0.0001);
+		assertEquals(2.365 * Math.sqrt(32.0 / 7) / Math.sqrt(8), histogram.getConfidenceInterval95(), 0.0001);
+	}
+	
+	@Test
+	public void testAddMatchesRecordingIntoOneHistogram() {
+		Histogram a = new Histogram();
+		Histogram b = new Histogram();
+		Histogram all = new Histogram();
+		for (int i=0; i<500; i++) {
+			a.record(i * 3);
+			b.record(i * 7 + 11);
+			all.record(i * 3);
+			all.record(i * 7 + 11);
+		}
+		a.add(b);
+		
+		assertEquals(all.getTotalCount(), a.getTotalCount());
+		assertEquals(all.getMean(), a.getMean(), 0.0001);
+		assertEquals(all.getStdDeviation(), a.getStdDeviation(), 0.0001);
+		assertEquals(all.getValueAtPercentile(90), a.getValueAtPercentile(90));
+	}
+	
+	@Test
+	public void testEmptyHistogram() {
+		Histogram histogram = new Histogram();
+		assertEquals(0, histogram.getMin());
+		assertEquals(0, histogram.getValueAtPercentile(99));
+		assertEquals(0, histogram.getStdDeviation(), 0);
+	}
+}
@@ -0,0 +1,44 @@
+package org.agaveapi.ops.speedtest.cli.stats;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class LinearFitTest {
+	
+	@Test
+	public void testWeightedFitRecoversLine() {
+		double[] x = new double[] { 1024, 1048576, 1073741824 };
+		double[] y = new double[x.length];
+		double[] w = new double[x.length];
+		for (int i=0; i<x.length; i++) {
+			y[i] = 5000000 + x[i] * 10;
+			w[i] = 1 / (y[i] * y[i]);
+		}
+		
+		LinearFit fit = LinearFit.fit(x, y, w);
+		
+		assertEquals(5000000, fit.getIntercept(), 1);
+		assertEquals(10, fit.getSlope(), 1e-9);
+		assertEquals(1, fit.getRSquared(), 1e-9);
+	}
+	
+	@Test
+	public void testConstantTimeHasZeroSlope() {
+		LinearFit fit = LinearFit.fit(new double[] { 1, 2, 3 }, new double[] { 7, 7, 7 }, new double[] { 1, 1, 1 });
+		
+		assertEquals(0, fit.getSlope(), 0);
+		assertEquals(7, fit.getIntercept(), 1e-9);
+		assertEquals(1, fit.getRSquared(), 0);
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testSingleSizeCannotBeFitted() {
+		LinearFit.fit(new double[] { 4, 4 }, new double[] { 1, 2 }, new double[] { 1, 1 });
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testZeroWeightsCannotBeFitted() {
+		LinearFit.fit(new double[] { 1, 2 }, new double[] { 1, 2 }, new double[] { 0, 0 });
+	}
+}
@@ -0,0 +1,47 @@
+package org.agaveapi.ops.speedtest.cli.stats;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class MannWhitneyTest {
+
+	@Test
+	public void testSeparatedSamplesAreSignificant() {
+		double[] baseline = new double[] { 1, 2, 3, 4, 5 };
+		double[] latest = new double[] { 6, 7, 8, 9, 10 };
+		
+		MannWhitney test = MannWhitney.test(baseline, latest);
+		
+		// U = 0, mean 12.5, variance 25 * 11 / 12, continuity corrected
+		assertEquals(0, test.getU(), 0.0001);
+		assertEquals(-12 / Math.sqrt(25 * 11 / 12d), test.getZ(), 0.0001);
+		assertEquals(0.0122, test.getPValue(), 0.0005);
+	}
+	
+	@Test
+	public void testInterleavedSamplesAreNotSignificant() {
+		double[] baseline = new double[] { 1, 3, 5, 7, 9 };
+		double[] latest = new double[] { 2, 4, 6, 8, 10 };
+		
+		MannWhitney test = MannWhitney.test(baseline, latest);
+		
+		assertTrue(test.getPValue() > 0.5);
+	}
+	
+	@Test
+	public void testIdenticalValuesAreNotSignificant() {
+		MannWhitney test = MannWhitney.test(new double[] { 4, 4, 4 }, new double[] { 4, 4 });
+		
+		assertEquals(1, test.getPValue(), 0.0001);
+	}
+	
+	@Test
+	public void testTiesShareTheirAverageRank() {
+		// ranks of the baseline are 1, 2.5 and 4.5
+		MannWhitney test = MannWhitney.test(new double[] { 1, 2, 3 }, new double[] { 2, 3, 4 });
+		
+		assertEquals(1 + 2.5 + 4.5 - 6, test.getU(), 0.0001);
+	}
+}
@@ -0,0 +1,44 @@
+package org.agaveapi.ops.speedtest.cli.stats;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class PairedOverheadTest {
+	
+	@Test
+	public void testOverheadIsRatioOfTotals() {
+		PairedOverhead overhead = new PairedOverhead();
+		overhead.record(150, 100);
+		overhead.record(250, 200);
+		
+		assertEquals(400d / 300 - 1, overhead.getOverhead(), 1e-9);
+		assertEquals(200, overhead.getSubjectMean(), 1e-9);
+		assertEquals(150, overhead.getReferenceMean(), 1e-9);
+	}
+	
+	@Test
+	public void testIntervalContainsOverhead() {
+		PairedOverhead overhead = new PairedOverhead();
+		for (int i=0; i<20; i++) {
+			// 30% slower with some noise on both sides
+			long reference = 1000000 + (i % 5) * 50000;
+			overhead.record(Math.round(reference * (1.3 + ((i % 3) - 1) * 0.05)), reference);
+		}
+		
+		double[] interval = overhead.getConfidenceInterval(0.95);
+		assertTrue(interval[0] <= overhead.getOverhead());
+		assertTrue(interval[1] >= overhead.getOverhead());
+		assertTrue(interval[0] > 0.2);
+		assertTrue(interval[1] < 0.4);
+	}
+	
+	@Test
+	public void testIntervalNeedsTwoPairs() {
+		PairedOverhead overhead = new PairedOverhead();
+		overhead.record(150, 100);
+		
+		assertTrue(Double.isNaN(overhead.getConfidenceInterval(0.95)[0]));
+	}
+}
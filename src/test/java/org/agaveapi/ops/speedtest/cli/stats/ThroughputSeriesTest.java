@@ -0,0 +1,77 @@
+package org.agaveapi.ops.speedtest.cli.stats;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class ThroughputSeriesTest {
+	
+	private static final long INTERVAL = 100000000L;
+	
+	/**
+	 * Records one interval per value, each moving {@code kb} kilobytes in 100ms.
+	 */
+	private ThroughputSeries series(int capacity, int... kb) {
+		ThroughputSeries series = new ThroughputSeries(SampleListener.UPLOAD, 1, capacity);
+		for (int i=0; i<kb.length; i++) {
+			series.record((i + 1) * INTERVAL, INTERVAL, kb[i] * 1024L);
+		}
+		return series;
+	}
+	
+	@Test
+	public void testSlowStartReachesSteadyState() {
+		int[] kb = new int[23];
+		kb[0] = 0;
+		kb[1] = 1;
+		kb[2] = 5;
+		for (int i=3; i<kb.length; i++) kb[i] = 100;
+		
+		ThroughputSeries series = series(100, kb);
+		
+		assertEquals(1000, series.getSteadyStateRate(), 0.001);
+		assertEquals(300, series.getTimeToSteadyState(), 0.001);
+		assertEquals(1000, series.getPeakRate(), 0.001);
+		// latency and slow start come before steady state, so are not stalls
+		assertEquals(0, series.getStallCount());
+	}
+	
+	@Test
+	public void testStallsAreMergedAndFinalIntervalIgnored() {
+		int[] kb = new int[] { 100, 100, 100, 100, 100, 100, 100, 100, 100, 100, 
+				0, 0, 100, 100, 100, 100, 100, 0, 100, 100, 100, 100, 100, 100, 0 };
+		
+		ThroughputSeries series = series(100, kb);
+		
+		assertEquals(0, series.getTimeToSteadyState(), 0.001);
+		assertEquals(2, series.getStallCount());
+		assertEquals(300, series.getStalledTime(), 0.001);
+	}
+	
+	@Test
+	public void testRingBufferKeepsMostRecentIntervals() {
+		ThroughputSeries series = series(4, 1, 2, 3, 4, 5, 6);
+		
+		assertTrue(series.isWrapped());
+		assertEquals(4, series.size());
+		assertEquals(3 * 1024L, series.getBytes(0));
+		assertEquals(6 * 1024L, series.getBytes(3));
+		assertEquals(6 * INTERVAL, series.getOffset(3));
+		assertEquals(21 * 1024L, series.getTotalBytes());
+	}
+	
+	@Test
+	public void testRatesAreMergedToFit() {
+		ThroughputSeries series = series(100, 10, 30, 10, 30, 10, 30, 10, 30, 10, 30);
+		
+		double[] rates = series.getRates(5);
+		
+		assertFalse(series.isWrapped());
+		assertEquals(5, rates.length);
+		for (double rate: rates) {
+			assertEquals(200, rate, 0.001);
+		}
+	}
+}